@@ -0,0 +1,127 @@
+package com.github.tatercertified.benchmarks;
+
+import com.github.tatercertified.utils.GradleOutputStream;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.Marker;
+import org.slf4j.helpers.LegacyAbstractLogger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast build output is turned into log messages, for output resembling a Loom build.<p>
+ * The output is written in 8 KiB chunks, the way the tooling API forwards it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GradleOutputStreamBenchmark {
+    private static final int CHUNK_BYTES = 8192;
+
+    @Param({"10000"})
+    public int lines;
+
+    @Param({"true", "false"})
+    public boolean infoEnabled;
+
+    private byte[] output;
+    private ScheduledExecutorService scheduler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < this.lines; i++) {
+            builder.append("> Task :remapJar ").append(random.nextInt(1000));
+            // Some non-ASCII output, as printed by mod names and localized tooling
+            if (i % 10 == 0) {
+                builder.append(" Gr\u00f6\u00dfe \u2192 \u2713");
+            }
+            builder.append(" ".repeat(random.nextInt(80))).append('\n');
+        }
+        this.output = builder.toString().getBytes(StandardCharsets.UTF_8);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        this.scheduler.shutdownNow();
+    }
+
+    @Benchmark
+    public void batched(Blackhole blackhole) throws IOException {
+        try (GradleOutputStream stream = new GradleOutputStream(new ConsumingLogger(blackhole, this.infoEnabled), false, null, this.scheduler)) {
+            writeChunks(stream);
+        }
+    }
+
+    @Benchmark
+    public void perByte(Blackhole blackhole) throws IOException {
+        try (LegacyGradleOutputStream stream = new LegacyGradleOutputStream(new ConsumingLogger(blackhole, this.infoEnabled), false)) {
+            writeChunks(stream);
+        }
+    }
+
+    private void writeChunks(OutputStream stream) throws IOException {
+        for (int offset = 0; offset < this.output.length; offset += CHUNK_BYTES) {
+            stream.write(this.output, offset, Math.min(CHUNK_BYTES, this.output.length - offset));
+        }
+    }
+
+    /**
+     * Hands every message to the blackhole, so the cost of building the messages is measured without any appender
+     */
+    private static class ConsumingLogger extends LegacyAbstractLogger {
+        private final Blackhole blackhole;
+        private final boolean infoEnabled;
+
+        private ConsumingLogger(Blackhole blackhole, boolean infoEnabled) {
+            this.blackhole = blackhole;
+            this.infoEnabled = infoEnabled;
+        }
+
+        @Override
+        public boolean isTraceEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return this.infoEnabled;
+        }
+
+        @Override
+        public boolean isWarnEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isErrorEnabled() {
+            return true;
+        }
+
+        @Override
+        protected String getFullyQualifiedCallerName() {
+            return null;
+        }
+
+        @Override
+        protected void handleNormalizedLoggingCall(org.slf4j.event.Level level, Marker marker, String message, Object[] arguments, Throwable throwable) {
+            this.blackhole.consume(message);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.github.tatercertified.benchmarks;
+
+import com.github.tatercertified.utils.JarPatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Compares patching the mod config of a jar by copying raw entries against inflating and deflating every entry
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JarPatcherBenchmark {
+    private static final String CONFIG = "fabric.mod.json";
+
+    @Param({"100", "1000", "5000"})
+    public int entries;
+
+    private Path jar;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.jar = Files.createTempFile("multimc-patcher", ".jar");
+        this.output = Files.createTempFile("multimc-patcher-out", ".jar");
+        generateJar(this.jar, this.entries);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.jar);
+        Files.deleteIfExists(this.output);
+    }
+
+    /**
+     * Writes a jar of pseudo class files of 1-3 KiB and a mod config containing %mcVer%
+     */
+    public static void generateJar(Path jar, int entries) throws IOException {
+        Random random = new Random(entries);
+        try (JarOutputStream jos = new JarOutputStream(Files.newOutputStream(jar), new Manifest())) {
+            jos.putNextEntry(new JarEntry(CONFIG));
+            jos.write("{\"depends\": {\"minecraft\": \"%mcVer%\"}}".getBytes(StandardCharsets.UTF_8));
+            jos.closeEntry();
+            for (int i = 0; i < entries; i++) {
+                jos.putNextEntry(new JarEntry("com/example/pkg" + (i % 64) + "/Generated" + i + ".class"));
+                byte[] data = new byte[1024 + random.nextInt(2048)];
+                // Half random, half repeated, so the data compresses roughly like bytecode
+                for (int j = 0; j < data.length; j++) {
+                    data[j] = j % 2 == 0 ? (byte) random.nextInt(256) : (byte) (j & 0x0F);
+                }
+                jos.write(data);
+                jos.closeEntry();
+            }
+        }
+    }
+
+    @Benchmark
+    public boolean rawCopy() throws IOException {
+        return JarPatcher.patchEntry(this.jar, this.output, CONFIG, config -> config.replace("%mcVer%", ">=1.21.5 <=1.21.7"));
+    }
+
+    @Benchmark
+    public boolean streamCopy() throws IOException {
+        return JarPatcher.patchEntryByCopy(this.jar, this.output, CONFIG, config -> config.replace("%mcVer%", ">=1.21.5 <=1.21.7"));
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.tatercertified.benchmarks;
+
+import com.vdurmont.semver4j.Semver;
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+
+/**
+ * The original {@link java.io.RandomAccessFile} based preprocessor, kept as a baseline for the benchmarks
+ */
+public final class LegacyClassFileModifier {
+    private LegacyClassFileModifier() {
+    }
+
+    public static boolean modifyClassFile(Path classFilePath, Semver mcVer, Logger logger) {
+        boolean markChanged = false; // If a new build is necessary
+
+        try (RandomAccessFile file = new RandomAccessFile(classFilePath.toFile(), "rw")) {
+            String line;
+            long pointer = 0;
+            int lineCount = 0;
+            boolean modified = false;
+            boolean nextAnnotationOpening = true;
+            while ((line = file.readLine()) != null) {
+                long currentPointer = file.getFilePointer();
+                String modifiedLine = line.stripLeading();
+                if (modifiedLine.startsWith("//: ")) {
+                    String subString = modifiedLine.substring(4);
+                    if (subString.startsWith("END")) {
+                        if (nextAnnotationOpening) {
+                            printMalformedVersionSyntaxError(lineCount, line, classFilePath.getFileName().toString(), logger, false);
+                        }
+
+                        if (modified) {
+                            modified = false;
+                            line = swapEndingComment(line, false, logger);
+                            file.seek(pointer);
+                            file.writeBytes(line + System.lineSeparator());
+                        }
+
+                        nextAnnotationOpening = true;
+                    } else {
+                        if (!nextAnnotationOpening) {
+                            printMalformedVersionSyntaxError(lineCount, line, classFilePath.getFileName().toString(), logger, true);
+                        }
+
+                        String semverReq = modifiedLine.substring(4);
+                        if (!mcVer.satisfies(semverReq)) {
+                            modified = true;
+                            markChanged = true;
+                            line = swapStartingComment(line, false, logger);
+                            file.seek(pointer);
+                            file.writeBytes(line + System.lineSeparator());
+                        }
+
+                        nextAnnotationOpening = false;
+                    }
+                } else if (modifiedLine.startsWith("/*\\ ")) {
+                    if (!nextAnnotationOpening) {
+                        printMalformedVersionSyntaxError(lineCount, line, classFilePath.getFileName().toString(), logger, true);
+                    }
+
+                    String semverReq = modifiedLine.substring(4);
+                    if (mcVer.satisfies(semverReq)) {
+                        modified = true;
+                        markChanged = true;
+                        line = swapStartingComment(line, true, logger);
+                        file.seek(pointer);
+                        file.writeBytes(line + System.lineSeparator());
+                    }
+
+                    nextAnnotationOpening = false;
+                } else if (modified && modifiedLine.startsWith("\\END */")) {
+                    if (nextAnnotationOpening) {
+                        printMalformedVersionSyntaxError(lineCount, line, classFilePath.getFileName().toString(), logger, false);
+                    }
+
+                    modified = false;
+                    line = swapEndingComment(line, true, logger);
+                    file.seek(pointer);
+                    file.writeBytes(line + System.lineSeparator());
+
+                    nextAnnotationOpening = true;
+                }
+                pointer = currentPointer;
+                lineCount++;
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return markChanged;
+    }
+
+    private static void printMalformedVersionSyntaxError(int line, String lineStr, String classFileName, Logger logger, boolean expectedOpening) {
+        if (expectedOpening) {
+            logger.error("Expected opening syntax in {} at line {}: {}", classFileName, line, lineStr);
+        } else {
+            logger.error("Expected closing syntax in {} at line {}: {}", classFileName, line, lineStr);
+        }
+        throw new GradleException("Task failed: Syntax mismatch");
+    }
+
+    private static String swapStartingComment(String line, boolean enable, Logger logger) {
+        if (enable) {
+            logger.info("Replacing {} with {}", line, line.replace("/*\\", "//:"));
+            return line.replace("/*\\", "//:");
+        } else {
+            logger.info("Replacing {} with {}", line, line.replace("//:", "/*\\"));
+            return line.replace("//:", "/*\\");
+        }
+    }
+
+    private static String swapEndingComment(String line, boolean enable, Logger logger) {
+        if (enable) {
+            logger.info("Replacing {} with {}", line, line.replace("\\END */", "//: END"));
+            return line.replace("\\END */", "//: END");
+        } else {
+            logger.info("Replacing {} with {}", line, line.replace("//: END", "\\END */"));
+            return line.replace("//: END", "\\END */");
+        }
+    }
+}
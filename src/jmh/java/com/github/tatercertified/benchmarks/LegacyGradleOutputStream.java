@@ -0,0 +1,40 @@
+package com.github.tatercertified.benchmarks;
+
+import org.slf4j.Logger;
+
+import java.io.OutputStream;
+
+/**
+ * The original per-byte {@link com.github.tatercertified.utils.GradleOutputStream}, kept as the baseline for benchmarks
+ */
+public class LegacyGradleOutputStream extends OutputStream {
+    private final Logger logger;
+    private final boolean isError;
+    private final StringBuilder buffer = new StringBuilder();
+
+    public LegacyGradleOutputStream(Logger logger, boolean isError) {
+        this.logger = logger;
+        this.isError = isError;
+    }
+
+    @Override
+    public void write(int b) {
+        if (b == '\n') {
+            flush();
+        } else {
+            buffer.append((char) b);
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (!buffer.isEmpty()) {
+            if (isError) {
+                logger.error(buffer.toString());
+            } else {
+                logger.info(buffer.toString());
+            }
+            buffer.setLength(0);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.tatercertified.benchmarks;
+
+import com.github.tatercertified.utils.SemverComparator;
+import com.vdurmont.semver4j.Semver;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures ordering Minecraft versions, which happens on every lookup in the version map of an MCBuildConfig.<p>
+ * "cached" uses {@link SemverComparator}; "parsing" parses both versions on every comparison, as the comparator did
+ * before versions were cached.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SemverComparatorBenchmark {
+    private static final Comparator<String> PARSING = (first, second) -> {
+        Semver firstSem = new Semver(first, Semver.SemverType.STRICT);
+        Semver secondSem = new Semver(second, Semver.SemverType.STRICT);
+        if (firstSem.isLowerThan(secondSem)) {
+            return -1;
+        } else if (firstSem.isEqualTo(secondSem)) {
+            return 0;
+        } else {
+            return 1;
+        }
+    };
+
+    @Param({"20", "200"})
+    public int versions;
+
+    private List<String> shuffled;
+    private TreeMap<String, String> versionMap;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<String> generated = new ArrayList<>();
+        for (int minor = 14; generated.size() < this.versions; minor++) {
+            for (int patch = 0; patch < 10 && generated.size() < this.versions; patch++) {
+                generated.add("1." + minor + "." + patch);
+            }
+        }
+        Collections.shuffle(generated, new Random(this.versions));
+        this.shuffled = generated;
+        this.versionMap = new TreeMap<>(new SemverComparator());
+        for (String version : generated) {
+            this.versionMap.put(version, version);
+        }
+    }
+
+    @Benchmark
+    public List<String> sortCached() {
+        List<String> sorted = new ArrayList<>(this.shuffled);
+        sorted.sort(new SemverComparator());
+        return sorted;
+    }
+
+    @Benchmark
+    public List<String> sortParsing() {
+        List<String> sorted = new ArrayList<>(this.shuffled);
+        sorted.sort(PARSING);
+        return sorted;
+    }
+
+    @Benchmark
+    public int lookupAll() {
+        int found = 0;
+        for (String version : this.shuffled) {
+            if (this.versionMap.get(version) != null) {
+                found++;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.tatercertified.benchmarks;
+
+import com.github.tatercertified.utils.SourcePreprocessor;
+import com.vdurmont.semver4j.Semver;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the buffered preprocessor against the original {@link java.io.RandomAccessFile} implementation.<p>
+ * Every invocation switches the whole tree to the other Minecraft version, so each marked file gets rewritten.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SourcePreprocessorBenchmark {
+    private static final Logger LOGGER = Logging.getLogger(SourcePreprocessorBenchmark.class);
+    private static final Semver[] VERSIONS = {
+            new Semver("1.20.1", Semver.SemverType.NPM),
+            new Semver("1.21.7", Semver.SemverType.NPM)
+    };
+
+    @Param({"500", "2500"})
+    public int files;
+
+    @Param({"0.03", "0.5"})
+    public double markerDensity;
+
+    private Path root;
+    private List<Path> sources;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.root = Files.createTempDirectory("multimc-preprocessor");
+        this.sources = SourceTrees.generate(this.root, this.files, 200, this.markerDensity);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SourceTrees.delete(this.root);
+    }
+
+    private Semver nextVersion() {
+        return VERSIONS[this.next++ & 1];
+    }
+
+    @Benchmark
+    public void buffered(Blackhole blackhole) {
+        Semver mcVer = nextVersion();
+        for (Path source : this.sources) {
+            blackhole.consume(SourcePreprocessor.process(source, mcVer, LOGGER));
+        }
+    }
+
+    @Benchmark
+    public void randomAccessFile(Blackhole blackhole) {
+        Semver mcVer = nextVersion();
+        for (Path source : this.sources) {
+            blackhole.consume(LegacyClassFileModifier.modifyClassFile(source, mcVer, LOGGER));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.tatercertified.benchmarks;
+
+import com.github.tatercertified.utils.MarkerIndex;
+import com.github.tatercertified.utils.SourcePreprocessor;
+import com.vdurmont.semver4j.Semver;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Switches whole generated source trees between two Minecraft versions, the way modifySourceCode does for every
+ * version: walk the tree, find the marked files through the marker index, then preprocess them in parallel.<p>
+ * "cold" starts from an empty index, as in the first compile of a checkout; "indexed" reuses the index of the
+ * previous invocation, as in every later version of a compile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class SourceTreeBenchmark {
+    private static final Logger LOGGER = Logging.getLogger(SourceTreeBenchmark.class);
+    private static final Semver[] VERSIONS = {
+            new Semver("1.20.1", Semver.SemverType.NPM),
+            new Semver("1.21.7", Semver.SemverType.NPM)
+    };
+
+    @Param({"1000", "10000", "50000"})
+    public int files;
+
+    @Param({"0.03"})
+    public double markerDensity;
+
+    private Path root;
+    private MarkerIndex index;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        this.root = Files.createTempDirectory("multimc-tree");
+        // Short files keep the 50k tree at a size that fits a temporary directory
+        SourceTrees.generate(this.root, this.files, 40, this.markerDensity);
+        this.index = MarkerIndex.load(this.root.resolve("marker-index.bin"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SourceTrees.delete(this.root);
+    }
+
+    @Benchmark
+    public int cold() throws IOException {
+        return switchTree(MarkerIndex.load(this.root.resolve("missing-index.bin")));
+    }
+
+    @Benchmark
+    public int indexed() throws IOException {
+        return switchTree(this.index);
+    }
+
+    private int switchTree(MarkerIndex markerIndex) throws IOException {
+        Semver mcVer = VERSIONS[this.next++ & 1];
+        List<Path> sourceFiles;
+        try (Stream<Path> stream = Files.walk(this.root.resolve("src/main/java"))) {
+            sourceFiles = stream.filter(path -> path.toString().endsWith(".java")).sorted().toList();
+        }
+        List<Path> markedFiles = markerIndex.refresh(sourceFiles);
+        return (int) markedFiles.parallelStream()
+                .filter(file -> SourcePreprocessor.process(file, mcVer, LOGGER, markerIndex))
+                .count();
+    }
+}
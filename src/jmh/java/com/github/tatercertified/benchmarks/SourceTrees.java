@@ -0,0 +1,81 @@
+package com.github.tatercertified.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates synthetic mod source trees for the benchmarks
+ */
+public final class SourceTrees {
+    private SourceTrees() {
+    }
+
+    /**
+     * Writes a source tree under {@code root}/src/main/java
+     * @param root The project directory
+     * @param files The number of source files
+     * @param lines The number of lines per file
+     * @param markerDensity The fraction of files containing version blocks
+     * @return All generated files
+     */
+    public static List<Path> generate(Path root, int files, int lines, double markerDensity) throws IOException {
+        Random random = new Random(files * 31L + lines);
+        List<Path> generated = new ArrayList<>(files);
+        Path sources = root.resolve("src/main/java/com/example");
+        for (int i = 0; i < files; i++) {
+            Path pkg = sources.resolve("pkg" + (i % 64));
+            Files.createDirectories(pkg);
+            Path file = pkg.resolve("Generated" + i + ".java");
+            Files.writeString(file, generateClass(i, lines, random.nextDouble() < markerDensity), StandardCharsets.UTF_8);
+            generated.add(file);
+        }
+        return generated;
+    }
+
+    private static String generateClass(int index, int lines, boolean markers) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("package com.example.pkg").append(index % 64).append(";\n\n");
+        builder.append("public class Generated").append(index).append(" {\n");
+        for (int line = 0; line < lines; line++) {
+            if (markers && line % 50 == 0) {
+                builder.append("    //: >=1.21\n");
+                builder.append("    public int modern").append(line).append("() { return ").append(line).append("; }\n");
+                builder.append("    //: END\n");
+                builder.append("    /*\\ <1.21\n");
+                builder.append("    public int legacy").append(line).append("() { return ").append(-line).append("; }\n");
+                builder.append("    \\END */\n");
+            } else {
+                builder.append("    private final int field").append(line).append(" = ").append(line).append(";\n");
+            }
+        }
+        builder.append("}\n");
+        return builder.toString();
+    }
+
+    public static void delete(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
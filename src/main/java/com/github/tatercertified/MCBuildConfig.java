@@ -2,20 +2,67 @@ package com.github.tatercertified;
 
 import com.github.tatercertified.utils.MCGradleBuilder;
 
-import java.util.HashMap;
-import java.util.TreeMap;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.SortedMap;
 import java.util.function.Consumer;
 
-public class MCBuildConfig {
-    private final TreeMap<String, HashMap<String, String>> dependencies;
+/**
+ * The gradle.properties overrides of every Minecraft version.<p>
+ * The configuration is resolved the first time it is used and cached. Only the resolved overrides are serialized,
+ * so the configuration block itself does not have to be serializable.
+ */
+public class MCBuildConfig implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 2L;
+
+    private transient Consumer<MCGradleBuilder> configure;
+    private SortedMap<String, Map<String, String>> dependencies;
+    private transient String serialized;
 
     public MCBuildConfig(Consumer<MCGradleBuilder> configure) {
-        MCGradleBuilder builder = new MCGradleBuilder();
-        configure.accept(builder);
-        this.dependencies = builder.build();
+        this.configure = configure;
     }
 
-    public TreeMap<String, HashMap<String, String>> getDependencies() {
+    /**
+     * @return Unmodifiable overrides by version, in version order; a null value excludes the variable
+     * @throws com.github.tatercertified.utils.InvalidBuildConfigException If the configuration cannot be resolved
+     */
+    public synchronized SortedMap<String, Map<String, String>> getDependencies() {
+        if (this.dependencies == null) {
+            MCGradleBuilder builder = new MCGradleBuilder();
+            this.configure.accept(builder);
+            this.dependencies = builder.build();
+            this.configure = null;
+        }
         return this.dependencies;
     }
+
+    /**
+     * Describes every version and its overrides in a stable form, used as a task input
+     * @return One line per override, in version and key order
+     */
+    public synchronized String serialize() {
+        if (this.serialized == null) {
+            StringBuilder builder = new StringBuilder();
+            for (Map.Entry<String, Map<String, String>> version : getDependencies().entrySet()) {
+                builder.append(version.getKey()).append('\n');
+                // The overrides are sorted by key, excluded values are null
+                for (Map.Entry<String, String> override : version.getValue().entrySet()) {
+                    builder.append('\t').append(override.getKey()).append('=').append(override.getValue()).append('\n');
+                }
+            }
+            this.serialized = builder.toString();
+        }
+        return this.serialized;
+    }
+
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        getDependencies();
+        out.defaultWriteObject();
+    }
 }
@@ -1,13 +1,24 @@
 package com.github.tatercertified;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serial;
+import java.io.Serializable;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MultiMCExtension implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
 
-public class MultiMCExtension {
     /**
      * The directory to stick the compiled jars
      */
-    private Path outputDir;
+    private transient Path outputDir;
     /**
      * The path to the mod config (ex: fabric mod json) inside a compiled jar.<p>
      * <b>This should be set to the key of a property in the gradle.properties file in the specific loader submodule</b>
@@ -16,7 +27,7 @@ public class MultiMCExtension {
     /**
      * Loader and the path to the build directory (submodule directory)
      */
-    private HashMap<String, Path> loaderSpecificPaths;
+    private transient HashMap<String, Path> loaderSpecificPaths;
     /**
      * GradleConfig instance
      */
@@ -30,7 +41,7 @@ public class MultiMCExtension {
     /**
      * Paths to modules that contains commonly shared code
      */
-    private Path[] commonDirs = new Path[0];
+    private transient Path[] commonDirs = new Path[0];
 
     /**
      * The version that is actively being developed for
@@ -43,6 +54,94 @@ public class MultiMCExtension {
      */
     private String outputFileOverride;
 
+    /**
+     * The number of threads used to preprocess source files (default: number of available processors)
+     */
+    private int preprocessorThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * The tasks run on each submodule build (default: build)
+     */
+    private List<String> buildTasks = List.of("build");
+
+    /**
+     * Extra command line arguments for each submodule build (ex: "--build-cache", "--configuration-cache")
+     */
+    private List<String> buildArguments = List.of();
+
+    /**
+     * JVM arguments for the submodule build daemon (default: org.gradle.jvmargs of the submodule)
+     */
+    private List<String> buildJvmArgs = List.of();
+
+    /**
+     * Whether each version is preprocessed and built in its own copy of the subprojects under build/multimc,
+     * leaving the working tree untouched and allowing builds to run at the same time (default: false)
+     */
+    private boolean isolatedBuilds = false;
+
+    /**
+     * The maximum number of isolated builds running at the same time (default: 2). Each of them starts its own daemon.
+     * multiCompile runs them as work items, so --max-workers limits them as well
+     */
+    private int buildParallelism = 2;
+
+    /**
+     * Whether %mcVer% in the mod config is filled in while the submodule processes its resources,
+     * instead of rewriting every jar after all builds finished (default: false)
+     */
+    private boolean injectVersionRange = false;
+
+    /**
+     * The directory built jars are cached in, keyed by a hash of their sources, gradle.properties and build files.
+     * Versions whose inputs did not change since an earlier multiCompile are not built again (default: disabled)
+     */
+    private transient Path outputCacheDir;
+
+    /**
+     * The size the output cache is trimmed to, evicting the least recently used jars first (default: 2 GiB)
+     */
+    private long outputCacheMaxBytes = 2L * 1024 * 1024 * 1024;
+
+    /**
+     * The directory the output of each submodule build is written to, as {loader}-{version}.log,
+     * instead of the Gradle log. Errors are still logged (default: disabled)
+     */
+    private transient Path buildLogDir;
+
+    /**
+     * How the isolated builds and the jar patching are isolated from the build that runs multiCompile:
+     * "none", "classloader" or "process" (default: "classloader")
+     */
+    private String workerIsolation = "classloader";
+
+    /**
+     * Whether to report how many bytes the jars of each loader share, as multicompile-sharing.json in the output directory (default: false)
+     */
+    private boolean sharingReport = false;
+
+    /**
+     * How long watchMCVersion waits for further changes before switching a batch of files, in milliseconds (default: 50)
+     */
+    private long watchQuietMillis = 50;
+
+    /**
+     * Whether an in-place multiCompile preprocesses the sources into build/multimc/generated and compiles them from
+     * there, instead of rewriting the working tree. Not used with isolated builds (default: false)
+     */
+    private boolean generatedSources = false;
+
+    /**
+     * Whether multiCompile stops at the first version that fails to compile, cancelling the builds still running,
+     * instead of skipping it and building the rest (default: false)
+     */
+    private boolean failFast = false;
+
+    /**
+     * Whether multiCompile skips versions that failed last time and whose inputs did not change since (default: false)
+     */
+    private boolean skipKnownFailures = false;
+
     public Path getOutputDir() {
         return this.outputDir;
     }
@@ -106,4 +205,227 @@ public class MultiMCExtension {
     public void setOutputFileOverride(String outputFileOverride) {
         this.outputFileOverride = outputFileOverride;
     }
+
+    public int getPreprocessorThreads() {
+        return preprocessorThreads;
+    }
+
+    public void setPreprocessorThreads(int preprocessorThreads) {
+        this.preprocessorThreads = preprocessorThreads;
+    }
+
+    public List<String> getBuildTasks() {
+        return buildTasks;
+    }
+
+    public void setBuildTasks(List<String> buildTasks) {
+        this.buildTasks = buildTasks;
+    }
+
+    public List<String> getBuildArguments() {
+        return buildArguments;
+    }
+
+    public void setBuildArguments(List<String> buildArguments) {
+        this.buildArguments = buildArguments;
+    }
+
+    public List<String> getBuildJvmArgs() {
+        return buildJvmArgs;
+    }
+
+    public void setBuildJvmArgs(List<String> buildJvmArgs) {
+        this.buildJvmArgs = buildJvmArgs;
+    }
+
+    public boolean isIsolatedBuilds() {
+        return isolatedBuilds;
+    }
+
+    public void setIsolatedBuilds(boolean isolatedBuilds) {
+        this.isolatedBuilds = isolatedBuilds;
+    }
+
+    public int getBuildParallelism() {
+        return buildParallelism;
+    }
+
+    public void setBuildParallelism(int buildParallelism) {
+        this.buildParallelism = buildParallelism;
+    }
+
+    public boolean isInjectVersionRange() {
+        return injectVersionRange;
+    }
+
+    public void setInjectVersionRange(boolean injectVersionRange) {
+        this.injectVersionRange = injectVersionRange;
+    }
+
+    public Path getOutputCacheDir() {
+        return outputCacheDir;
+    }
+
+    public void setOutputCacheDir(Path outputCacheDir) {
+        this.outputCacheDir = outputCacheDir;
+    }
+
+    public long getOutputCacheMaxBytes() {
+        return outputCacheMaxBytes;
+    }
+
+    public void setOutputCacheMaxBytes(long outputCacheMaxBytes) {
+        this.outputCacheMaxBytes = outputCacheMaxBytes;
+    }
+
+    public Path getBuildLogDir() {
+        return buildLogDir;
+    }
+
+    public void setBuildLogDir(Path buildLogDir) {
+        this.buildLogDir = buildLogDir;
+    }
+
+    public String getWorkerIsolation() {
+        return workerIsolation;
+    }
+
+    public void setWorkerIsolation(String workerIsolation) {
+        this.workerIsolation = workerIsolation;
+    }
+
+    public boolean isSharingReport() {
+        return sharingReport;
+    }
+
+    public void setSharingReport(boolean sharingReport) {
+        this.sharingReport = sharingReport;
+    }
+
+    public long getWatchQuietMillis() {
+        return watchQuietMillis;
+    }
+
+    public void setWatchQuietMillis(long watchQuietMillis) {
+        this.watchQuietMillis = watchQuietMillis;
+    }
+
+    public boolean isGeneratedSources() {
+        return generatedSources;
+    }
+
+    public void setGeneratedSources(boolean generatedSources) {
+        this.generatedSources = generatedSources;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    public void setFailFast(boolean failFast) {
+        this.failFast = failFast;
+    }
+
+    public boolean isSkipKnownFailures() {
+        return skipKnownFailures;
+    }
+
+    public void setSkipKnownFailures(boolean skipKnownFailures) {
+        this.skipKnownFailures = skipKnownFailures;
+    }
+
+    /**
+     * Copies the configuration for a task, with every path resolved against the root project
+     * @param rootDir The root project directory
+     * @return A copy that is not affected by later changes to this extension
+     */
+    public MultiMCExtension snapshot(Path rootDir) {
+        MultiMCExtension copy = new MultiMCExtension();
+        copy.outputDir = resolve(rootDir, this.outputDir);
+        copy.modConfigFileRelativePath = this.modConfigFileRelativePath;
+        if (this.loaderSpecificPaths != null) {
+            copy.loaderSpecificPaths = new HashMap<>();
+            for (Map.Entry<String, Path> entry : this.loaderSpecificPaths.entrySet()) {
+                copy.loaderSpecificPaths.put(entry.getKey(), resolve(rootDir, entry.getValue()));
+            }
+        }
+        copy.gradleConfig = this.gradleConfig;
+        copy.futureCompatible = this.futureCompatible;
+        copy.commonDirs = new Path[this.commonDirs.length];
+        for (int i = 0; i < this.commonDirs.length; i++) {
+            copy.commonDirs[i] = resolve(rootDir, this.commonDirs[i]);
+        }
+        copy.currentMinecraftVer = this.currentMinecraftVer;
+        copy.outputFileOverride = this.outputFileOverride;
+        copy.preprocessorThreads = this.preprocessorThreads;
+        copy.buildTasks = List.copyOf(this.buildTasks);
+        copy.buildArguments = List.copyOf(this.buildArguments);
+        copy.buildJvmArgs = List.copyOf(this.buildJvmArgs);
+        copy.isolatedBuilds = this.isolatedBuilds;
+        copy.buildParallelism = this.buildParallelism;
+        copy.injectVersionRange = this.injectVersionRange;
+        copy.outputCacheDir = resolve(rootDir, this.outputCacheDir);
+        copy.outputCacheMaxBytes = this.outputCacheMaxBytes;
+        copy.buildLogDir = resolve(rootDir, this.buildLogDir);
+        copy.workerIsolation = this.workerIsolation;
+        copy.sharingReport = this.sharingReport;
+        copy.watchQuietMillis = this.watchQuietMillis;
+        copy.generatedSources = this.generatedSources;
+        copy.failFast = this.failFast;
+        copy.skipKnownFailures = this.skipKnownFailures;
+        return copy;
+    }
+
+    private static Path resolve(Path rootDir, Path path) {
+        return path == null ? null : rootDir.resolve(path);
+    }
+
+    // Paths are not serializable, they are stored as strings for the configuration cache
+
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(toString(this.outputDir));
+        HashMap<String, String> loaders = null;
+        if (this.loaderSpecificPaths != null) {
+            loaders = new HashMap<>();
+            for (Map.Entry<String, Path> entry : this.loaderSpecificPaths.entrySet()) {
+                loaders.put(entry.getKey(), toString(entry.getValue()));
+            }
+        }
+        out.writeObject(loaders);
+        ArrayList<String> commons = new ArrayList<>();
+        for (Path common : this.commonDirs) {
+            commons.add(toString(common));
+        }
+        out.writeObject(commons);
+        out.writeObject(toString(this.outputCacheDir));
+        out.writeObject(toString(this.buildLogDir));
+    }
+
+    @Serial
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.outputDir = toPath((String) in.readObject());
+        HashMap<String, String> loaders = (HashMap<String, String>) in.readObject();
+        if (loaders != null) {
+            this.loaderSpecificPaths = new HashMap<>();
+            for (Map.Entry<String, String> entry : loaders.entrySet()) {
+                this.loaderSpecificPaths.put(entry.getKey(), toPath(entry.getValue()));
+            }
+        }
+        ArrayList<String> commons = (ArrayList<String>) in.readObject();
+        this.commonDirs = commons.stream().map(MultiMCExtension::toPath).toArray(Path[]::new);
+        this.outputCacheDir = toPath((String) in.readObject());
+        this.buildLogDir = toPath((String) in.readObject());
+    }
+
+    private static String toString(Path path) {
+        return path == null ? null : path.toString();
+    }
+
+    private static Path toPath(String path) {
+        return path == null ? null : Path.of(path);
+    }
 }
@@ -1,18 +1,107 @@
 package com.github.tatercertified;
 
+import com.github.tatercertified.tasks.BuildContext;
+import com.github.tatercertified.tasks.MultiCompileTask;
 import com.github.tatercertified.tasks.MultiMCCompile;
+import com.github.tatercertified.tasks.SwitchMCVersionTask;
+import com.github.tatercertified.tasks.WatchMCVersionTask;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 public class MultiMCGradle implements Plugin<Project> {
 
     @Override
     public void apply(@NotNull Project project) {
         MultiMCExtension ext = project.getExtensions()
                 .create("multimc", MultiMCExtension.class);
+        Path rootDir = project.getRootDir().toPath();
+
+        project.getTasks().register("multiCompile", MultiCompileTask.class, task -> {
+            task.getSettings().set(project.provider(() -> ext.snapshot(rootDir)));
+            task.getRootDir().set(project.getRootDir());
+            task.getRootBuildDir().set(project.getLayout().getBuildDirectory());
+            task.getSourceFiles().from(project.provider(() -> sourceTrees(project, ext)));
+            task.getBuildConfig().set(project.provider(() -> ext.getGradleConfig().serialize()));
+            task.getLoaders().set(project.provider(() -> {
+                Map<String, String> loaders = new TreeMap<>();
+                for (Map.Entry<String, Path> entry : ext.getLoaderSpecificPaths().entrySet()) {
+                    loaders.put(entry.getKey(), relativize(rootDir, entry.getValue()));
+                }
+                return loaders;
+            }));
+            task.getCommonDirs().set(project.provider(() -> {
+                List<String> commons = new ArrayList<>();
+                for (Path common : ext.getCommonDirs()) {
+                    commons.add(relativize(rootDir, common));
+                }
+                return commons;
+            }));
+            task.getModConfig().set(project.provider(ext::getModConfigFileRelativePath));
+            task.getFutureCompatible().set(project.provider(ext::isFutureCompatible));
+            task.getInjectVersionRange().set(project.provider(ext::isInjectVersionRange));
+            task.getSharingReport().set(project.provider(ext::isSharingReport));
+            task.getCurrentMinecraftVer().set(project.provider(ext::getCurrentMinecraftVer));
+            task.getOutputFileOverride().set(project.provider(ext::getOutputFileOverride));
+            task.getBuildTasks().set(project.provider(ext::getBuildTasks));
+            task.getBuildArguments().set(project.provider(ext::getBuildArguments));
+            task.getBuildJvmArgs().set(project.provider(ext::getBuildJvmArgs));
+            task.getProjectName().set(project.getName());
+            task.getChildVersions().set(project.provider(() -> BuildContext.childVersions(project)));
+            task.getOutputDir().set(project.getLayout().dir(project.provider(() -> rootDir.resolve(ext.getOutputDir()).toFile())));
+            if (project.getGradle().getStartParameter().isDryRun()) {
+                // A reused configuration would skip the whenReady callback below, and with it the plan
+                task.notCompatibleWithConfigurationCache("The dry-run build plan is printed while the task graph is built");
+            }
+        });
+        project.getTasks().register("switchMCVersion", SwitchMCVersionTask.class, task -> {
+            task.getSettings().set(project.provider(() -> ext.snapshot(rootDir)));
+            task.getRootDir().set(project.getRootDir());
+            task.getRootBuildDir().set(project.getLayout().getBuildDirectory());
+            task.getProjectName().set(project.getName());
+        });
+        project.getTasks().register("watchMCVersion", WatchMCVersionTask.class, task -> {
+            task.getSettings().set(project.provider(() -> ext.snapshot(rootDir)));
+            task.getRootDir().set(project.getRootDir());
+            task.getRootBuildDir().set(project.getLayout().getBuildDirectory());
+            task.getProjectName().set(project.getName());
+        });
+
+        // With --dry-run no task actions run, so the build plan is printed once the task graph is known
+        String multiCompilePath = project.absoluteProjectPath("multiCompile");
+        project.getGradle().getTaskGraph().whenReady(graph -> {
+            // By path, so the task is not created just to look for it
+            if (project.getGradle().getStartParameter().isDryRun() && graph.hasTask(multiCompilePath)) {
+                MultiMCCompile.printPlan(ext.snapshot(rootDir), BuildContext.of(project));
+            }
+        });
+    }
+
+    /**
+     * The files multiCompile reads: the sources, gradle.properties and build scripts of every loader and common directory,
+     * and the build scripts, gradle.properties and gradle directory (wrapper, version catalogs) of the root project,
+     * the same files the output cache key is made of
+     */
+    private static List<Object> sourceTrees(Project project, MultiMCExtension ext) {
+        List<Path> dirs = new ArrayList<>(ext.getLoaderSpecificPaths().values());
+        dirs.addAll(List.of(ext.getCommonDirs()));
+        List<Object> trees = new ArrayList<>();
+        trees.add(project.fileTree(project.getRootDir(), tree -> tree.include("gradle/**", "gradle.properties", "*.gradle", "*.gradle.kts")));
+        for (Path dir : dirs) {
+            File root = project.getRootDir().toPath().resolve(dir).toFile();
+            trees.add(project.fileTree(root, tree -> tree.include("src/**", "gradle.properties", "*.gradle", "*.gradle.kts")));
+        }
+        return trees;
+    }
 
-        project.getTasks().register("multiCompile").get().doLast(task -> MultiMCCompile.compile(ext, task.getProject()));
-        project.getTasks().register("switchMCVersion").get().doLast(task -> MultiMCCompile.switchVersion(ext, task.getProject()));
+    private static String relativize(Path rootDir, Path path) {
+        return rootDir.relativize(rootDir.resolve(path)).toString().replace(File.separatorChar, '/');
     }
 }
\ No newline at end of file
@@ -0,0 +1,41 @@
+package com.github.tatercertified.tasks;
+
+import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What the multiMC tasks need from the root project, captured so the task actions never touch the Project itself
+ * and can run from the configuration cache
+ * @param logger The logger of the running task
+ * @param rootDir The root project directory
+ * @param buildDir The build directory of the root project, which holds the indexes, worktrees and init scripts
+ * @param projectName The name of the root project, used in the output jar names
+ * @param childVersions The version of every child project by project name
+ */
+public record BuildContext(Logger logger, Path rootDir, Path buildDir, String projectName, Map<String, String> childVersions) {
+    /**
+     * Captures the context of a project during configuration
+     * @param project The root project
+     * @return BuildContext
+     */
+    public static BuildContext of(Project project) {
+        return new BuildContext(project.getLogger(), project.getRootDir().toPath(),
+                project.getLayout().getBuildDirectory().get().getAsFile().toPath(), project.getName(), childVersions(project));
+    }
+
+    /**
+     * @param project The root project
+     * @return The version of every child project by project name
+     */
+    public static Map<String, String> childVersions(Project project) {
+        Map<String, String> versions = new TreeMap<>();
+        for (Map.Entry<String, Project> child : project.getChildProjects().entrySet()) {
+            versions.put(child.getKey(), child.getValue().getVersion().toString());
+        }
+        return versions;
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.tatercertified.tasks;
+
+import com.github.tatercertified.MultiMCExtension;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.workers.WorkerExecutor;
+
+import javax.inject.Inject;
+
+/**
+ * Compiles every loader for every configured Minecraft version.<p>
+ * The sources and build files of the loaders and common directories, and every option that changes the produced jars,
+ * are declared as inputs, so the task is skipped when nothing changed. Options that only change how the builds are run
+ * (threads, isolation, log and cache locations) are not inputs.<p>
+ * The task is not cacheable: an in-place compile rewrites the sources and gradle.properties files it declares as
+ * inputs, so a cache entry would be keyed on files the task itself changes.
+ */
+public abstract class MultiCompileTask extends DefaultTask {
+    /**
+     * @return The sources, gradle.properties and build scripts of every loader and common directory, and the build scripts,
+     * gradle.properties and gradle directory of the root project
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public abstract ConfigurableFileCollection getSourceFiles();
+
+    /**
+     * @return The gradle.properties overrides of every version, see {@link com.github.tatercertified.MCBuildConfig#serialize()}
+     */
+    @Input
+    public abstract Property<String> getBuildConfig();
+
+    /**
+     * @return The subproject directory of every loader, relative to the root project
+     */
+    @Input
+    public abstract MapProperty<String, String> getLoaders();
+
+    /**
+     * @return The common directories, relative to the root project
+     */
+    @Input
+    public abstract ListProperty<String> getCommonDirs();
+
+    @Input
+    public abstract Property<String> getModConfig();
+
+    @Input
+    public abstract Property<Boolean> getFutureCompatible();
+
+    @Input
+    public abstract Property<Boolean> getInjectVersionRange();
+
+    @Input
+    public abstract Property<Boolean> getSharingReport();
+
+    /**
+     * @return The version the working tree is left at after an in-place compile
+     */
+    @Input
+    @Optional
+    public abstract Property<String> getCurrentMinecraftVer();
+
+    @Input
+    @Optional
+    public abstract Property<String> getOutputFileOverride();
+
+    @Input
+    public abstract ListProperty<String> getBuildTasks();
+
+    @Input
+    public abstract ListProperty<String> getBuildArguments();
+
+    @Input
+    public abstract ListProperty<String> getBuildJvmArgs();
+
+    /**
+     * @return The name of the root project, used in the output jar names
+     */
+    @Input
+    public abstract Property<String> getProjectName();
+
+    /**
+     * @return The version of every child project, used in the output jar names
+     */
+    @Input
+    public abstract MapProperty<String, String> getChildVersions();
+
+    @OutputDirectory
+    public abstract DirectoryProperty getOutputDir();
+
+    /**
+     * @return The complete configuration, with every path resolved against the root project
+     */
+    @Internal
+    public abstract Property<MultiMCExtension> getSettings();
+
+    @Internal
+    public abstract DirectoryProperty getRootDir();
+
+    /**
+     * @return The build directory of the root project, which holds the indexes and worktrees
+     */
+    @Internal
+    public abstract DirectoryProperty getRootBuildDir();
+
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    @TaskAction
+    public void compile() {
+        MultiMCCompile.compile(getSettings().get(), new BuildContext(getLogger(),
+                getRootDir().get().getAsFile().toPath(), getRootBuildDir().get().getAsFile().toPath(),
+                getProjectName().get(), getChildVersions().get()), getWorkerExecutor());
+    }
+}
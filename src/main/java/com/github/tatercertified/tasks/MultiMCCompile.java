@@ -1,251 +1,1002 @@
 package com.github.tatercertified.tasks;
 
 import com.github.tatercertified.MultiMCExtension;
+import com.github.tatercertified.utils.AppliedVersionState;
+import com.github.tatercertified.utils.BuildAbort;
+import com.github.tatercertified.utils.BuildFailures;
+import com.github.tatercertified.utils.BuildMetrics;
+import com.github.tatercertified.utils.BuildOutputCache;
+import com.github.tatercertified.utils.BuildPlanner;
+import com.github.tatercertified.utils.GeneratedSources;
+import com.github.tatercertified.utils.GradleConnectionPool;
+import com.github.tatercertified.utils.IsolatedWorktree;
+import com.github.tatercertified.utils.JarComparator;
+import com.github.tatercertified.utils.JarPatcher;
+import com.github.tatercertified.utils.JarSharingReport;
+import com.github.tatercertified.utils.MarkerIndex;
+import com.github.tatercertified.utils.PropertiesEditor;
 import com.github.tatercertified.utils.RemoteGradleRunner;
+import com.github.tatercertified.utils.SemverCache;
+import com.github.tatercertified.utils.SourceWatcher;
+import com.github.tatercertified.utils.SourcePreprocessor;
+import com.github.tatercertified.utils.SubmoduleInitScript;
+import com.github.tatercertified.utils.WorkspaceJournal;
 import com.vdurmont.semver4j.Semver;
 import org.gradle.api.GradleException;
-import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
+import org.gradle.workers.WorkerExecutor;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
+import java.util.concurrent.*;
+import java.util.function.UnaryOperator;
 import java.util.stream.Stream;
 
 public class MultiMCCompile {
 
-    public static void compile(MultiMCExtension ext, Project project) {
+    /**
+     * Compiles every loader for every configured Minecraft version
+     * @param ext MultiMCExtension instance
+     * @param context BuildContext instance
+     * @param workerExecutor Runs the isolated builds and the jar patching as Gradle work items, or null to run them on a thread pool
+     * @throws GradleException If a version failed to compile or was skipped as a known failure, once every other version is done
+     */
+    public static void compile(MultiMCExtension ext, BuildContext context, @Nullable WorkerExecutor workerExecutor) {
         // Ensure the proper working directory is set
-        ext.setOutputDir(project.getRootDir().toPath().resolve(ext.getOutputDir()));
-        for (Map.Entry<String, Path> entry : ext.getLoaderSpecificPaths().entrySet()) {
-            entry.setValue(project.getRootDir().toPath().resolve(entry.getValue()));
-        }
-        for (int i = 0; i < ext.getCommonDirs().length; i++) {
-            Path common = ext.getCommonDirs()[i];
-            ext.getCommonDirs()[i] = project.getRootDir().toPath().resolve(common);
-        }
-
-        createOutputDir(ext, project);
-        for (Map.Entry<String, Path> entry : ext.getLoaderSpecificPaths().entrySet()) {
-            copyGradleProperties(entry.getValue(), ext);
-            LinkedHashMap<Path, Path> previousJars = new LinkedHashMap<>();
-            Path lastJarFile = null;
-            int index = 0;
-            for (String mcVer : ext.getGradleConfig().getDependencies().keySet()) {
-                index++;
-                project.getLogger().info("--- Compiling {} ---", mcVer);
-                boolean markAsFutureCompatible = (index == ext.getGradleConfig().getDependencies().size()) && ext.isFutureCompatible();
-                modifyGradleProperties(ext, entry.getValue(), mcVer, project);
-                if (modifySourceCode(entry.getValue(), mcVer, project, ext) || lastJarFile == null) {
-                    project.getLogger().info("{} is incompatible with the previous version", mcVer);
-                    if (!RemoteGradleRunner.runBuildOnSubmodule(entry.getValue().toFile(), project)) {
-                        project.getLogger().warn("{} failed to compile; Ignoring...", mcVer);
-                        continue;
-                    }
+        resolvePaths(ext, context);
 
-                    String childName = entry.getValue().getFileName().toString();
-                    Project child = project.getChildProjects().get(childName);
-                    String projectName = project.getName();
-                    String projectVer = child.getVersion().toString();
-                    Path lastOutput = migrateOutputFile(entry.getValue(), projectName, projectVer, mcVer, entry.getKey(), ext.getOutputDir(), child, ext);
-                    if (lastOutput != null) {
-                        String mcVerFileName = lastOutput.getFileName().toString().replace(".jar", ".txt");
-                        Path mcVerFile = lastOutput.getParent().resolve(mcVerFileName);
-                        try {
-                            Files.deleteIfExists(mcVerFile);
-                            Files.createFile(mcVerFile);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                        try (BufferedWriter writer = new BufferedWriter(new FileWriter(mcVerFile.toFile()))) {
-                            if (markAsFutureCompatible) {
-                                writer.write(mcVer + ",*");
-                            } else {
-                                writer.write(mcVer + ",");
-                            }
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
+        createOutputDir(ext, context);
+        recoverWorkspace(context);
+        long runStart = System.currentTimeMillis();
+        BuildAbort.reset(getAbortFlagFile(context));
+        MarkerIndex markerIndex = MarkerIndex.load(getMarkerIndexFile(context));
+        BuildMetrics metrics = new BuildMetrics();
+        WorkUnitQueue queue = new WorkUnitQueue(workerExecutor, ext, context, metrics);
+        if (ext.isIsolatedBuilds()) {
+            try (PreprocessorPool preprocessorPool = new PreprocessorPool(ext)) {
+                compileIsolated(ext, context, markerIndex, queue, preprocessorPool);
+            }
+            markerIndex.save();
+        } else {
+            BuildOutputCache outputCache = getOutputCache(ext);
+            GeneratedSources generated = ext.isGeneratedSources() ? new GeneratedSources(context.rootDir(), getGeneratedSourcesDir(context)) : null;
+            if (generated == null) {
+                // Every version gets applied to the working tree, so the next switch cannot trust the applied state
+                AppliedVersionState.clear(getAppliedVersionFile(context));
+            }
+            WorkspaceJournal journal = WorkspaceJournal.begin(getJournalDir(context));
+            try {
+                // Connections stay open for the whole task so every version reuses the same daemon
+                try (PreprocessorPool preprocessorPool = new PreprocessorPool(ext)) {
+                    try (GradleConnectionPool pool = new GradleConnectionPool(ext.getBuildTasks(), ext.getBuildArguments(), ext.getBuildJvmArgs());
+                         BuildAbort abort = ext.isFailFast() ? BuildAbort.open(getAbortFlagFile(context)) : null) {
+                        for (Map.Entry<String, Path> entry : ext.getLoaderSpecificPaths().entrySet()) {
+                            compileLoader(entry.getKey(), entry.getValue(), ext, context, markerIndex, pool, outputCache, generated, abort, metrics, journal, preprocessorPool);
                         }
-                        previousJars.put(lastOutput, mcVerFile);
-                        lastJarFile = lastOutput;
-                    }
-                } else {
-                    project.getLogger().info("{} is compatible with the previous version", mcVer);
-                    Path mcVerFile = previousJars.get(lastJarFile);
-                    String line;
-                    try (BufferedReader reader = new BufferedReader(new FileReader(mcVerFile.toFile()))) {
-                        line = reader.readLine();
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
-                    }
-                    if (markAsFutureCompatible) {
-                        line += mcVer + ",*";
-                    } else {
-                        line += mcVer + ",";
                     }
-                    try (BufferedWriter writer = new BufferedWriter(new FileWriter(mcVerFile.toFile()))) {
-                        writer.write(line);
-                    } catch (IOException e) {
-                        throw new RuntimeException(e);
+                    markerIndex.save();
+                    if (generated == null && ext.getCurrentMinecraftVer() != null) {
+                        // Leave the sources at the development version instead of the last one built, so they match the task inputs next time
+                        applyVersion(ext, context, ext.getCurrentMinecraftVer(), journal, preprocessorPool);
                     }
                 }
+            } catch (RuntimeException e) {
+                recoverWorkspace(context);
+                throw e;
             }
-            cleanUp(entry.getValue(), ext);
+            journal.commit();
+        }
+        int unbuilt = reportFailures(context, runStart, metrics);
+
+        for (Map.Entry<String, Path> loader : ext.getLoaderSpecificPaths().entrySet()) {
+            mergeIdenticalJars(loader.getKey(), loader.getValue(), ext, context, metrics);
         }
 
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(ext.getOutputDir(), "*.jar")) {
             for (Path entry: stream) {
                 String txtFileName = entry.getFileName().toString().replace(".jar", ".txt");
-                File txtFile = ext.getOutputDir().resolve(txtFileName).toFile();
-                String[] supportedMCVers;
-                try (BufferedReader reader = new BufferedReader(new FileReader(txtFile))) {
-                    String line = reader.readLine();
-                    supportedMCVers = line.split(",");
+                Path txtFile = ext.getOutputDir().resolve(txtFileName);
+                if (!Files.isRegularFile(txtFile)) {
+                    // Left from an earlier run
+                    continue;
+                }
+                if (ext.isInjectVersionRange()) {
+                    // Already final, the range was injected during the build
+                    try {
+                        Files.delete(txtFile);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    continue;
                 }
-                Path workingDir = null;
+                Map.Entry<String, Path> loader = null;
                 for (Map.Entry<String, Path> loaderEntry : ext.getLoaderSpecificPaths().entrySet()) {
-                    if (txtFileName.contains(loaderEntry.getKey())) {
-                        workingDir = loaderEntry.getValue();
+                    if (isLoaderOutput(txtFileName, context.projectName(), loaderEntry.getKey())) {
+                        loader = loaderEntry;
                         break;
                     }
                 }
-                if (workingDir == null) {
+                if (loader == null) {
                     continue;
                 }
-                String configInJar = RemoteGradleRunner.getGradlePropertyValue(ext.getModConfigFileRelativePath(), workingDir);
-                modifyJsonInJar(entry, configInJar, supportedMCVers, project);
-                Files.delete(txtFile.toPath());
+                String configInJar = RemoteGradleRunner.getGradlePropertyValue(ext.getModConfigFileRelativePath(), loader.getValue());
+                queue.submit(new WorkUnit.PatchJar(loader.getKey(), entry.toString(), txtFile.toString(), configInJar));
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        queue.await();
+
+        if (ext.isSharingReport()) {
+            writeSharingReport(ext, context);
+        }
+        metrics.write(ext.getOutputDir());
+        context.logger().lifecycle("Build metrics written to {}", ext.getOutputDir().resolve(BuildMetrics.REPORT_NAME + ".json"));
+        if (unbuilt > 0) {
+            // A failed task is never up to date, so the next run tries these versions again
+            throw new GradleException(unbuilt + " version(s) were not built, see the failures listed above");
+        }
     }
 
     /**
-     * Switches the current Minecraft version to the one specified in the "multimc" block
+     * Fills in %mcVer% in the mod config of a built jar, then removes the file listing its versions
+     * @param loader The loader name
+     * @param jar The jar in the output directory
+     * @param txtFile The file listing the versions the jar supports
+     * @param configInJar The path of the mod config inside the jar
+     * @param context BuildContext instance
+     * @param metrics Receives the patching phase
+     */
+    static void patchJar(String loader, Path jar, Path txtFile, String configInJar, BuildContext context, BuildMetrics metrics) {
+        try {
+            String[] supportedMCVers;
+            try (BufferedReader reader = Files.newBufferedReader(txtFile)) {
+                String line = reader.readLine();
+                supportedMCVers = line.split(",");
+            }
+            try (BuildMetrics.Span span = metrics.start(loader, supportedMCVers[0], BuildMetrics.Phase.JAR_PATCHING)) {
+                modifyJsonInJar(jar, configInJar, supportedMCVers, context);
+                span.count("jarBytes", Files.size(jar));
+            }
+            Files.delete(txtFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Merges the jars of consecutive version classes that turned out identical, apart from the version range in the
+     * mod config, into the jar of the earlier class with a widened range. Runs before the jars are patched
+     * @param loader The loader name
+     * @param workingDir The loader's subproject directory
      * @param ext MultiMCExtension instance
-     * @param project Project instance
+     * @param context BuildContext instance
+     * @param metrics Receives the comparison phase
      */
-    public static void switchVersion(MultiMCExtension ext, Project project) {
-        // Fix paths
+    private static void mergeIdenticalJars(String loader, Path workingDir, MultiMCExtension ext, BuildContext context, BuildMetrics metrics) {
+        List<String> allVersions = new ArrayList<>(ext.getGradleConfig().getDependencies().keySet());
+        List<BuiltJar> jars = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(ext.getOutputDir(), "*.jar")) {
+            for (Path jar : stream) {
+                Path txtFile = jar.resolveSibling(jar.getFileName().toString().replace(".jar", ".txt"));
+                if (isLoaderOutput(jar.getFileName().toString(), context.projectName(), loader) && Files.isRegularFile(txtFile)) {
+                    jars.add(BuiltJar.read(jar, txtFile));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (jars.size() < 2) {
+            return;
+        }
+        jars.sort(Comparator.comparingInt(jar -> allVersions.indexOf(jar.versions().get(0))));
+
+        String configInJar = RemoteGradleRunner.getGradlePropertyValue(ext.getModConfigFileRelativePath(), workingDir);
+        try (BuildMetrics.Span span = metrics.start(loader, jars.get(0).versions().get(0), BuildMetrics.Phase.JAR_COMPARISON)) {
+            BuiltJar previous = jars.get(0);
+            for (BuiltJar jar : jars.subList(1, jars.size())) {
+                span.count("jarsCompared", 1);
+                // A version in between that failed to build must not end up inside the widened range
+                boolean consecutive = !previous.futureCompatible() && allVersions.indexOf(jar.versions().get(0))
+                        == allVersions.indexOf(previous.versions().get(previous.versions().size() - 1)) + 1;
+                BuiltJar merged = consecutive ? merge(previous, jar, configInJar, ext, context) : null;
+                if (merged != null) {
+                    span.count("jarsMerged", 1);
+                    previous = merged;
+                } else {
+                    previous = jar;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if an output file belongs to a loader, by the name {@link #migrateOutputFile} gives it. The loader is
+     * matched as a whole name segment, a substring test would also match the neoforge jars to forge
+     * @param fileName The name of a jar or version file in the output directory
+     * @param projectName The name of the root project
+     * @param loader The loader name
+     * @return True if the file was built for the loader
+     */
+    static boolean isLoaderOutput(String fileName, String projectName, String loader) {
+        return fileName.startsWith(projectName + "-" + loader + "-");
+    }
+
+    /**
+     * Folds a jar into the jar of the previous version class if both are identical
+     * @return The widened previous jar, or null if the jars differ
+     */
+    private static @Nullable BuiltJar merge(BuiltJar previous, BuiltJar jar, String configInJar, MultiMCExtension ext, BuildContext context) {
+        UnaryOperator<String> normalizePrevious = UnaryOperator.identity();
+        UnaryOperator<String> normalizeJar = UnaryOperator.identity();
+        String previousExpression = null;
+        if (ext.isInjectVersionRange()) {
+            // The ranges were filled in during the build, so they are put back to the placeholder for the comparison
+            previousExpression = generateVersionExpression(configInJar, previous.supportedVersions());
+            String jarExpression = generateVersionExpression(configInJar, jar.supportedVersions());
+            normalizePrevious = placeholder(previousExpression);
+            normalizeJar = placeholder(jarExpression);
+        }
+        if (!JarComparator.identical(previous.jar(), jar.jar(), configInJar, normalizePrevious, normalizeJar)) {
+            return null;
+        }
+
+        List<String> versions = new ArrayList<>(previous.versions());
+        versions.addAll(jar.versions());
+        BuiltJar merged = new BuiltJar(previous.jar(), previous.txtFile(), versions, jar.futureCompatible());
+        try {
+            if (previousExpression != null) {
+                String oldExpression = previousExpression;
+                String newExpression = generateVersionExpression(configInJar, merged.supportedVersions());
+                String config = JarComparator.readText(previous.jar(), configInJar);
+                if (config.indexOf(oldExpression) != config.lastIndexOf(oldExpression)) {
+                    context.logger().info("Not merging {} into {}, its version range cannot be located in {}", jar.jar().getFileName(), previous.jar().getFileName(), configInJar);
+                    return null;
+                }
+                JarPatcher.patchEntry(previous.jar(), configInJar, text -> text.replace(oldExpression, newExpression));
+            }
+            merged.write();
+            Files.delete(jar.jar());
+            Files.delete(jar.txtFile());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        context.logger().lifecycle("{} is identical to {}, merged into one jar for {}", jar.jar().getFileName(), previous.jar().getFileName(), String.join(", ", versions));
+        return merged;
+    }
+
+    private static UnaryOperator<String> placeholder(String versionExpression) {
+        return config -> config.indexOf(versionExpression) == config.lastIndexOf(versionExpression) ? config.replace(versionExpression, "%mcVer%") : config;
+    }
+
+    /**
+     * A built jar and the versions listed in its .txt file
+     * @param futureCompatible If the list ends with "*"
+     */
+    private record BuiltJar(Path jar, Path txtFile, List<String> versions, boolean futureCompatible) {
+        private static BuiltJar read(Path jar, Path txtFile) throws IOException {
+            List<String> versions = new ArrayList<>(Arrays.asList(Files.readAllLines(txtFile).get(0).split(",")));
+            boolean futureCompatible = versions.remove("*");
+            return new BuiltJar(jar, txtFile, versions, futureCompatible);
+        }
+
+        private String[] supportedVersions() {
+            List<String> supported = new ArrayList<>(this.versions);
+            if (this.futureCompatible) {
+                supported.add("*");
+            }
+            return supported.toArray(new String[0]);
+        }
+
+        private void write() throws IOException {
+            Files.writeString(this.txtFile, String.join(",", this.versions) + (this.futureCompatible ? ",*" : ","));
+        }
+    }
+
+    private static void writeSharingReport(MultiMCExtension ext, BuildContext context) {
+        Map<String, List<Path>> jarsByLoader = new TreeMap<>();
+        for (String loader : ext.getLoaderSpecificPaths().keySet()) {
+            jarsByLoader.put(loader, new ArrayList<>());
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(ext.getOutputDir(), "*.jar")) {
+            for (Path jar : stream) {
+                for (Map.Entry<String, List<Path>> loader : jarsByLoader.entrySet()) {
+                    if (isLoaderOutput(jar.getFileName().toString(), context.projectName(), loader.getKey())) {
+                        loader.getValue().add(jar);
+                        break;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        jarsByLoader.values().forEach(jars -> jars.sort(Comparator.naturalOrder()));
+        JarSharingReport.write(ext.getOutputDir(), jarsByLoader);
+        context.logger().lifecycle("Jar sharing report written to {}", ext.getOutputDir().resolve(JarSharingReport.REPORT_NAME));
+    }
+
+    private static @Nullable BuildOutputCache getOutputCache(MultiMCExtension ext) {
+        return ext.getOutputCacheDir() == null ? null : new BuildOutputCache(ext.getOutputCacheDir(), ext.getOutputCacheMaxBytes());
+    }
+
+    private static void compileLoader(String loader, Path workingDir, MultiMCExtension ext, BuildContext context, MarkerIndex markerIndex, GradleConnectionPool pool, @Nullable BuildOutputCache outputCache, @Nullable GeneratedSources generated, @Nullable BuildAbort abort, BuildMetrics metrics, WorkspaceJournal journal, PreprocessorPool preprocessorPool) {
+        List<BuildPlanner.VersionClass> plan = planBuilds(workingDir, ext, markerIndex, preprocessorPool);
+        logPlan(loader, plan, context, false);
+        BuildFailures failures = getBuildFailures(context);
+        for (int i : buildOrder(loader, plan, failures)) {
+            BuildPlanner.VersionClass versionClass = plan.get(i);
+            String mcVer = versionClass.first();
+            context.logger().info("--- Compiling {} ---", mcVer);
+            boolean markAsFutureCompatible = (i == plan.size() - 1) && ext.isFutureCompatible();
+            try (BuildMetrics.Span ignored = metrics.start(loader, mcVer, BuildMetrics.Phase.PROPERTY_REWRITE)) {
+                modifyGradleProperties(ext, workingDir, ext.getCommonDirs(), mcVer, context, journal);
+            }
+            try (BuildMetrics.Span span = metrics.start(loader, mcVer, BuildMetrics.Phase.SOURCE_PREPROCESSING)) {
+                if (generated != null) {
+                    generateSources(workingDir, mcVer, context, ext, markerIndex, generated, span, preprocessorPool);
+                } else {
+                    modifySourceCode(workingDir, mcVer, context, ext, markerIndex, span, journal, preprocessorPool);
+                }
+            }
+            List<String> buildArguments = submoduleArguments(workingDir, versionClass, markAsFutureCompatible, ext, context, generated);
+            String cacheKey;
+            Path cachedJar;
+            try (BuildMetrics.Span span = metrics.start(loader, mcVer, BuildMetrics.Phase.SUBMODULE_BUILD)) {
+                cacheKey = inputKey(context.rootDir(), workingDir, ext.getCommonDirs(), buildArguments, ext, outputCache, generated, preprocessorPool);
+                cachedJar = cacheKey == null || outputCache == null ? null : outputCache.lookup(cacheKey);
+                if (cachedJar != null) {
+                    span.count("cached", 1);
+                    context.logger().lifecycle("Reusing the cached build of {} {}", loader, mcVer);
+                } else if (!build(loader, mcVer, workingDir, buildArguments, ext, context, pool, cacheKey, failures, abort, span)) {
+                    continue;
+                }
+            }
+
+            collectOutput(loader, workingDir, versionClass, markAsFutureCompatible, ext, context, outputCache, cacheKey, cachedJar, metrics);
+        }
+        // gradle.properties goes back to how it was before the run. The sources are left at the last version built,
+        // compile switches them to currentMinecraftVer once every loader is done, if it is set
+        journal.restore(workingDir.resolve("gradle.properties"));
+        for (Path common : ext.getCommonDirs()) {
+            journal.restore(common.resolve("gradle.properties"));
+        }
+    }
+
+    /**
+     * Runs the build of a version, unless it is known to fail with the same inputs, and records how it ended
+     * @param inputKey The hash of the build's inputs, or null if it was not computed
+     * @param abort Cancels the build once another build failed, or null if failFast is disabled
+     * @return True if the build succeeded
+     * @throws GradleException If the build failed and failFast is enabled
+     */
+    private static boolean build(String loader, String mcVer, Path workingDir, List<String> buildArguments, MultiMCExtension ext, BuildContext context, GradleConnectionPool pool, @Nullable String inputKey, BuildFailures failures, @Nullable BuildAbort abort, BuildMetrics.Span span) {
+        BuildFailures.Failure known = failures.get(loader, mcVer);
+        if (ext.isSkipKnownFailures() && known != null && known.isSameInputs(inputKey)) {
+            // Not built, so the record stays as it is and the version does not climb the build order
+            span.count("skipped", 1);
+            context.logger().lifecycle("Skipping {} {}, it failed before and its inputs did not change: {}", loader, mcVer, known.message());
+            return false;
+        }
+        RemoteGradleRunner.BuildOutcome outcome = RemoteGradleRunner.runBuildOnSubmodule(workingDir.toFile(), context.logger(), pool,
+                loader + " " + mcVer, buildArguments, getBuildLogFile(ext, loader, mcVer), abort == null ? null : abort.token());
+        if (outcome.succeeded()) {
+            failures.recordSuccess(loader, mcVer);
+            return true;
+        }
+        if (outcome.status() == RemoteGradleRunner.BuildOutcome.Status.CANCELLED) {
+            span.count("cancelled", 1);
+            context.logger().warn("Build of {} {} was cancelled", loader, mcVer);
+            return false;
+        }
+
+        span.count("failed", 1);
+        failures.recordFailure(loader, mcVer, inputKey, outcome.message());
+        if (abort != null) {
+            abort.abort(loader + " " + mcVer);
+            throw new GradleException("Build of " + loader + " " + mcVer + " failed: " + outcome.message());
+        }
+        context.logger().warn("{} {} failed to compile: {}; Ignoring...", loader, mcVer, outcome.message());
+        return false;
+    }
+
+    /**
+     * Orders the version classes of a loader so the ones that failed last time are built first, and a failFast run
+     * stops as early as possible. Classes that never failed keep their version order
+     * @return The indexes of the classes in build order
+     */
+    static List<Integer> buildOrder(String loader, List<BuildPlanner.VersionClass> plan, BuildFailures failures) {
+        List<Integer> order = new ArrayList<>();
+        int[] failureCounts = new int[plan.size()];
+        for (int i = 0; i < plan.size(); i++) {
+            failureCounts[i] = failureCount(failures, loader, plan.get(i).first());
+            order.add(i);
+        }
+        // Stable, so versions that failed equally often stay in version order
+        order.sort(Comparator.comparingInt((Integer i) -> failureCounts[i]).reversed());
+        return order;
+    }
+
+    private static int failureCount(BuildFailures failures, String loader, String mcVer) {
+        BuildFailures.Failure failure = failures.get(loader, mcVer);
+        return failure == null ? 0 : failure.count();
+    }
+
+    /**
+     * Builds every version class of every loader in its own worktree, running up to buildParallelism builds at once.
+     * The Worker API limits all work items to --max-workers but cannot limit one kind of them, and every build starts a
+     * daemon of its own, so the builds are submitted in waves of buildParallelism that each wait for the last
+     */
+    private static void compileIsolated(MultiMCExtension ext, BuildContext context, MarkerIndex markerIndex, WorkUnitQueue queue, PreprocessorPool preprocessorPool) {
+        BuildFailures failures = getBuildFailures(context);
+        List<WorkUnit.BuildVersionClass> units = new ArrayList<>();
+        List<Integer> failureCounts = new ArrayList<>();
         for (Map.Entry<String, Path> entry : ext.getLoaderSpecificPaths().entrySet()) {
-            entry.setValue(project.getRootDir().toPath().resolve(entry.getValue()));
+            String loader = entry.getKey();
+            Path workingDir = entry.getValue();
+            List<BuildPlanner.VersionClass> plan = planBuilds(workingDir, ext, markerIndex, preprocessorPool);
+            logPlan(loader, plan, context, false);
+            List<Path> sourceFiles = collectSourceFiles(workingDir, ext.getCommonDirs());
+            List<String> markedFiles = preprocessorPool.run(() -> markerIndex.refresh(sourceFiles)).stream().map(Path::toString).toList();
+            for (int i : buildOrder(loader, plan, failures)) {
+                BuildPlanner.VersionClass versionClass = plan.get(i);
+                boolean markAsFutureCompatible = (i == plan.size() - 1) && ext.isFutureCompatible();
+                units.add(new WorkUnit.BuildVersionClass(loader, workingDir.toString(), List.copyOf(versionClass.versions()), markAsFutureCompatible, markedFiles));
+                failureCounts.add(failureCount(failures, loader, versionClass.first()));
+            }
         }
-        for (int i = 0; i < ext.getCommonDirs().length; i++) {
-            Path common = ext.getCommonDirs()[i];
-            ext.getCommonDirs()[i] = project.getRootDir().toPath().resolve(common);
+        // Across loaders too, so the builds most likely to fail are the first to start
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < units.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingInt((Integer i) -> failureCounts.get(i)).reversed());
+        int parallelism = Math.max(1, ext.getBuildParallelism());
+        for (int submitted = 0; submitted < order.size(); submitted++) {
+            if (submitted > 0 && submitted % parallelism == 0) {
+                queue.await();
+            }
+            queue.submit(units.get(order.get(submitted)));
+        }
+        queue.await();
+    }
+
+    /**
+     * Preprocesses and builds one version class in its own worktree. Runs as a work item, so it opens its own
+     * connection, output cache and preprocessor pool
+     */
+    static void compileIsolatedClass(String loader, Path workingDir, BuildPlanner.VersionClass versionClass, boolean markAsFutureCompatible, List<Path> markedFiles, MultiMCExtension ext, BuildContext context, BuildMetrics metrics) {
+        String mcVer = versionClass.first();
+        // Work items may run in other class loaders or processes, so they share the abort through the flag file
+        try (BuildAbort abort = ext.isFailFast() ? BuildAbort.open(getAbortFlagFile(context)) : null) {
+            if (abort != null && abort.isAborted()) {
+                context.logger().warn("Not building {} {}, another build failed", loader, mcVer);
+                return;
+            }
+            try (PreprocessorPool preprocessorPool = new PreprocessorPool(ext)) {
+                compileIsolatedClass(loader, workingDir, versionClass, markAsFutureCompatible, markedFiles, ext, context, metrics, abort, preprocessorPool);
+            }
         }
+    }
+
+    private static void compileIsolatedClass(String loader, Path workingDir, BuildPlanner.VersionClass versionClass, boolean markAsFutureCompatible, List<Path> markedFiles, MultiMCExtension ext, BuildContext context, BuildMetrics metrics, @Nullable BuildAbort abort, PreprocessorPool preprocessorPool) {
+        String mcVer = versionClass.first();
+        context.logger().info("--- Compiling {} {} in isolation ---", loader, mcVer);
+        Path worktree = context.buildDir().resolve("multimc/" + loader + "/" + mcVer);
+        List<Path> modules = new ArrayList<>();
+        modules.add(workingDir);
+        modules.addAll(Arrays.asList(ext.getCommonDirs()));
+        Map<Path, Path> mirrored = IsolatedWorktree.create(context.rootDir(), worktree, modules, new HashSet<>(markedFiles));
+
+        Path isolatedDir = mirrored.get(workingDir);
+        Path[] isolatedCommonDirs = Arrays.stream(ext.getCommonDirs()).map(mirrored::get).toArray(Path[]::new);
+        try (BuildMetrics.Span ignored = metrics.start(loader, mcVer, BuildMetrics.Phase.PROPERTY_REWRITE)) {
+            modifyGradleProperties(ext, isolatedDir, isolatedCommonDirs, mcVer, context, null);
+        }
+        try (BuildMetrics.Span span = metrics.start(loader, mcVer, BuildMetrics.Phase.SOURCE_PREPROCESSING)) {
+            // The worktree copies are not indexed, the index of the real tree already says which files have markers
+            List<Path> isolatedFiles = markedFiles.stream().map(file -> IsolatedWorktree.resolve(mirrored, file)).toList();
+            preprocessFiles(isolatedFiles, mcVer, context, ext, null, span, null, preprocessorPool);
+        }
+
+        List<String> buildArguments = submoduleArguments(isolatedDir, versionClass, markAsFutureCompatible, ext, context, null);
+        BuildOutputCache outputCache = getOutputCache(ext);
+        String cacheKey;
+        Path cachedJar;
+        try (BuildMetrics.Span span = metrics.start(loader, mcVer, BuildMetrics.Phase.SUBMODULE_BUILD)) {
+            cacheKey = inputKey(worktree, isolatedDir, isolatedCommonDirs, buildArguments, ext, outputCache, null, preprocessorPool);
+            cachedJar = cacheKey == null || outputCache == null ? null : outputCache.lookup(cacheKey);
+            if (cachedJar != null) {
+                span.count("cached", 1);
+                context.logger().lifecycle("Reusing the cached build of {} {}", loader, mcVer);
+            } else {
+                try (GradleConnectionPool pool = new GradleConnectionPool(ext.getBuildTasks(), ext.getBuildArguments(), ext.getBuildJvmArgs())) {
+                    if (!build(loader, mcVer, isolatedDir, buildArguments, ext, context, pool, cacheKey, getBuildFailures(context), abort, span)) {
+                        return;
+                    }
+                }
+            }
+        }
+        collectOutput(loader, isolatedDir, versionClass, markAsFutureCompatible, ext, context, outputCache, cacheKey, cachedJar, metrics);
+    }
+
+    private static @Nullable Path getBuildLogFile(MultiMCExtension ext, String loader, String mcVer) {
+        return ext.getBuildLogDir() == null ? null : ext.getBuildLogDir().resolve(loader + "-" + mcVer + ".log");
+    }
+
+    /**
+     * Creates the arguments that hook the plugin into a submodule build through the init script
+     * @param generated The generated sources to compile, or null to compile the working tree
+     * @return Extra build arguments, empty if the build needs no hooks
+     */
+    private static List<String> submoduleArguments(Path workingDir, BuildPlanner.VersionClass versionClass, boolean markAsFutureCompatible, MultiMCExtension ext, BuildContext context, @Nullable GeneratedSources generated) {
+        List<String> properties = new ArrayList<>(versionRangeProperties(workingDir, versionClass, markAsFutureCompatible, ext, context));
+        if (generated != null) {
+            properties.addAll(SubmoduleInitScript.generatedSourcesProperties(generated.getDir(), context.rootDir()));
+        }
+        if (properties.isEmpty()) {
+            return List.of();
+        }
+        Path initScript = SubmoduleInitScript.write(context.buildDir().resolve("multimc/init.gradle"));
+        return SubmoduleInitScript.arguments(initScript, properties);
+    }
+
+    /**
+     * Creates the properties that let a submodule build fill in %mcVer% itself, if injectVersionRange is enabled
+     * @return Project property arguments, empty if the jar is patched after the build
+     */
+    private static List<String> versionRangeProperties(Path workingDir, BuildPlanner.VersionClass versionClass, boolean markAsFutureCompatible, MultiMCExtension ext, BuildContext context) {
+        if (!ext.isInjectVersionRange()) {
+            return List.of();
+        }
+        String configInJar = RemoteGradleRunner.getGradlePropertyValue(ext.getModConfigFileRelativePath(), workingDir);
+        List<String> supportedMCVers = new ArrayList<>(versionClass.versions());
+        if (markAsFutureCompatible) {
+            supportedMCVers.add("*");
+        }
+        String versionExpression = generateVersionExpression(configInJar, supportedMCVers.toArray(new String[0]));
+        context.logger().info("Building {} with %mcVer% set to {}", versionClass.first(), versionExpression);
+        return SubmoduleInitScript.versionRangeProperties(configInJar, versionExpression);
+    }
+
+    /**
+     * Computes the hash of the inputs of a build whose tree, or generated sources, have already been switched to its
+     * version. It is the output cache key, and tells if a recorded failure still applies
+     * @param generated The generated sources the build compiles, or null if it compiles the tree
+     * @return The key, or null if neither the output cache nor skipKnownFailures needs it
+     */
+    private static @Nullable String inputKey(Path rootDir, Path workingDir, Path[] commonDirs, List<String> buildArguments, MultiMCExtension ext, @Nullable BuildOutputCache outputCache, @Nullable GeneratedSources generated, PreprocessorPool preprocessorPool) {
+        if (outputCache == null && !ext.isSkipKnownFailures()) {
+            return null;
+        }
+        List<Path> modules = new ArrayList<>();
+        modules.add(workingDir);
+        modules.addAll(Arrays.asList(commonDirs));
+        List<String> settings = new ArrayList<>();
+        settings.add(String.join(" ", ext.getBuildTasks()));
+        settings.add(String.join(" ", ext.getBuildArguments()));
+        settings.add(String.join(" ", buildArguments));
+        settings.add(String.valueOf(ext.getOutputFileOverride()));
+        return preprocessorPool.run(() -> {
+            Map<String, Path> inputs = BuildOutputCache.collectInputs(rootDir, modules);
+            if (generated != null) {
+                // Same names as the tree's files, so the key matches a build of the switched tree
+                for (Path module : modules) {
+                    inputs.replaceAll((name, file) -> generated.resolve(module, file));
+                }
+            }
+            return BuildOutputCache.key(inputs, settings);
+        });
+    }
+
+    /**
+     * Moves the jar of a finished build, or the cached jar of an identical build, to the output directory and records the versions it supports
+     */
+    private static void collectOutput(String loader, Path workingDir, BuildPlanner.VersionClass versionClass, boolean markAsFutureCompatible, MultiMCExtension ext, BuildContext context, @Nullable BuildOutputCache outputCache, @Nullable String cacheKey, @Nullable Path cachedJar, BuildMetrics metrics) {
+        String mcVer = versionClass.first();
+        String childName = workingDir.getFileName().toString();
+        String projectName = context.projectName();
+        String projectVer = context.childVersions().get(childName);
+        Path lastOutput;
+        try (BuildMetrics.Span span = metrics.start(loader, mcVer, BuildMetrics.Phase.JAR_MIGRATION)) {
+            lastOutput = migrateOutputFile(workingDir, projectName, projectVer, mcVer, loader, ext.getOutputDir(), childName, context.logger(), ext, cachedJar);
+            if (lastOutput != null && cachedJar == null && cacheKey != null && outputCache != null) {
+                // Stored before the jar gets patched, the version range is not part of the key unless it is injected
+                outputCache.store(cacheKey, lastOutput);
+            }
+            if (lastOutput != null) {
+                span.count("jarBytes", Files.size(lastOutput));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // Also written with injected version ranges, the versions are needed to merge identical jars
+        if (lastOutput != null) {
+            String mcVerFileName = lastOutput.getFileName().toString().replace(".jar", ".txt");
+            Path mcVerFile = lastOutput.getParent().resolve(mcVerFileName);
+            try (BufferedWriter writer = Files.newBufferedWriter(mcVerFile)) {
+                // Every version of the class shares this jar
+                writer.write(String.join(",", versionClass.versions()));
+                writer.write(markAsFutureCompatible ? ",*" : ",");
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Switches the current Minecraft version to the one specified in the "multimc" block
+     * @param ext MultiMCExtension instance
+     * @param context BuildContext instance
+     */
+    public static void switchVersion(MultiMCExtension ext, BuildContext context) {
+        // Fix paths
+        resolvePaths(ext, context);
 
         String mcVer = ext.getCurrentMinecraftVer();
         if (mcVer == null) {
-            project.getLogger().error("currentMinecraftVer is not specified in build.gradle");
+            context.logger().error("currentMinecraftVer is not specified in build.gradle");
             return;
         }
-        project.getLogger().info("--- Switching to {} ---", mcVer);
-        for (Map.Entry<String, Path> entry : ext.getLoaderSpecificPaths().entrySet()) {
-            modifyGradleProperties(ext, entry.getValue(), mcVer, project);
-            modifySourceCode(entry.getValue(), mcVer, project, ext);
+        try (PreprocessorPool preprocessorPool = new PreprocessorPool(ext)) {
+            switchVersion(ext, context, mcVer, preprocessorPool);
         }
-        project.getLogger().info("--- Switched to {} ---", mcVer);
     }
 
-    private static void createOutputDir(MultiMCExtension ext, Project project) {
-        project.getLogger().info("Checking for output folder at {}", ext.getOutputDir().toAbsolutePath());
-        if (!Files.isDirectory(ext.getOutputDir())) {
+    private static void switchVersion(MultiMCExtension ext, BuildContext context, String mcVer, PreprocessorPool preprocessorPool) {
+        recoverWorkspace(context);
+        WorkspaceJournal journal = WorkspaceJournal.begin(getJournalDir(context));
+        try {
+            applyVersion(ext, context, mcVer, journal, preprocessorPool);
+        } catch (RuntimeException e) {
+            recoverWorkspace(context);
+            throw e;
+        }
+        journal.commit();
+    }
+
+    /**
+     * Switches to the current Minecraft version, then keeps it applied to every source file and gradle.properties file
+     * that is created or changed, until the thread is interrupted
+     * @param ext MultiMCExtension instance
+     * @param context BuildContext instance
+     */
+    public static void watchVersion(MultiMCExtension ext, BuildContext context) {
+        resolvePaths(ext, context);
+
+        String mcVer = ext.getCurrentMinecraftVer();
+        if (mcVer == null) {
+            context.logger().error("currentMinecraftVer is not specified in build.gradle");
+            return;
+        }
+        List<Path> projectDirs = new ArrayList<>(ext.getLoaderSpecificPaths().values());
+        projectDirs.addAll(List.of(ext.getCommonDirs()));
+        try (SourceWatcher watcher = SourceWatcher.open(); PreprocessorPool preprocessorPool = new PreprocessorPool(ext)) {
+            // Watching starts before the first switch, so nothing written in between is missed
+            for (Path dir : projectDirs) {
+                watcher.watchDirectory(dir);
+                watcher.watchTree(dir.resolve("src/main/java"));
+            }
+            switchVersion(ext, context, mcVer, preprocessorPool);
+
+            MarkerIndex markerIndex = MarkerIndex.load(getMarkerIndexFile(context));
+            List<Path> sourceFiles = collectSourceFiles(projectDirs);
+            // Only checks the stamps, the switch just indexed every file
+            preprocessorPool.run(() -> markerIndex.refresh(sourceFiles));
+            context.logger().lifecycle("Watching {} source files, keeping {} applied", sourceFiles.size(), mcVer);
             try {
-                Files.createDirectories(ext.getOutputDir());
-            } catch (IOException e) {
-                throw new RuntimeException(e);
+                while (true) {
+                    SourceWatcher.Changes changes = watcher.next(ext.getWatchQuietMillis());
+                    applyChanges(changes, projectDirs, mcVer, ext, context, markerIndex, preprocessorPool);
+                }
+            } catch (InterruptedException e) {
+                context.logger().lifecycle("Stopped watching");
+                markerIndex.save();
+                Thread.currentThread().interrupt();
             }
         }
     }
 
-    private static void copyGradleProperties(Path workingDir, MultiMCExtension ext) {
-        try {
-            // Project
-            {
-                Path gradleProperties = workingDir.resolve("gradle.properties");
-                Files.copy(gradleProperties, workingDir.resolve("gradle.txt"), StandardCopyOption.REPLACE_EXISTING);
+    /**
+     * Applies the current version to a batch of changed files. Files that fail to switch are reported and left as they
+     * are, so a file that is still being edited does not stop the watch
+     * @param changes The changed paths
+     * @param projectDirs The loader and common subproject directories
+     * @param mcVer The version being kept applied
+     * @param ext MultiMCExtension instance
+     * @param context BuildContext instance
+     * @param markerIndex MarkerIndex instance, kept up to date with the changes
+     * @param preprocessorPool The pool of the watch
+     */
+    private static void applyChanges(SourceWatcher.Changes changes, List<Path> projectDirs, String mcVer, MultiMCExtension ext, BuildContext context, MarkerIndex markerIndex, PreprocessorPool preprocessorPool) {
+        long start = System.nanoTime();
+        List<Path> sourceFiles = new ArrayList<>();
+        List<Path> gradleProperties = new ArrayList<>();
+        if (changes.overflow()) {
+            context.logger().warn("Missed file system events, checking every source file");
+            sourceFiles.addAll(collectSourceFiles(projectDirs));
+            for (Path dir : projectDirs) {
+                gradleProperties.add(dir.resolve("gradle.properties"));
             }
+        } else {
+            for (Path path : changes.paths()) {
+                if (path.getFileName().toString().equals("gradle.properties") && projectDirs.contains(path.getParent())) {
+                    gradleProperties.add(path);
+                } else if (path.toString().endsWith(".java")) {
+                    if (Files.isRegularFile(path)) {
+                        sourceFiles.add(path);
+                    } else {
+                        markerIndex.remove(path);
+                    }
+                }
+            }
+        }
 
-            // Common
-            {
-                for (Path common : ext.getCommonDirs()) {
-                    Path gradleProperties = common.resolve("gradle.properties");
-                    Files.copy(gradleProperties, common.resolve("gradle.txt"), StandardCopyOption.REPLACE_EXISTING);
+        WorkspaceJournal journal = WorkspaceJournal.begin(getJournalDir(context));
+        Map<String, String> vars = ext.getGradleConfig().getDependencies().get(mcVer);
+        for (Path file : gradleProperties) {
+            if (Files.isRegularFile(file)) {
+                applyGradleOverrides(file, vars, journal);
+            }
+        }
+        List<Path> markedFiles = preprocessorPool.run(() -> markerIndex.refresh(sourceFiles));
+        Semver mcSemver = SemverCache.version(mcVer);
+        List<PreprocessResult> results = preprocessorPool.run(() -> markedFiles.parallelStream()
+                .map(file -> preprocess(file, mcSemver, context, markerIndex, journal))
+                .toList());
+        int switched = 0;
+        for (int i = 0; i < results.size(); i++) {
+            PreprocessResult result = results.get(i);
+            if (result.failure() instanceof SourcePreprocessor.MalformedVersionSyntaxException syntaxError) {
+                // Left untouched, it is switched once its markers are fixed
+                context.logger().error(syntaxError.getMessage());
+            } else if (result.failure() != null) {
+                journal.restore(markedFiles.get(i));
+                context.logger().warn("Could not switch {}: {}", markedFiles.get(i), result.failure().getMessage());
+            } else if (result.changed()) {
+                switched++;
+            }
+        }
+        journal.commit();
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        if (switched > 0) {
+            context.logger().lifecycle("Switched {} of {} changed source file(s) to {} in {} ms", switched, sourceFiles.size(), mcVer, millis);
+        } else {
+            context.logger().info("Checked {} changed source file(s) in {} ms", sourceFiles.size(), millis);
+        }
+    }
+
+    /**
+     * Applies a version to the working tree, opening only the files that need it
+     * @param ext MultiMCExtension instance
+     * @param context BuildContext instance
+     * @param mcVer The version to switch to
+     * @param journal Records every file before it is changed
+     * @param preprocessorPool The pool of the running task
+     */
+    private static void applyVersion(MultiMCExtension ext, BuildContext context, String mcVer, WorkspaceJournal journal, PreprocessorPool preprocessorPool) {
+        context.logger().info("--- Switching to {} ---", mcVer);
+        MarkerIndex markerIndex = MarkerIndex.load(getMarkerIndexFile(context));
+        Path stateFile = getAppliedVersionFile(context);
+        AppliedVersionState applied = AppliedVersionState.load(stateFile);
+        AppliedVersionState.clear(stateFile);
+        // Switching is not reported, the spans only collect the preprocessing counters
+        BuildMetrics metrics = new BuildMetrics();
+        Set<Path> markedFiles = new LinkedHashSet<>();
+        for (Map.Entry<String, Path> entry : ext.getLoaderSpecificPaths().entrySet()) {
+            modifyGradleProperties(ext, entry.getValue(), ext.getCommonDirs(), mcVer, context, journal);
+            List<Path> sourceFiles = collectSourceFiles(entry.getValue(), ext.getCommonDirs());
+            List<Path> loaderFiles = preprocessorPool.run(() -> markerIndex.refresh(sourceFiles));
+            markedFiles.addAll(loaderFiles);
+            List<Path> switchedFiles = applied == null ? loaderFiles : filesToSwitch(loaderFiles, applied, mcVer, markerIndex);
+            context.logger().info("{} of {} marked source files need switching from {}", switchedFiles.size(), loaderFiles.size(),
+                    applied == null ? "an unknown version" : applied.getVersion());
+            try (BuildMetrics.Span span = metrics.start(entry.getKey(), mcVer, BuildMetrics.Phase.SOURCE_PREPROCESSING)) {
+                span.count("filesScanned", sourceFiles.size());
+                preprocessFiles(switchedFiles, mcVer, context, ext, markerIndex, span, journal, preprocessorPool);
+            }
+        }
+        markerIndex.save();
+        AppliedVersionState.save(stateFile, mcVer, markedFiles);
+        context.logger().info("--- Switched to {} ---", mcVer);
+    }
+
+    /**
+     * Finds the files a switch has to open: files changed since the last switch, and files with a block whose
+     * enablement differs between the applied version and the new one
+     * @param markedFiles Every file with version markers, in order
+     * @param applied The state of the last switch
+     * @param mcVer The version being switched to
+     * @param index MarkerIndex instance, already refreshed for the files
+     * @return The files to preprocess, in order
+     */
+    private static List<Path> filesToSwitch(List<Path> markedFiles, AppliedVersionState applied, String mcVer, MarkerIndex index) {
+        Semver from = SemverCache.version(applied.getVersion());
+        Semver to = SemverCache.version(mcVer);
+        Map<String, Boolean> toggledRanges = new HashMap<>();
+        List<Path> switchedFiles = new ArrayList<>();
+        for (Path file : markedFiles) {
+            if (!applied.isUnchanged(file)) {
+                switchedFiles.add(file);
+                continue;
+            }
+            for (SourcePreprocessor.Marker marker : index.getMarkers(file)) {
+                if (marker.range() != null && toggledRanges.computeIfAbsent(marker.range(),
+                        range -> SemverCache.satisfies(from, range) != SemverCache.satisfies(to, range))) {
+                    switchedFiles.add(file);
+                    break;
                 }
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
+        return switchedFiles;
     }
 
-    private static void cleanUp(Path workingDir, MultiMCExtension ext) {
-        try {
-            // Project
-            {
-                Path gradleProperties = workingDir.resolve("gradle.properties");
-                Files.deleteIfExists(workingDir.resolve("gradle.properties"));
-                Path gradleTxt = workingDir.resolve("gradle.txt");
-                gradleTxt.toFile().renameTo(gradleProperties.toFile());
-            }
-
-            // Common
-            {
-                for (Path common : ext.getCommonDirs()) {
-                    Path gradleProperties = common.resolve("gradle.properties");
-                    Files.deleteIfExists(common.resolve("gradle.properties"));
-                    Path gradleTxt = common.resolve("gradle.txt");
-                    gradleTxt.toFile().renameTo(gradleProperties.toFile());
+    /**
+     * Prints the builds multiCompile would run, without running them
+     * @param ext MultiMCExtension instance
+     * @param context BuildContext instance
+     */
+    public static void printPlan(MultiMCExtension ext, BuildContext context) {
+        resolvePaths(ext, context);
+        MarkerIndex markerIndex = MarkerIndex.load(getMarkerIndexFile(context));
+        try (PreprocessorPool preprocessorPool = new PreprocessorPool(ext)) {
+            for (Map.Entry<String, Path> entry : ext.getLoaderSpecificPaths().entrySet()) {
+                logPlan(entry.getKey(), planBuilds(entry.getValue(), ext, markerIndex, preprocessorPool), context, true);
+            }
+        }
+        markerIndex.save();
+    }
+
+    private static void resolvePaths(MultiMCExtension ext, BuildContext context) {
+        if (ext.getOutputDir() != null) {
+            ext.setOutputDir(context.rootDir().resolve(ext.getOutputDir()));
+        }
+        if (ext.getBuildLogDir() != null) {
+            ext.setBuildLogDir(context.rootDir().resolve(ext.getBuildLogDir()));
+        }
+        if (ext.getOutputCacheDir() != null) {
+            ext.setOutputCacheDir(context.rootDir().resolve(ext.getOutputCacheDir()));
+        }
+        for (Map.Entry<String, Path> entry : ext.getLoaderSpecificPaths().entrySet()) {
+            entry.setValue(context.rootDir().resolve(entry.getValue()));
+        }
+        for (int i = 0; i < ext.getCommonDirs().length; i++) {
+            Path common = ext.getCommonDirs()[i];
+            ext.getCommonDirs()[i] = context.rootDir().resolve(common);
+        }
+    }
+
+    /**
+     * Groups the configured versions of a loader into the classes that need a build of their own
+     * @param workingDir The loader's subproject directory
+     * @param ext MultiMCExtension instance
+     * @param index MarkerIndex instance
+     * @param preprocessorPool Refreshes the index
+     * @return The version classes in version order
+     */
+    private static List<BuildPlanner.VersionClass> planBuilds(Path workingDir, MultiMCExtension ext, MarkerIndex index, PreprocessorPool preprocessorPool) {
+        Set<String> ranges = new HashSet<>();
+        List<Path> sourceFiles = collectSourceFiles(workingDir, ext.getCommonDirs());
+        for (Path sourceFile : preprocessorPool.run(() -> index.refresh(sourceFiles))) {
+            for (SourcePreprocessor.Marker marker : index.getMarkers(sourceFile)) {
+                if (marker.range() != null) {
+                    ranges.add(marker.range());
                 }
             }
+        }
+
+        Set<String> propertyKeys = new HashSet<>(readGradleProperties(workingDir).stringPropertyNames());
+        for (Path common : ext.getCommonDirs()) {
+            propertyKeys.addAll(readGradleProperties(common).stringPropertyNames());
+        }
+        return BuildPlanner.plan(ext.getGradleConfig().getDependencies(), ranges, propertyKeys);
+    }
+
+    private static void logPlan(String loader, List<BuildPlanner.VersionClass> plan, BuildContext context, boolean lifecycle) {
+        int versions = plan.stream().mapToInt(versionClass -> versionClass.versions().size()).sum();
+        StringBuilder builder = new StringBuilder();
+        builder.append(loader).append(": ").append(plan.size()).append(" build(s) for ").append(versions).append(" version(s)");
+        for (BuildPlanner.VersionClass versionClass : plan) {
+            builder.append(System.lineSeparator()).append("    ").append(versionClass.first())
+                    .append(" -> ").append(String.join(", ", versionClass.versions()));
+        }
+        if (lifecycle) {
+            context.logger().lifecycle(builder.toString());
+        } else {
+            context.logger().info(builder.toString());
+        }
+    }
+
+    private static Properties readGradleProperties(Path dir) {
+        Properties properties = new Properties();
+        try (InputStream input = Files.newInputStream(dir.resolve("gradle.properties"))) {
+            properties.load(input);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
+        return properties;
     }
 
-    private static void modifyJsonInJar(Path jarPath, String filePathInJar, String[] supportedMCVers, Project project) throws IOException {
-        Path tempJar = Files.createTempFile("modified-", ".jar");
+    private static Path getMarkerIndexFile(BuildContext context) {
+        return context.buildDir().resolve("multimc/marker-index.bin");
+    }
 
-        try (JarFile jarFile = new JarFile(jarPath.toFile());
-             JarOutputStream jos = new JarOutputStream(Files.newOutputStream(tempJar))) {
+    private static Path getAppliedVersionFile(BuildContext context) {
+        return context.buildDir().resolve("multimc/applied-version.bin");
+    }
 
-            byte[] buffer = new byte[8192];
+    private static Path getGeneratedSourcesDir(BuildContext context) {
+        return context.buildDir().resolve("multimc/generated");
+    }
 
-            // Copy all entries except the one we want to replace
-            for (JarEntry entry : jarFile.stream().toList()) {
-                String entryName = entry.getName();
-                project.getLogger().info("Checking if jar file {} == {}", entryName, filePathInJar);
+    private static Path getJournalDir(BuildContext context) {
+        return context.buildDir().resolve("multimc/journal");
+    }
 
-                // Replace the JSON file
-                if (entryName.equals(filePathInJar)) {
-                    InputStream is = jarFile.getInputStream(entry);
-                    String originalJson = new String(is.readAllBytes());
-                    String modifiedJson = originalJson.replace("%mcVer%", generateVersionExpression(entryName, supportedMCVers));
+    private static Path getAbortFlagFile(BuildContext context) {
+        return context.buildDir().resolve("multimc/abort");
+    }
 
-                    JarEntry newEntry = new JarEntry(entryName);
-                    jos.putNextEntry(newEntry);
-                    jos.write(modifiedJson.getBytes());
-                    jos.closeEntry();
-                    continue;
-                }
+    private static BuildFailures getBuildFailures(BuildContext context) {
+        return new BuildFailures(context.buildDir().resolve("multimc/failures"));
+    }
 
-                // Copy other entries
-                jos.putNextEntry(new JarEntry(entryName));
-                try (InputStream is = jarFile.getInputStream(entry)) {
-                    int read;
-                    while ((read = is.read(buffer)) != -1) {
-                        jos.write(buffer, 0, read);
-                    }
-                }
-                jos.closeEntry();
+    /**
+     * Lists the versions that failed during this run, and separately the ones skipped as known failures
+     * @param runStart When the run started, in milliseconds since the epoch
+     * @param metrics The metrics of this run, including those of the work items
+     * @return How many versions failed or were skipped
+     */
+    private static int reportFailures(BuildContext context, long runStart, BuildMetrics metrics) {
+        List<BuildFailures.Failure> failed = getBuildFailures(context).since(runStart);
+        if (!failed.isEmpty()) {
+            context.logger().warn("{} version(s) failed to compile:", failed.size());
+            for (BuildFailures.Failure failure : failed) {
+                context.logger().warn("  {} {}: {}", failure.loader(), failure.mcVer(), failure.message());
+            }
+        }
+        List<String> skipped = new ArrayList<>();
+        for (BuildMetrics.Entry entry : metrics.getEntries()) {
+            if (entry.counters().getOrDefault("skipped", 0L) > 0) {
+                skipped.add(entry.loader() + " " + entry.mcVer());
             }
         }
+        if (!skipped.isEmpty()) {
+            context.logger().lifecycle("{} version(s) were not built, they failed before with the same inputs: {}", skipped.size(), String.join(", ", skipped));
+        }
+        return failed.size() + skipped.size();
+    }
 
-        // Replace original JAR
-        Files.move(tempJar, jarPath, StandardCopyOption.REPLACE_EXISTING);
+    /**
+     * Rolls the working tree back to how it was before an interrupted compile or switch
+     */
+    private static void recoverWorkspace(BuildContext context) {
+        List<Path> restored = WorkspaceJournal.recover(getJournalDir(context));
+        if (!restored.isEmpty()) {
+            context.logger().warn("Restored {} file(s) left changed by an interrupted run", restored.size());
+        }
+    }
+
+    private static void createOutputDir(MultiMCExtension ext, BuildContext context) {
+        context.logger().info("Checking for output folder at {}", ext.getOutputDir().toAbsolutePath());
+        if (!Files.isDirectory(ext.getOutputDir())) {
+            try {
+                Files.createDirectories(ext.getOutputDir());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private static void modifyJsonInJar(Path jarPath, String filePathInJar, String[] supportedMCVers, BuildContext context) throws IOException {
+        String versionExpression = generateVersionExpression(filePathInJar, supportedMCVers);
+        context.logger().info("Setting %mcVer% in {} of {} to {}", filePathInJar, jarPath.getFileName(), versionExpression);
+        // Only the config entry is recompressed, every other entry is copied as is
+        if (!JarPatcher.patchEntry(jarPath, filePathInJar, config -> config.replace("%mcVer%", versionExpression))) {
+            context.logger().warn("Couldn't find {} in {}", filePathInJar, jarPath.getFileName());
+        }
     }
 
     private static String generateVersionExpression(String filename, String[] supportedVersions) {
@@ -278,222 +1029,192 @@ public class MultiMCCompile {
         }
     }
 
-    private static void modifyGradleProperties(MultiMCExtension ext, Path workingDir, String mcVer, Project project) {
+    static void modifyGradleProperties(MultiMCExtension ext, Path workingDir, Path[] commonDirs, String mcVer, BuildContext context, @Nullable WorkspaceJournal journal) {
         // Debug printout
-        project.getLogger().info("Loading {} Gradle Overrides", ext.getGradleConfig().getDependencies().get(mcVer).size());
-        HashMap<String, String> vars = ext.getGradleConfig().getDependencies().get(mcVer);
+        context.logger().info("Loading {} Gradle Overrides", ext.getGradleConfig().getDependencies().get(mcVer).size());
+        Map<String, String> vars = ext.getGradleConfig().getDependencies().get(mcVer);
         for (Map.Entry<String, String> entry : vars.entrySet()) {
-            project.getLogger().info("Setting {} to {}", entry.getKey(), entry.getValue());
+            context.logger().info("Setting {} to {}", entry.getKey(), entry.getValue());
         }
 
         // Project code
-        {
-            Path gradleProperties = workingDir.resolve("gradle.properties");
-            Properties properties = new Properties();
-            try (InputStream input = Files.newInputStream(gradleProperties)) {
-                properties.load(input);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-            for (Map.Entry<String, String> entry : vars.entrySet()) {
-                if (properties.containsKey(entry.getKey())) {
-                    properties.setProperty(entry.getKey(), entry.getValue());
-                }
-            }
-            try (FileWriter writer = new FileWriter(gradleProperties.toFile())) {
-                properties.store(writer, null);
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
-        }
+        applyGradleOverrides(workingDir.resolve("gradle.properties"), vars, journal);
 
         // Common code
-        {
-            for (Path common : ext.getCommonDirs()) {
-                Path gradleProperties = common.resolve("gradle.properties");
-                Properties properties = new Properties();
-                try (InputStream input = Files.newInputStream(gradleProperties)) {
-                    properties.load(input);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-                for (Map.Entry<String, String> entry : vars.entrySet()) {
-                    if (properties.containsKey(entry.getKey())) {
-                        properties.setProperty(entry.getKey(), entry.getValue());
-                    }
-                }
-                try (FileWriter writer = new FileWriter(gradleProperties.toFile())) {
-                    properties.store(writer, null);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            }
+        for (Path common : commonDirs) {
+            applyGradleOverrides(common.resolve("gradle.properties"), vars, journal);
         }
     }
 
-    private static boolean modifySourceCode(Path workingDir, String mcVer, Project project, MultiMCExtension ext) {
-        final boolean[] markChanged = {false}; // If a build is necessary
-
-        Semver mcSemver = new Semver(mcVer, Semver.SemverType.NPM);
-        // Project code
-        {
-            Path newWorkingDir = workingDir.resolve("src/main/java");
-            try (Stream<Path> stream = Files.walk(newWorkingDir)) {
-                stream.filter(path -> path.toString().endsWith(".java"))
-                        .forEach(entry -> {
-                            if (modifyClassFile(entry, mcSemver, project)) {
-                                markChanged[0] = true;
-                            }
-                        });
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+    private static void applyGradleOverrides(Path gradleProperties, Map<String, String> vars, @Nullable WorkspaceJournal journal) {
+        if (journal == null) {
+            PropertiesEditor.apply(gradleProperties, vars);
+            return;
         }
+        journal.record(gradleProperties);
+        // Every version starts from the file as it was before the run, excluded keys would be missing for later versions otherwise
+        PropertiesEditor.apply(journal.original(gradleProperties), gradleProperties, vars);
+    }
 
-        // Common code
-        {
-            for (Path commonPath : ext.getCommonDirs()) {
-                Path commonWorkingDir = commonPath.resolve("src/main/java");
-                try (Stream<Path> stream = Files.walk(commonWorkingDir)) {
-                    stream.filter(path -> path.toString().endsWith(".java"))
-                            .forEach(entry -> {
-                                if (modifyClassFile(entry, mcSemver, project)) {
-                                    markChanged[0] = true;
-                                }
-                            });
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+    private static boolean modifySourceCode(Path workingDir, String mcVer, BuildContext context, MultiMCExtension ext, MarkerIndex index, BuildMetrics.Span span, WorkspaceJournal journal, PreprocessorPool preprocessorPool) {
+        List<Path> sourceFiles = collectSourceFiles(workingDir, ext.getCommonDirs());
+        // Only files containing version markers need to be opened
+        List<Path> markedFiles = preprocessorPool.run(() -> index.refresh(sourceFiles));
+        context.logger().info("{} of {} source files contain version markers", markedFiles.size(), sourceFiles.size());
+        span.count("filesScanned", sourceFiles.size());
+        return preprocessFiles(markedFiles, mcVer, context, ext, index, span, journal, preprocessorPool);
+    }
+
+    /**
+     * Generates the sources of a loader and all common code for a version, leaving the working tree untouched
+     * @param workingDir The loader's subproject directory
+     * @param mcVer The Minecraft version to apply
+     * @param context BuildContext instance
+     * @param ext MultiMCExtension instance
+     * @param index MarkerIndex of the working tree
+     * @param generated Where the sources are generated
+     * @param span Receives the number of files scanned, written and linked
+     * @param preprocessorPool Runs the generation
+     */
+    private static void generateSources(Path workingDir, String mcVer, BuildContext context, MultiMCExtension ext, MarkerIndex index, GeneratedSources generated, BuildMetrics.Span span, PreprocessorPool preprocessorPool) {
+        Semver mcSemver = SemverCache.version(mcVer);
+        List<Path> modules = new ArrayList<>();
+        modules.add(workingDir);
+        modules.addAll(Arrays.asList(ext.getCommonDirs()));
+        for (Path module : modules) {
+            GeneratedSources.Result result;
+            try {
+                result = preprocessorPool.run(() -> generated.sync(module, mcSemver, index, context.logger()));
+            } catch (SourcePreprocessor.MalformedVersionSyntaxException syntaxError) {
+                context.logger().error(syntaxError.getMessage());
+                throw new GradleException("Task failed: Syntax mismatch", syntaxError);
             }
+            context.logger().info("Generated {} of {} source files of {} ({} written, {} linked, {} deleted)", result.markedFiles(),
+                    result.files(), module.getFileName(), result.written(), result.linked(), result.deleted());
+            span.count("filesScanned", result.files())
+                    .count("filesRead", result.markedFiles())
+                    .count("filesChanged", result.written())
+                    .count("filesLinked", result.linked())
+                    .count("bytesWritten", result.bytesWritten());
         }
-
-        return markChanged[0];
     }
 
-    private static boolean modifyClassFile(Path classFilePath, Semver mcVer, Project project) {
-        boolean markChanged = false; // If a new build is necessary
-
-        try (RandomAccessFile file = new RandomAccessFile(classFilePath.toFile(), "rw")) {
-            String line;
-            long pointer = 0;
-            int lineCount = 0;
-            boolean modified = false;
-            boolean nextAnnotationOpening = true;
-            while ((line = file.readLine()) != null) {
-                long currentPointer = file.getFilePointer();
-                String modifiedLine = line.stripLeading();
-                if (modifiedLine.startsWith("//: ")) {
-                    String subString = modifiedLine.substring(4);
-                    if (subString.startsWith("END")) {
-                        // Ending
-                        if (nextAnnotationOpening) {
-                            printMalformedVersionSyntaxError(lineCount, line, classFilePath.getFileName().toString(), project, false);
-                        }
-
-                        if (modified) {
-                            modified = false;
-                            line = swapEndingComment(line, false, project);
-                            file.seek(pointer);
-                            file.writeBytes(line + System.lineSeparator());
-                        }
-
-                        nextAnnotationOpening = true;
-                    } else {
-                        // Opening
-                        if (!nextAnnotationOpening) {
-                            printMalformedVersionSyntaxError(lineCount, line, classFilePath.getFileName().toString(), project, true);
-                        }
-
-                        String semverReq = modifiedLine.substring(4);
-                        // Check if it should be disabled
-                        if (!mcVer.satisfies(semverReq)) {
-                            modified = true;
-                            markChanged = true; // Needs a build
-                            line = swapStartingComment(line, false, project);
-                            file.seek(pointer);
-                            file.writeBytes(line + System.lineSeparator());
-                        }
-
-                        nextAnnotationOpening = false;
-                    }
-                } else if (modifiedLine.startsWith("/*\\ ")) {
-                    // Opening
-                    if (!nextAnnotationOpening) {
-                        printMalformedVersionSyntaxError(lineCount, line, classFilePath.getFileName().toString(), project, true);
-                    }
-
-                    String semverReq = modifiedLine.substring(4);
-                    if (mcVer.satisfies(semverReq)) {
-                        modified = true;
-                        markChanged = true; // Needs a build
-                        line = swapStartingComment(line, true, project);
-                        file.seek(pointer);
-                        file.writeBytes(line + System.lineSeparator());
-                    }
-
-                    nextAnnotationOpening = false;
-                } else if (modified && modifiedLine.startsWith("\\END */")) {
-                    // Closing
-                    if (nextAnnotationOpening) {
-                        printMalformedVersionSyntaxError(lineCount, line, classFilePath.getFileName().toString(), project, false);
-                    }
-
-                    modified = false;
-                    line = swapEndingComment(line, true, project);
-                    file.seek(pointer);
-                    file.writeBytes(line + System.lineSeparator());
+    /**
+     * Applies a Minecraft version to source files
+     * @param sourceFiles The files to preprocess, in a stable order
+     * @param mcVer The Minecraft version to apply
+     * @param context BuildContext instance
+     * @param ext MultiMCExtension instance
+     * @param index MarkerIndex to update for rewritten files, or null if the files are not indexed
+     * @param span Receives the number of files and bytes read and written
+     * @param journal Records every file before it is rewritten, or null if the files are not part of the working tree
+     * @param preprocessorPool Runs the files in parallel
+     * @return True if any block was toggled
+     */
+    private static boolean preprocessFiles(List<Path> sourceFiles, String mcVer, BuildContext context, MultiMCExtension ext, @Nullable MarkerIndex index, BuildMetrics.Span span, @Nullable WorkspaceJournal journal, PreprocessorPool preprocessorPool) {
+        Semver mcSemver = SemverCache.version(mcVer);
+        List<PreprocessResult> results = preprocessorPool.run(() -> sourceFiles.parallelStream()
+                .map(file -> preprocess(file, mcSemver, context, index, journal))
+                .toList());
 
-                    nextAnnotationOpening = true;
-                }
-                pointer = currentPointer;
-                lineCount++;
+        boolean markChanged = false; // If a build is necessary
+        for (PreprocessResult result : results) {
+            // Results are in file order, so the reported error is always the first one
+            if (result.failure() instanceof SourcePreprocessor.MalformedVersionSyntaxException syntaxError) {
+                context.logger().error(syntaxError.getMessage());
+                throw new GradleException("Task failed: Syntax mismatch", syntaxError);
+            } else if (result.failure() != null) {
+                throw result.failure();
+            }
+            markChanged |= result.changed();
+            span.count("filesRead", 1).count("bytesRead", result.bytes());
+            if (result.changed()) {
+                // Toggles keep the length, so a changed file is written back whole
+                span.count("filesChanged", 1).count("bytesWritten", result.bytes());
             }
-        } catch (IOException e) {
-            throw new RuntimeException(e);
         }
         return markChanged;
     }
 
-    private static void printMalformedVersionSyntaxError(int line, String lineStr, String classFileName, Project project, boolean expectedOpening) {
-        if (expectedOpening) {
-            project.getLogger().error("Expected opening syntax in {} at line {}: {}", classFileName, line, lineStr);;
-        } else {
-            project.getLogger().error("Expected closing syntax in {} at line {}: {}", classFileName, line, lineStr);
+    private static PreprocessResult preprocess(Path sourceFile, Semver mcVer, BuildContext context, @Nullable MarkerIndex index, @Nullable WorkspaceJournal journal) {
+        try {
+            boolean changed = SourcePreprocessor.process(sourceFile, mcVer, context.logger(), index, journal == null ? null : journal::record);
+            return new PreprocessResult(changed, Files.size(sourceFile), null);
+        } catch (IOException e) {
+            return new PreprocessResult(false, 0, new RuntimeException(e));
+        } catch (RuntimeException e) {
+            return new PreprocessResult(false, 0, e);
         }
-        throw new GradleException("Task failed: Syntax mismatch");
     }
 
-    private static String swapStartingComment(String line, boolean enable, Project project) {
-        if (enable) {
-            project.getLogger().info("Replacing {} with {}", line, line.replace("/*\\", "//:"));
-            return line.replace("/*\\", "//:");
-        } else {
-            project.getLogger().info("Replacing {} with {}", line, line.replace("//:", "/*\\"));
-            return line.replace("//:", "/*\\");
+    private record PreprocessResult(boolean changed, long bytes, RuntimeException failure) {
+    }
+
+    /**
+     * Lists the Java sources of a loader and all common code, in a stable order
+     * @param workingDir The loader's subproject directory
+     * @param commonDirs The common subproject directories
+     * @return The loader's sources followed by the sources of each common directory
+     */
+    private static List<Path> collectSourceFiles(Path workingDir, Path[] commonDirs) {
+        List<Path> sourceFiles = new ArrayList<>();
+        // Project code
+        collectSourceFiles(workingDir.resolve("src/main/java"), sourceFiles);
+        // Common code
+        for (Path commonPath : commonDirs) {
+            collectSourceFiles(commonPath.resolve("src/main/java"), sourceFiles);
         }
+        return sourceFiles;
     }
 
-    private static String swapEndingComment(String line, boolean enable, Project project) {
-        if (enable) {
-            project.getLogger().info("Replacing {} with {}", line, line.replace("\\END */", "//: END"));
-            return line.replace("\\END */", "//: END");
-        } else {
-            project.getLogger().info("Replacing {} with {}", line, line.replace("//: END", "\\END */"));
-            return line.replace("//: END", "\\END */");
+    /**
+     * Lists the Java sources of several subprojects, in a stable order
+     * @param projectDirs The subproject directories
+     * @return The sources of each directory, skipping directories without sources
+     */
+    private static List<Path> collectSourceFiles(List<Path> projectDirs) {
+        List<Path> sourceFiles = new ArrayList<>();
+        for (Path dir : projectDirs) {
+            Path sourceRoot = dir.resolve("src/main/java");
+            if (Files.isDirectory(sourceRoot)) {
+                collectSourceFiles(sourceRoot, sourceFiles);
+            }
+        }
+        return sourceFiles;
+    }
+
+    private static void collectSourceFiles(Path sourceRoot, List<Path> sourceFiles) {
+        try (Stream<Path> stream = Files.walk(sourceRoot)) {
+            stream.filter(path -> path.toString().endsWith(".java"))
+                    .sorted()
+                    .forEach(sourceFiles::add);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
         }
     }
 
-    private static Path migrateOutputFile(Path subprojectPath, String projectName, String projectVer, String mcVer, String loader, Path finalOutputPath, Project project, MultiMCExtension ext) {
+    private static Path migrateOutputFile(Path subprojectPath, String projectName, String projectVer, String mcVer, String loader, Path finalOutputPath, String childName, Logger logger, MultiMCExtension ext, @Nullable Path cachedJar) {
+        if (cachedJar != null) {
+            String renamedFileName = projectName + "-" + loader + "-" + projectVer + "+mc" + mcVer + ".jar";
+            try {
+                finalOutputPath = finalOutputPath.toAbsolutePath().resolve(renamedFileName);
+                Files.copy(cachedJar, finalOutputPath, StandardCopyOption.REPLACE_EXISTING);
+                return finalOutputPath;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
         Path outputDir = subprojectPath.resolve("build/libs/");
-        Path outputPath = getChildProjectJarOutput(outputDir, ext, project);
-        project.getLogger().info("Detected Built Jar at {}", outputPath);
+        Path outputPath = getChildProjectJarOutput(outputDir, ext, childName, projectVer, logger);
+        logger.info("Detected Built Jar at {}", outputPath);
 
         if (Files.exists(outputPath)) {
             File outputJar = outputPath.toFile();
             String renamedFileName = projectName + "-" + loader + "-" + projectVer + "+mc" + mcVer + ".jar";
             File renamedFile = subprojectPath.resolve("build/libs/" + renamedFileName).toFile();
             if (!outputJar.renameTo(renamedFile)) {
-                project.getLogger().warn("Failed to move {} Minecraft {}", loader, mcVer);
+                logger.warn("Failed to move {} Minecraft {}", loader, mcVer);
             }
             try {
                 finalOutputPath = finalOutputPath.toAbsolutePath().resolve(renamedFileName);
@@ -503,20 +1224,20 @@ public class MultiMCCompile {
                 throw new RuntimeException(e);
             }
         } else {
-            project.getLogger().warn("Failed to compile project for {} Minecraft {}", loader, mcVer);
-            project.getLogger().warn("Couldn't find file: {}", outputPath);
+            logger.warn("Failed to compile project for {} Minecraft {}", loader, mcVer);
+            logger.warn("Couldn't find file: {}", outputPath);
             return null;
         }
     }
 
-    private static Path getChildProjectJarOutput(Path outputDir, MultiMCExtension ext, Project child) {
+    private static Path getChildProjectJarOutput(Path outputDir, MultiMCExtension ext, String childName, String childVersion, Logger logger) {
         String outputFileName;
         if (ext.getOutputFileOverride() == null) {
-            outputFileName = child.getName() + "-" + child.getVersion() + ".jar";
+            outputFileName = childName + "-" + childVersion + ".jar";
         } else {
-            outputFileName = ext.getOutputFileOverride().replace("{name}", child.getName()).replace("{version}", child.getVersion().toString());
+            outputFileName = ext.getOutputFileOverride().replace("{name}", childName).replace("{version}", childVersion);
         }
-        child.getLogger().info("Searching for {}", outputFileName);
+        logger.info("Searching for {}", outputFileName);
         try (DirectoryStream<Path> stream = Files.newDirectoryStream(outputDir)) {
             for (Path entry : stream) {
                 if (entry.getFileName().toString().equals(outputFileName)) {
@@ -0,0 +1,36 @@
+package com.github.tatercertified.tasks;
+
+import com.github.tatercertified.MultiMCExtension;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The threads a task scans and preprocesses sources on, bounded by preprocessorThreads. Parallel streams started by
+ * {@link #run} stay on these threads instead of the common pool. One pool is opened per task run and shared by every
+ * loader and version, so its threads are started once
+ */
+class PreprocessorPool implements AutoCloseable {
+    private final ForkJoinPool pool;
+
+    /**
+     * @param ext MultiMCExtension instance
+     */
+    PreprocessorPool(MultiMCExtension ext) {
+        this.pool = new ForkJoinPool(Math.max(1, ext.getPreprocessorThreads()));
+    }
+
+    /**
+     * Runs work on the pool and waits for it
+     * @param work The work, which may use parallel streams
+     * @return The result of the work
+     */
+    <T> T run(Callable<T> work) {
+        return this.pool.submit(work).join();
+    }
+
+    @Override
+    public void close() {
+        this.pool.shutdown();
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.tatercertified.tasks;
+
+import com.github.tatercertified.MultiMCExtension;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.UntrackedTask;
+
+import java.util.Map;
+
+/**
+ * Switches the working tree to the currentMinecraftVer of the "multimc" block
+ */
+@UntrackedTask(because = "Rewrites the sources it reads in place")
+public abstract class SwitchMCVersionTask extends DefaultTask {
+    /**
+     * @return The complete configuration, with every path resolved against the root project
+     */
+    @Internal
+    public abstract Property<MultiMCExtension> getSettings();
+
+    @Internal
+    public abstract DirectoryProperty getRootDir();
+
+    /**
+     * @return The build directory of the root project, which holds the indexes
+     */
+    @Internal
+    public abstract DirectoryProperty getRootBuildDir();
+
+    @Internal
+    public abstract Property<String> getProjectName();
+
+    @TaskAction
+    public void switchVersion() {
+        MultiMCCompile.switchVersion(getSettings().get(), new BuildContext(getLogger(),
+                getRootDir().get().getAsFile().toPath(), getRootBuildDir().get().getAsFile().toPath(),
+                getProjectName().get(), Map.of()));
+    }
+}
@@ -0,0 +1,53 @@
+package com.github.tatercertified.tasks;
+
+import com.github.tatercertified.MultiMCExtension;
+import com.github.tatercertified.utils.BuildMetrics;
+import com.github.tatercertified.utils.BuildPlanner;
+
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * An independent piece of multiCompile that can run on a Gradle worker. Units only hold strings and lists,
+ * so they can be sent to a worker process
+ */
+public sealed interface WorkUnit extends Serializable {
+    /**
+     * Runs the unit
+     * @param ext MultiMCExtension instance, with resolved paths
+     * @param context BuildContext instance
+     * @param metrics Receives the phases of the unit
+     */
+    void run(MultiMCExtension ext, BuildContext context, BuildMetrics metrics);
+
+    /**
+     * Preprocesses and builds one version class of a loader in its own worktree
+     * @param loader The loader name
+     * @param workingDir The loader's subproject directory
+     * @param versions The versions of the class, see {@link BuildPlanner.VersionClass}
+     * @param futureCompatible If the jar also supports every later version
+     * @param markedFiles Every source file with version markers
+     */
+    record BuildVersionClass(String loader, String workingDir, List<String> versions, boolean futureCompatible, List<String> markedFiles) implements WorkUnit {
+        @Override
+        public void run(MultiMCExtension ext, BuildContext context, BuildMetrics metrics) {
+            MultiMCCompile.compileIsolatedClass(this.loader, Path.of(this.workingDir), new BuildPlanner.VersionClass(this.versions),
+                    this.futureCompatible, this.markedFiles.stream().map(Path::of).toList(), ext, context, metrics);
+        }
+    }
+
+    /**
+     * Fills in %mcVer% in the mod config of a built jar, then removes the file listing its versions
+     * @param loader The loader name
+     * @param jar The jar in the output directory
+     * @param versionFile The file listing the versions the jar supports
+     * @param configInJar The path of the mod config inside the jar
+     */
+    record PatchJar(String loader, String jar, String versionFile, String configInJar) implements WorkUnit {
+        @Override
+        public void run(MultiMCExtension ext, BuildContext context, BuildMetrics metrics) {
+            MultiMCCompile.patchJar(this.loader, Path.of(this.jar), Path.of(this.versionFile), this.configInJar, context, metrics);
+        }
+    }
+}
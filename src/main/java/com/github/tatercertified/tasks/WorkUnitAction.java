@@ -0,0 +1,49 @@
+package com.github.tatercertified.tasks;
+
+import com.github.tatercertified.MultiMCExtension;
+import com.github.tatercertified.utils.BuildMetrics;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.nio.file.Path;
+
+/**
+ * Runs a {@link WorkUnit} on a Gradle worker and writes its phases to a metrics fragment
+ */
+public abstract class WorkUnitAction implements WorkAction<WorkUnitAction.Parameters> {
+    public interface Parameters extends WorkParameters {
+        Property<MultiMCExtension> getSettings();
+
+        Property<WorkUnit> getUnit();
+
+        Property<String> getRootDir();
+
+        Property<String> getBuildDir();
+
+        Property<String> getProjectName();
+
+        MapProperty<String, String> getChildVersions();
+
+        /**
+         * @return The file the phases of the unit are written to
+         */
+        Property<String> getMetricsFragment();
+    }
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        BuildContext context = new BuildContext(Logging.getLogger(WorkUnitAction.class), Path.of(parameters.getRootDir().get()),
+                Path.of(parameters.getBuildDir().get()), parameters.getProjectName().get(), parameters.getChildVersions().get());
+        BuildMetrics metrics = new BuildMetrics();
+        try {
+            parameters.getUnit().get().run(parameters.getSettings().get(), context, metrics);
+        } finally {
+            // Phases of a failed unit are reported as well
+            metrics.writeFragment(Path.of(parameters.getMetricsFragment().get()));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.github.tatercertified.tasks;
+
+import com.github.tatercertified.MultiMCExtension;
+import com.github.tatercertified.utils.BuildMetrics;
+import org.gradle.api.GradleException;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.*;
+
+/**
+ * Submits {@link WorkUnit}s to Gradle's Worker API, which schedules them next to the work of other tasks and
+ * limits them to --max-workers. Without a WorkerExecutor (ex: outside a task) units run on a thread pool of
+ * buildParallelism threads instead
+ */
+public class WorkUnitQueue {
+    private final @Nullable WorkQueue queue;
+    private final MultiMCExtension ext;
+    private final BuildContext context;
+    private final BuildMetrics metrics;
+    private final Path fragmentDir;
+    private final List<Path> fragments = new ArrayList<>();
+    private final List<Callable<Void>> inlineUnits = new ArrayList<>();
+
+    /**
+     * @param workerExecutor The WorkerExecutor of the task, or null to run units on a thread pool
+     * @param ext MultiMCExtension instance, with resolved paths
+     * @param context BuildContext instance
+     * @param metrics Receives the phases of every unit
+     */
+    public WorkUnitQueue(@Nullable WorkerExecutor workerExecutor, MultiMCExtension ext, BuildContext context, BuildMetrics metrics) {
+        this.ext = ext;
+        this.context = context;
+        this.metrics = metrics;
+        this.fragmentDir = context.buildDir().resolve("multimc/metrics");
+        this.queue = workerExecutor == null ? null : switch (ext.getWorkerIsolation().toLowerCase(Locale.ROOT)) {
+            case "none" -> workerExecutor.noIsolation();
+            case "classloader" -> workerExecutor.classLoaderIsolation();
+            case "process" -> workerExecutor.processIsolation();
+            default -> throw new IllegalArgumentException("Unknown workerIsolation " + ext.getWorkerIsolation() + ", expected none, classloader or process");
+        };
+    }
+
+    /**
+     * Queues a unit, it may start right away
+     * @param unit The unit
+     */
+    public void submit(WorkUnit unit) {
+        if (this.queue == null) {
+            this.inlineUnits.add(() -> {
+                unit.run(this.ext, this.context, this.metrics);
+                return null;
+            });
+            return;
+        }
+        Path fragment = this.fragmentDir.resolve(this.fragments.size() + ".bin");
+        this.fragments.add(fragment);
+        try {
+            Files.createDirectories(this.fragmentDir);
+            Files.deleteIfExists(fragment);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.queue.submit(WorkUnitAction.class, parameters -> {
+            parameters.getSettings().set(this.ext);
+            parameters.getUnit().set(unit);
+            parameters.getRootDir().set(this.context.rootDir().toString());
+            parameters.getBuildDir().set(this.context.buildDir().toString());
+            parameters.getProjectName().set(this.context.projectName());
+            parameters.getChildVersions().set(this.context.childVersions());
+            parameters.getMetricsFragment().set(fragment.toString());
+        });
+    }
+
+    /**
+     * Waits for every submitted unit and merges their metrics. A failed unit is rethrown once all of them finished
+     */
+    public void await() {
+        if (this.queue == null) {
+            awaitInline();
+            return;
+        }
+        try {
+            this.queue.await();
+        } finally {
+            for (Path fragment : this.fragments) {
+                if (Files.isRegularFile(fragment)) {
+                    this.metrics.mergeFragment(fragment);
+                }
+            }
+            this.fragments.clear();
+        }
+    }
+
+    private void awaitInline() {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, this.ext.getBuildParallelism()));
+        try {
+            RuntimeException failure = null;
+            for (Future<Void> future : executor.invokeAll(this.inlineUnits)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() instanceof RuntimeException runtimeException ? runtimeException : new RuntimeException(e.getCause());
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GradleException("Interrupted while compiling", e);
+        } finally {
+            executor.shutdownNow();
+            this.inlineUnits.clear();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.github.tatercertified.utils;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The Minecraft version the working tree was last switched to, and the size and modification time every marked
+ * source file had right after the switch.<p>
+ * A file that still has the same size and modification time is known to be in the state of that version, so the next
+ * switch only has to open it if one of its blocks changes enablement. The state is removed before a switch starts and
+ * written once it finished, so an interrupted switch falls back to processing every file.
+ */
+public class AppliedVersionState {
+    private static final int FORMAT_VERSION = 1;
+
+    private final String version;
+    private final Map<Path, Stamp> files;
+
+    private AppliedVersionState(String version, Map<Path, Stamp> files) {
+        this.version = version;
+        this.files = files;
+    }
+
+    /**
+     * Loads the state of the working tree
+     * @param stateFile The file the state is stored in
+     * @return The state, or null if it is missing or unreadable
+     */
+    public static @Nullable AppliedVersionState load(Path stateFile) {
+        if (!Files.isRegularFile(stateFile)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(stateFile)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            String version = in.readUTF();
+            int fileCount = in.readInt();
+            Map<Path, Stamp> files = new HashMap<>(fileCount * 2);
+            for (int i = 0; i < fileCount; i++) {
+                files.put(Path.of(in.readUTF()), new Stamp(in.readLong(), in.readLong()));
+            }
+            return new AppliedVersionState(version, files);
+        } catch (IOException | RuntimeException e) {
+            // Cut off or garbled, the next switch processes every file
+            return null;
+        }
+    }
+
+    /**
+     * Records that the working tree was switched to a version
+     * @param stateFile The file the state is stored in
+     * @param version The version that was applied
+     * @param files Every marked source file, after the switch
+     */
+    public static void save(Path stateFile, String version, Collection<Path> files) {
+        try {
+            Files.createDirectories(stateFile.getParent());
+            Path tempFile = stateFile.resolveSibling(stateFile.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(version);
+                out.writeInt(files.size());
+                for (Path file : files) {
+                    Stamp stamp = Stamp.of(file);
+                    out.writeUTF(file.toString());
+                    out.writeLong(stamp.size());
+                    out.writeLong(stamp.modified());
+                }
+            }
+            Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Forgets the applied version, so the next switch processes every file
+     * @param stateFile The file the state is stored in
+     */
+    public static void clear(Path stateFile) {
+        try {
+            Files.deleteIfExists(stateFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return The version the working tree was switched to
+     */
+    public String getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Checks if a file is still exactly as the switch left it
+     * @param file A marked source file
+     * @return False if the file was changed since, or was not marked at the time
+     */
+    public boolean isUnchanged(Path file) {
+        Stamp stamp = this.files.get(file);
+        if (stamp == null) {
+            return false;
+        }
+        try {
+            return stamp.equals(Stamp.of(file));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private record Stamp(long size, long modified) {
+        private static Stamp of(Path file) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new Stamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.github.tatercertified.utils;
+
+import com.vdurmont.semver4j.Semver;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * The version blocks of a source file, built from its marker lines.<p>
+ * A block is an IF marker, any number of ELIF markers, an optional ELSE marker and an END marker, and each branch can
+ * contain further blocks. Applying a version only walks the tree: the first branch whose range is satisfied is
+ * enabled, and every other branch is wrapped in a block comment that starts on its marker line and ends on the marker
+ * line of the next enabled code. Java block comments do not nest, so the markers inside a disabled branch are always
+ * written in their {@code //: } form.
+ */
+public final class BlockTree {
+    private final List<Block> blocks;
+    private final int markerCount;
+
+    private BlockTree(List<Block> blocks, int markerCount) {
+        this.blocks = blocks;
+        this.markerCount = markerCount;
+    }
+
+    /**
+     * Builds the tree of a file
+     * @param source The contents of the file, used in error messages
+     * @param markers The markers of the file, in file order
+     * @param fileName The name of the file, used in error messages
+     * @return BlockTree
+     * @throws SourcePreprocessor.MalformedVersionSyntaxException If the markers are not properly nested
+     */
+    public static BlockTree parse(byte[] source, List<SourcePreprocessor.Marker> markers, String fileName) {
+        List<Block> blocks = new ArrayList<>();
+        Deque<Block> open = new ArrayDeque<>();
+        for (int i = 0; i < markers.size(); i++) {
+            SourcePreprocessor.Marker marker = markers.get(i);
+            Block current = open.peek();
+            switch (marker.kind()) {
+                case IF -> {
+                    Block block = new Block();
+                    block.branches.add(new Branch(i, marker.range()));
+                    if (current == null) {
+                        blocks.add(block);
+                    } else {
+                        current.lastBranch().children.add(block);
+                    }
+                    open.push(block);
+                }
+                case ELIF, ELSE -> {
+                    if (current == null) {
+                        throw malformed("No block to continue", source, marker, fileName);
+                    }
+                    if (current.lastBranch().range == null) {
+                        throw malformed("Branch after ELSE", source, marker, fileName);
+                    }
+                    current.branches.add(new Branch(i, marker.range()));
+                }
+                case END -> {
+                    if (current == null) {
+                        throw malformed("No block to close", source, marker, fileName);
+                    }
+                    current.end = i;
+                    open.pop();
+                }
+            }
+        }
+        if (!open.isEmpty()) {
+            SourcePreprocessor.Marker unclosed = markers.get(open.peek().branches.get(0).marker);
+            throw malformed("Block is never closed", source, unclosed, fileName);
+        }
+        return new BlockTree(blocks, markers.size());
+    }
+
+    /**
+     * Decides how every marker line has to be written for a version
+     * @param mcVer The Minecraft version to apply
+     * @return The form of each marker, in file order
+     */
+    SourcePreprocessor.Form[] forms(Semver mcVer) {
+        SourcePreprocessor.Form[] forms = new SourcePreprocessor.Form[this.markerCount];
+        for (Block block : this.blocks) {
+            apply(block, mcVer, true, forms);
+        }
+        return forms;
+    }
+
+    private static void apply(Block block, Semver mcVer, boolean enabled, SourcePreprocessor.Form[] forms) {
+        int enabledBranch = -1;
+        if (enabled) {
+            for (int i = 0; i < block.branches.size(); i++) {
+                String range = block.branches.get(i).range;
+                if (range == null || SemverCache.satisfies(mcVer, range)) {
+                    enabledBranch = i;
+                    break;
+                }
+            }
+        }
+
+        // Whether a block comment is open before the marker line
+        boolean commented = false;
+        for (int i = 0; i < block.branches.size(); i++) {
+            Branch branch = block.branches.get(i);
+            boolean disabled = enabled && i != enabledBranch;
+            forms[branch.marker] = form(commented, disabled);
+            commented = disabled;
+            for (Block child : branch.children) {
+                apply(child, mcVer, enabled && i == enabledBranch, forms);
+            }
+        }
+        forms[block.end] = form(commented, false);
+    }
+
+    /**
+     * @param commented If a block comment is open before the line
+     * @param disabled If the code after the line has to be commented out
+     */
+    private static SourcePreprocessor.Form form(boolean commented, boolean disabled) {
+        if (commented == disabled) {
+            // Either nothing changes, or the line is inside a comment that continues
+            return SourcePreprocessor.Form.ACTIVE;
+        }
+        return disabled ? SourcePreprocessor.Form.OPENING : SourcePreprocessor.Form.CLOSING;
+    }
+
+    private static SourcePreprocessor.MalformedVersionSyntaxException malformed(String problem, byte[] source, SourcePreprocessor.Marker marker, String fileName) {
+        return new SourcePreprocessor.MalformedVersionSyntaxException(problem, fileName, marker.line(), SourcePreprocessor.markerLine(source, marker.offset()));
+    }
+
+    private static final class Block {
+        private final List<Branch> branches = new ArrayList<>();
+        private int end;
+
+        private Branch lastBranch() {
+            return this.branches.get(this.branches.size() - 1);
+        }
+    }
+
+    /**
+     * @param marker The index of the marker that starts the branch
+     * @param range The range of the branch, null for ELSE
+     */
+    private record Branch(int marker, @Nullable String range, List<Block> children) {
+        private Branch(int marker, @Nullable String range) {
+            this(marker, range, new ArrayList<>());
+        }
+    }
+}
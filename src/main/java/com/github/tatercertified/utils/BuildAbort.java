@@ -0,0 +1,94 @@
+package com.github.tatercertified.utils;
+
+import org.gradle.tooling.CancellationToken;
+import org.gradle.tooling.CancellationTokenSource;
+import org.gradle.tooling.GradleConnector;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops the submodule builds of a multiCompile once one of them failed, for failFast.<p>
+ * Builds can run in other class loaders or worker processes, so the abort is signalled through a flag file. Every
+ * BuildAbort polls the file while it is open and cancels its builds through the tooling API as soon as it appears.
+ */
+public class BuildAbort implements AutoCloseable {
+    private static final long POLL_MILLIS = 250;
+
+    private final Path flagFile;
+    private final CancellationTokenSource tokenSource = GradleConnector.newCancellationTokenSource();
+    private final ScheduledExecutorService poller;
+
+    private BuildAbort(Path flagFile) {
+        this.flagFile = flagFile;
+        this.poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "multimc-build-abort");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.poller.scheduleWithFixedDelay(() -> {
+            if (Files.exists(this.flagFile)) {
+                this.tokenSource.cancel();
+            }
+        }, POLL_MILLIS, POLL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts watching for an abort
+     * @param flagFile The flag file shared by the builds of the run
+     * @return BuildAbort
+     */
+    public static BuildAbort open(Path flagFile) {
+        return new BuildAbort(flagFile);
+    }
+
+    /**
+     * Clears the flag of a previous run
+     * @param flagFile The flag file shared by the builds of the run
+     */
+    public static void reset(Path flagFile) {
+        try {
+            Files.deleteIfExists(flagFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return The token to pass to the builds
+     */
+    public CancellationToken token() {
+        return this.tokenSource.token();
+    }
+
+    /**
+     * Cancels the builds of every BuildAbort of the run
+     * @param reason Why, written to the flag file
+     */
+    public void abort(String reason) {
+        try {
+            Files.createDirectories(this.flagFile.getParent());
+            Files.writeString(this.flagFile, reason, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.tokenSource.cancel();
+    }
+
+    /**
+     * @return True if a build of the run failed, so no further builds should start
+     */
+    public boolean isAborted() {
+        return this.tokenSource.token().isCancellationRequested() || Files.exists(this.flagFile);
+    }
+
+    @Override
+    public void close() {
+        this.poller.shutdownNow();
+    }
+}
@@ -0,0 +1,146 @@
+package com.github.tatercertified.utils;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The submodule builds that failed, kept across runs.<p>
+ * Every loader and version has its own record file, so builds running in separate work items never write the same
+ * file. A record is keyed by the hash of the build's inputs, so a version is only known to be broken until its
+ * sources, gradle.properties or build files change, and it is removed as soon as the version builds again.
+ */
+public class BuildFailures {
+    private static final int FORMAT_VERSION = 1;
+    // Well below the 64 KiB writeUTF can store, compiler output can be much longer
+    private static final int MAX_MESSAGE_LENGTH = 4096;
+
+    private final Path dir;
+
+    /**
+     * @param dir The directory the records are stored in
+     */
+    public BuildFailures(Path dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Gets the last failure of a version
+     * @param loader The loader name
+     * @param mcVer The version
+     * @return The record, or null if the version did not fail since it last built
+     */
+    public @Nullable Failure get(String loader, String mcVer) {
+        return read(recordFile(loader, mcVer));
+    }
+
+    /**
+     * Records a failed build
+     * @param loader The loader name
+     * @param mcVer The version
+     * @param inputKey The hash of the build's inputs, or null if it was not computed
+     * @param message Why the build failed
+     */
+    public void recordFailure(String loader, String mcVer, @Nullable String inputKey, String message) {
+        Failure previous = get(loader, mcVer);
+        if (message.length() > MAX_MESSAGE_LENGTH) {
+            message = message.substring(0, MAX_MESSAGE_LENGTH) + "...";
+        }
+        Failure failure = new Failure(loader, mcVer, inputKey == null ? "" : inputKey, message,
+                previous == null ? 1 : previous.count() + 1, System.currentTimeMillis());
+        Path recordFile = recordFile(loader, mcVer);
+        try {
+            Files.createDirectories(this.dir);
+            Path tempFile = recordFile.resolveSibling(recordFile.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(failure.loader());
+                out.writeUTF(failure.mcVer());
+                out.writeUTF(failure.inputKey());
+                out.writeUTF(failure.message());
+                out.writeInt(failure.count());
+                out.writeLong(failure.time());
+            }
+            Files.move(tempFile, recordFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Forgets the failures of a version that built
+     * @param loader The loader name
+     * @param mcVer The version
+     */
+    public void recordSuccess(String loader, String mcVer) {
+        try {
+            Files.deleteIfExists(recordFile(loader, mcVer));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Lists the failures recorded since a point in time, ex: the ones of the current run
+     * @param time The start, in milliseconds since the epoch
+     * @return The failures, oldest first
+     */
+    public List<Failure> since(long time) {
+        List<Failure> failures = new ArrayList<>();
+        if (!Files.isDirectory(this.dir)) {
+            return failures;
+        }
+        try (Stream<Path> stream = Files.list(this.dir)) {
+            stream.filter(file -> file.getFileName().toString().endsWith(".bin"))
+                    .map(BuildFailures::read)
+                    .filter(failure -> failure != null && failure.time() >= time)
+                    .forEach(failures::add);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        failures.sort(Comparator.comparingLong(Failure::time));
+        return failures;
+    }
+
+    private Path recordFile(String loader, String mcVer) {
+        return this.dir.resolve(loader + "-" + mcVer + ".bin");
+    }
+
+    private static @Nullable Failure read(Path recordFile) {
+        if (!Files.isRegularFile(recordFile)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(recordFile)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            return new Failure(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readInt(), in.readLong());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param loader The loader name
+     * @param mcVer The version
+     * @param inputKey The hash of the inputs of the failed build, empty if it was not computed
+     * @param message Why the build failed
+     * @param count How many times in a row the version failed
+     * @param time When the last failure was recorded, in milliseconds since the epoch
+     */
+    public record Failure(String loader, String mcVer, String inputKey, String message, int count, long time) {
+        /**
+         * @param inputKey The hash of the inputs of the next build, or null if it is not computed
+         * @return True if the build would fail again, because its inputs did not change
+         */
+        public boolean isSameInputs(@Nullable String inputKey) {
+            // A failure recorded without a key never matches, its inputs are unknown
+            return inputKey != null && !this.inputKey.isEmpty() && inputKey.equals(this.inputKey);
+        }
+    }
+}
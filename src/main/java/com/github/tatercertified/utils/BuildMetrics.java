@@ -0,0 +1,263 @@
+package com.github.tatercertified.utils;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Collects how long each phase of multiCompile takes, per loader and Minecraft version, and writes the result as a
+ * JSON and a CSV report. Phases may be recorded from several threads at once.<p>
+ * Work that runs in another process records its phases in its own instance and hands them over as a fragment,
+ * see {@link #writeFragment(Path)} and {@link #mergeFragment(Path)}.
+ */
+public class BuildMetrics {
+    /**
+     * The file name of the reports in the output directory, without extension
+     */
+    public static final String REPORT_NAME = "multicompile-metrics";
+
+    private final Instant started = Instant.now();
+    private final long startNanos = System.nanoTime();
+    private final Queue<Entry> entries = new ConcurrentLinkedQueue<>();
+
+    public enum Phase {
+        PROPERTY_REWRITE("property_rewrite"),
+        SOURCE_PREPROCESSING("source_preprocessing"),
+        SUBMODULE_BUILD("submodule_build"),
+        JAR_MIGRATION("jar_migration"),
+        JAR_COMPARISON("jar_comparison"),
+        JAR_PATCHING("jar_patching");
+
+        private final String id;
+
+        Phase(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return this.id;
+        }
+    }
+
+    /**
+     * Starts timing a phase. The phase is recorded when the span is closed
+     * @param loader The loader being built
+     * @param mcVer The Minecraft version being built
+     * @param phase The phase
+     * @return Span
+     */
+    public Span start(String loader, String mcVer, Phase phase) {
+        return new Span(loader, mcVer, phase);
+    }
+
+    /**
+     * @return Every recorded phase, in the order they finished
+     */
+    public List<Entry> getEntries() {
+        return List.copyOf(this.entries);
+    }
+
+    /**
+     * Writes the JSON and CSV reports
+     * @param outputDir The directory to write the reports to
+     */
+    public void write(Path outputDir) {
+        List<Entry> sorted = new ArrayList<>(this.entries);
+        sorted.sort(Comparator.comparingLong(Entry::startNanos));
+        long totalNanos = System.nanoTime() - this.startNanos;
+        try {
+            writeJson(outputDir.resolve(REPORT_NAME + ".json"), sorted, totalNanos);
+            writeCsv(outputDir.resolve(REPORT_NAME + ".csv"), sorted);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes every recorded phase to a file, to be merged into the metrics of the task
+     * @param file The fragment file
+     */
+    public void writeFragment(Path file) {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            List<Entry> recorded = getEntries();
+            out.writeInt(recorded.size());
+            for (Entry entry : recorded) {
+                out.writeUTF(entry.loader());
+                out.writeUTF(entry.mcVer());
+                out.writeUTF(entry.phase().name());
+                // nanoTime has no common origin between processes, so the start is stored as wall clock time
+                out.writeLong(epochNanos() + entry.startNanos() - this.startNanos);
+                out.writeLong(entry.durationNanos());
+                out.writeInt(entry.counters().size());
+                for (Map.Entry<String, Long> counter : entry.counters().entrySet()) {
+                    out.writeUTF(counter.getKey());
+                    out.writeLong(counter.getValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Adds the phases of a fragment written by {@link #writeFragment(Path)}
+     * @param file The fragment file
+     */
+    public void mergeFragment(Path file) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String loader = in.readUTF();
+                String mcVer = in.readUTF();
+                Phase phase = Phase.valueOf(in.readUTF());
+                long start = this.startNanos + in.readLong() - epochNanos();
+                long duration = in.readLong();
+                int counterCount = in.readInt();
+                Map<String, Long> counters = new LinkedHashMap<>();
+                for (int j = 0; j < counterCount; j++) {
+                    counters.put(in.readUTF(), in.readLong());
+                }
+                this.entries.add(new Entry(loader, mcVer, phase, start, duration, Collections.unmodifiableMap(counters)));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private long epochNanos() {
+        return this.started.getEpochSecond() * 1_000_000_000L + this.started.getNano();
+    }
+
+    private void writeJson(Path file, List<Entry> sorted, long totalNanos) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("{\n");
+            writer.write("  \"started\": " + quote(this.started.toString()) + ",\n");
+            writer.write("  \"totalMillis\": " + millis(totalNanos) + ",\n");
+            writer.write("  \"phases\": [");
+            for (int i = 0; i < sorted.size(); i++) {
+                Entry entry = sorted.get(i);
+                writer.write(i == 0 ? "\n" : ",\n");
+                writer.write("    {\"loader\": " + quote(entry.loader())
+                        + ", \"mcVer\": " + quote(entry.mcVer())
+                        + ", \"phase\": " + quote(entry.phase().getId())
+                        + ", \"startMillis\": " + millis(entry.startNanos() - this.startNanos)
+                        + ", \"durationMillis\": " + millis(entry.durationNanos()));
+                for (Map.Entry<String, Long> counter : entry.counters().entrySet()) {
+                    writer.write(", " + quote(counter.getKey()) + ": " + counter.getValue());
+                }
+                writer.write("}");
+            }
+            writer.write(sorted.isEmpty() ? "]\n" : "\n  ]\n");
+            writer.write("}\n");
+        }
+    }
+
+    private void writeCsv(Path file, List<Entry> sorted) throws IOException {
+        // Every counter gets its own column, empty for phases that do not report it
+        SortedSet<String> counterNames = new TreeSet<>();
+        for (Entry entry : sorted) {
+            counterNames.addAll(entry.counters().keySet());
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("loader,mcVer,phase,startMillis,durationMillis");
+            for (String name : counterNames) {
+                writer.write("," + name);
+            }
+            writer.newLine();
+            for (Entry entry : sorted) {
+                writer.write(csv(entry.loader()) + "," + csv(entry.mcVer()) + "," + entry.phase().getId()
+                        + "," + millis(entry.startNanos() - this.startNanos) + "," + millis(entry.durationNanos()));
+                for (String name : counterNames) {
+                    Long value = entry.counters().get(name);
+                    writer.write("," + (value == null ? "" : value.toString()));
+                }
+                writer.newLine();
+            }
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000.0);
+    }
+
+    static String quote(String value) {
+        StringBuilder builder = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+                }
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private static String csv(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+    /**
+     * A phase that is being timed. Counters (ex: files changed, bytes written) can be added until it is closed
+     */
+    public class Span implements AutoCloseable {
+        private final String loader;
+        private final String mcVer;
+        private final Phase phase;
+        private final long start = System.nanoTime();
+        private final Map<String, Long> counters = new LinkedHashMap<>();
+        private boolean closed;
+
+        private Span(String loader, String mcVer, Phase phase) {
+            this.loader = loader;
+            this.mcVer = mcVer;
+            this.phase = phase;
+        }
+
+        /**
+         * Adds to a counter of this phase
+         * @param name The name of the counter
+         * @param value The amount to add
+         * @return This span
+         */
+        public Span count(String name, long value) {
+            this.counters.merge(name, value, Long::sum);
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            entries.add(new Entry(this.loader, this.mcVer, this.phase, this.start, System.nanoTime() - this.start, Collections.unmodifiableMap(new LinkedHashMap<>(this.counters))));
+        }
+    }
+
+    /**
+     * A recorded phase
+     * @param loader The loader that was built
+     * @param mcVer The Minecraft version that was built
+     * @param phase The phase
+     * @param startNanos When the phase started, in {@link System#nanoTime()}
+     * @param durationNanos How long the phase took
+     * @param counters The counters reported by the phase
+     */
+    public record Entry(String loader, String mcVer, Phase phase, long startNanos, long durationNanos, Map<String, Long> counters) {
+    }
+}
@@ -0,0 +1,217 @@
+package com.github.tatercertified.utils;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of built jars, shared by every multiCompile run that uses the same cache directory.<p>
+ * A jar is stored under the hash of everything its build reads: the preprocessed sources and resources, the effective
+ * gradle.properties and the build files of the subprojects and of the root project, together with the build settings.
+ * Jars are evicted least recently used first once the cache grows past its size limit.
+ */
+public class BuildOutputCache {
+    private static final List<String> BUILD_FILES = List.of("build.gradle", "build.gradle.kts", "settings.gradle", "settings.gradle.kts", "gradle.properties");
+    private static final String JAR_EXTENSION = ".jar";
+
+    private final Path cacheDir;
+    private final long maxBytes;
+
+    /**
+     * @param cacheDir The directory the jars are stored in
+     * @param maxBytes The size the cache is trimmed to after storing a jar
+     */
+    public BuildOutputCache(Path cacheDir, long maxBytes) {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Lists the files that decide the output of a build, in a stable order
+     * @param rootDir The root project directory
+     * @param modules The loader subproject directory followed by the common subproject directories
+     * @return Every file keyed by a name that does not depend on where the tree is located
+     */
+    public static Map<String, Path> collectInputs(Path rootDir, List<Path> modules) {
+        Map<String, Path> inputs = new LinkedHashMap<>();
+        try {
+            addBuildFiles("root", rootDir, inputs);
+            // Version catalogs and the wrapper version
+            addTree("root", rootDir, rootDir.resolve("gradle"), inputs);
+            for (int i = 0; i < modules.size(); i++) {
+                Path module = modules.get(i);
+                String prefix = "module" + i;
+                addBuildFiles(prefix, module, inputs);
+                addTree(prefix, module, module.resolve("src"), inputs);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return inputs;
+    }
+
+    private static void addBuildFiles(String prefix, Path dir, Map<String, Path> inputs) {
+        for (String name : BUILD_FILES) {
+            Path file = dir.resolve(name);
+            if (Files.isRegularFile(file)) {
+                inputs.put(prefix + "/" + name, file);
+            }
+        }
+    }
+
+    private static void addTree(String prefix, Path base, Path dir, Map<String, Path> inputs) throws IOException {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (Stream<Path> stream = Files.walk(dir)) {
+            stream.filter(Files::isRegularFile)
+                    .sorted()
+                    .forEach(file -> inputs.put(prefix + "/" + base.relativize(file).toString().replace('\\', '/'), file));
+        }
+    }
+
+    /**
+     * Computes the cache key of a build
+     * @param inputs The files from {@link #collectInputs(Path, List)}
+     * @param settings Everything else that changes the output (ex: the build tasks and arguments)
+     * @return The hex encoded key
+     */
+    public static String key(Map<String, Path> inputs, List<String> settings) {
+        List<Map.Entry<String, Path>> entries = new ArrayList<>(inputs.entrySet());
+        // Files are hashed in parallel and combined in input order
+        List<byte[]> fileHashes = entries.parallelStream()
+                .map(entry -> hash(entry.getValue()))
+                .toList();
+        MessageDigest digest = newDigest();
+        for (String setting : settings) {
+            update(digest, setting);
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            update(digest, entries.get(i).getKey());
+            digest.update(fileHashes.get(i));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        // Length prefixed, so neighbouring values cannot run into each other
+        digest.update((byte) (bytes.length >>> 24));
+        digest.update((byte) (bytes.length >>> 16));
+        digest.update((byte) (bytes.length >>> 8));
+        digest.update((byte) bytes.length);
+        digest.update(bytes);
+    }
+
+    private static byte[] hash(Path file) {
+        MessageDigest digest = newDigest();
+        if (file.getFileName().toString().equals("gradle.properties")) {
+            // Hashed by value, so formatting, comments and the order of the keys do not change the key
+            Properties properties = new Properties();
+            try (InputStream input = Files.newInputStream(file)) {
+                properties.load(input);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+                update(digest, key);
+                update(digest, properties.getProperty(key));
+            }
+            return digest.digest();
+        }
+        byte[] buffer = new byte[8192];
+        try (InputStream input = Files.newInputStream(file)) {
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Looks up a jar and marks it as recently used
+     * @param key The key from {@link #key(Map, List)}
+     * @return The cached jar, or null if there is none
+     */
+    public @Nullable Path lookup(String key) {
+        Path jar = this.cacheDir.resolve(key + JAR_EXTENSION);
+        if (!Files.isRegularFile(jar)) {
+            return null;
+        }
+        try {
+            Files.setLastModifiedTime(jar, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // Evicted at the same time, treat as a miss
+            return null;
+        }
+        return jar;
+    }
+
+    /**
+     * Copies a jar into the cache, then evicts the least recently used jars above the size limit
+     * @param key The key from {@link #key(Map, List)}
+     * @param jar The built jar
+     */
+    public void store(String key, Path jar) {
+        try {
+            Files.createDirectories(this.cacheDir);
+            Path temp = Files.createTempFile(this.cacheDir, key, ".tmp");
+            Files.copy(jar, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, this.cacheDir.resolve(key + JAR_EXTENSION), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        evict();
+    }
+
+    private synchronized void evict() {
+        List<CachedJar> jars = new ArrayList<>();
+        long totalBytes = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.cacheDir, "*" + JAR_EXTENSION)) {
+            for (Path jar : stream) {
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(jar, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    // Evicted by a build running in another worker
+                    continue;
+                }
+                jars.add(new CachedJar(jar, attributes.size(), attributes.lastModifiedTime()));
+                totalBytes += attributes.size();
+            }
+            jars.sort(Comparator.comparing(CachedJar::lastUsed));
+            for (CachedJar jar : jars) {
+                if (totalBytes <= this.maxBytes) {
+                    break;
+                }
+                Files.deleteIfExists(jar.path());
+                totalBytes -= jar.size();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private record CachedJar(Path path, long size, FileTime lastUsed) {
+    }
+}
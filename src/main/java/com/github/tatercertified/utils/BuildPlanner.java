@@ -0,0 +1,79 @@
+package com.github.tatercertified.utils;
+
+import com.vdurmont.semver4j.Semver;
+
+import java.util.*;
+
+/**
+ * Groups Minecraft versions into classes that produce the same build.<p>
+ * Two versions are equivalent when every version marker range in the source tree is either satisfied by both or by
+ * neither, and the gradle.properties overrides that actually apply to the subprojects are identical.
+ * Only neighbouring versions are grouped, so the versions of a class always form a continuous range.
+ */
+public final class BuildPlanner {
+    private BuildPlanner() {
+    }
+
+    /**
+     * Plans the builds of a loader
+     * @param dependencies Every configured Minecraft version and its gradle.properties overrides, in version order
+     * @param ranges Every semver range used by a version marker
+     * @param propertyKeys The keys declared in the gradle.properties files the overrides are applied to
+     * @return The version classes in version order; each one has to be built once
+     */
+    public static List<VersionClass> plan(SortedMap<String, ? extends Map<String, String>> dependencies, Collection<String> ranges, Set<String> propertyKeys) {
+        List<String> sortedRanges = new ArrayList<>(new TreeSet<>(ranges));
+        List<VersionClass> classes = new ArrayList<>();
+        List<String> current = null;
+        Signature previous = null;
+        for (Map.Entry<String, ? extends Map<String, String>> entry : dependencies.entrySet()) {
+            Signature signature = signature(entry.getKey(), entry.getValue(), sortedRanges, propertyKeys);
+            if (current == null || !signature.equals(previous)) {
+                current = new ArrayList<>();
+                classes.add(new VersionClass(current));
+            }
+            current.add(entry.getKey());
+            previous = signature;
+        }
+        return classes;
+    }
+
+    private static Signature signature(String mcVer, Map<String, String> overrides, List<String> ranges, Set<String> propertyKeys) {
+        Semver mcSemver = SemverCache.version(mcVer);
+        BitSet enabledBlocks = new BitSet(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            if (SemverCache.satisfies(mcSemver, ranges.get(i))) {
+                enabledBlocks.set(i);
+            }
+        }
+
+        // Overrides of properties that do not exist are never written, so they cannot change the build
+        Map<String, String> properties = new HashMap<>();
+        for (Map.Entry<String, String> override : overrides.entrySet()) {
+            if (propertyKeys.contains(override.getKey())) {
+                properties.put(override.getKey(), override.getValue());
+            }
+        }
+        return new Signature(enabledBlocks, properties);
+    }
+
+    private record Signature(BitSet enabledBlocks, Map<String, String> properties) {
+    }
+
+    /**
+     * Minecraft versions that share a single build
+     * @param versions The versions, in version order
+     */
+    public record VersionClass(List<String> versions) {
+        /**
+         * @return The version that is applied to the tree when building this class
+         */
+        public String first() {
+            return this.versions.get(0);
+        }
+
+        public String last() {
+            return this.versions.get(this.versions.size() - 1);
+        }
+    }
+}
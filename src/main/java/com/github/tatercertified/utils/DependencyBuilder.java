@@ -3,14 +3,15 @@ package com.github.tatercertified.utils;
 import org.jetbrains.annotations.ApiStatus;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.TreeMap;
-import java.util.function.Consumer;
+import java.util.Map;
 
+/**
+ * Collects the gradle.properties overrides of one Minecraft version. The calls are recorded in declaration order and
+ * only applied once every version is declared, so later calls win and copies may refer to any declared version
+ */
 public class DependencyBuilder {
-    private final HashMap<String, String> dependencies = new HashMap<>();
-    private final List<Consumer<TreeMap<String, HashMap<String, String>>>> copyDeps = new ArrayList<>();
+    private final List<Operation> operations = new ArrayList<>();
     private final String mcVer;
 
     public DependencyBuilder(String mcVer) {
@@ -24,15 +25,10 @@ public class DependencyBuilder {
      * @return DependencyBuilder
      */
     public DependencyBuilder dep(String var, String val) {
-        this.dependencies.put(var, val);
+        this.operations.add(new Operation.Set(var, val));
         return this;
     }
 
-    private void depConsumer(String var, String val, TreeMap<String, HashMap<String, String>> map) {
-        HashMap<String, String> depMap = map.get(this.mcVer);
-        depMap.put(var, val);
-    }
-
     /**
      * Copies a value from a previously declared Minecraft version
      * @param var The variable declared in gradle.properties
@@ -40,10 +36,7 @@ public class DependencyBuilder {
      * @return DependencyBuilder
      */
     public DependencyBuilder depCopy(String var, String mcVer) {
-        this.copyDeps.add(stringHashMapTreeMap -> {
-            String val = stringHashMapTreeMap.get(mcVer).get(var);
-            depConsumer(var, val, stringHashMapTreeMap);
-        });
+        this.operations.add(new Operation.Copy(var, mcVer));
         return this;
     }
 
@@ -63,40 +56,71 @@ public class DependencyBuilder {
      * @return DependencyBuilder
      */
     public DependencyBuilder depCopyAll(String mcVer) {
-        this.copyDeps.add(stringHashMapTreeMap -> {
-            stringHashMapTreeMap.put(this.mcVer, stringHashMapTreeMap.get(mcVer));
-        });
+        this.operations.add(new Operation.CopyAll(mcVer));
         return this;
     }
 
     /**
      * Do not call this.<p>
-     * Builds the final result
-     * @return All configurations
+     * @return The Minecraft version this builder declares
      */
     @ApiStatus.Internal
-    public HashMap<String, String> build() {
-        return this.dependencies;
+    public String getMcVer() {
+        return this.mcVer;
     }
 
     /**
      * Do not call this.<p>
-     * Builds all dependencies that depend on other versions
-     * @param otherDeps Other version's dependencies after {@link DependencyBuilder#build()} has been run
+     * @return Every call, in declaration order
      */
     @ApiStatus.Internal
-    public void buildCopies(TreeMap<String, HashMap<String, String>> otherDeps) {
-        for (Consumer<TreeMap<String, HashMap<String, String>>> consumer : this.copyDeps) {
-            consumer.accept(otherDeps);
-        }
+    public List<Operation> getOperations() {
+        return this.operations;
     }
 
     /**
-     * If the dependency builder should be saved in the Minecraft version builder
-     * @return True if it should be saved
+     * A recorded call
      */
     @ApiStatus.Internal
-    public boolean shouldSave() {
-        return !this.copyDeps.isEmpty();
+    public sealed interface Operation {
+        /**
+         * @return The version this operation copies from, or null
+         */
+        default String source() {
+            return null;
+        }
+
+        /**
+         * Applies the operation
+         * @param target The overrides of the version being resolved
+         * @param resolved The overrides of the versions resolved so far
+         * @param mcVer The version being resolved, for error messages
+         */
+        void apply(Map<String, String> target, Map<String, Map<String, String>> resolved, String mcVer);
+
+        record Set(String var, String val) implements Operation {
+            @Override
+            public void apply(Map<String, String> target, Map<String, Map<String, String>> resolved, String mcVer) {
+                target.put(this.var, this.val);
+            }
+        }
+
+        record Copy(String var, String source) implements Operation {
+            @Override
+            public void apply(Map<String, String> target, Map<String, Map<String, String>> resolved, String mcVer) {
+                Map<String, String> from = resolved.get(this.source);
+                if (!from.containsKey(this.var)) {
+                    throw new InvalidBuildConfigException(mcVer + " copies " + this.var + " from " + this.source + ", which does not declare it");
+                }
+                target.put(this.var, from.get(this.var));
+            }
+        }
+
+        record CopyAll(String source) implements Operation {
+            @Override
+            public void apply(Map<String, String> target, Map<String, Map<String, String>> resolved, String mcVer) {
+                target.putAll(resolved.get(this.source));
+            }
+        }
     }
 }
@@ -0,0 +1,177 @@
+package com.github.tatercertified.utils;
+
+import com.vdurmont.semver4j.Semver;
+import org.gradle.api.logging.Logger;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Preprocessed copies of the {@code src/main/java} trees of the loader and common subprojects, which submodule builds
+ * compile instead of the working tree.<p>
+ * The copies keep the layout relative to the root project. Files with version markers are written with the blocks of
+ * the version being built, but only when their contents changed, so the incremental Java compilation of the submodule
+ * only sees the files that actually differ between two versions. Every other file is a hardlink to the working tree,
+ * and files are always replaced instead of written into, so the working tree is never changed through a link.
+ */
+public final class GeneratedSources {
+    private final Path rootDir;
+    private final Path dir;
+
+    /**
+     * @param rootDir The root project directory
+     * @param dir The directory the copies are generated in
+     */
+    public GeneratedSources(Path rootDir, Path dir) {
+        this.rootDir = rootDir;
+        this.dir = dir;
+    }
+
+    public Path getDir() {
+        return this.dir;
+    }
+
+    /**
+     * @param module A subproject directory
+     * @return The directory the sources of the subproject are generated in
+     */
+    public Path sourceRoot(Path module) {
+        return this.dir.resolve(module.startsWith(this.rootDir) ? this.rootDir.relativize(module) : module.getFileName()).resolve("src/main/java");
+    }
+
+    /**
+     * Maps a source file of a subproject to its generated copy
+     * @param module The subproject directory
+     * @param file A file of the subproject
+     * @return The generated copy, or the file itself if it is not in the {@code src/main/java} tree
+     */
+    public Path resolve(Path module, Path file) {
+        Path sources = module.resolve("src/main/java");
+        return file.startsWith(sources) ? sourceRoot(module).resolve(sources.relativize(file)) : file;
+    }
+
+    /**
+     * Brings the generated copy of a subproject up to date for a version, and deletes copies of files that no longer exist
+     * @param module The subproject directory
+     * @param mcVer The Minecraft version to apply
+     * @param index MarkerIndex of the working tree
+     * @param logger Logger used for reporting replacements
+     * @return What had to be done
+     * @throws SourcePreprocessor.MalformedVersionSyntaxException If the markers of a file are not properly paired
+     */
+    public Result sync(Path module, Semver mcVer, MarkerIndex index, Logger logger) {
+        Path sources = module.resolve("src/main/java");
+        Path target = sourceRoot(module);
+        List<Path> files = new ArrayList<>();
+        if (Files.isDirectory(sources)) {
+            try (Stream<Path> stream = Files.walk(sources)) {
+                stream.filter(Files::isRegularFile).sorted().forEach(files::add);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        Set<Path> markedFiles = new HashSet<>(index.refresh(files.stream().filter(file -> file.toString().endsWith(".java")).toList()));
+
+        List<FileResult> results = files.parallelStream()
+                .map(file -> {
+                    Path copy = target.resolve(sources.relativize(file));
+                    return markedFiles.contains(file)
+                            ? writeIfChanged(copy, SourcePreprocessor.read(file, mcVer, logger, index))
+                            : link(copy, file);
+                })
+                .toList();
+
+        Set<Path> expected = new HashSet<>();
+        for (Path file : files) {
+            expected.add(target.resolve(sources.relativize(file)));
+        }
+        int deleted = deleteStale(target, expected);
+
+        int written = 0;
+        int linked = 0;
+        long bytesWritten = 0;
+        for (FileResult result : results) {
+            if (result.written()) {
+                written++;
+                bytesWritten += result.bytes();
+            } else if (result.linked()) {
+                linked++;
+            }
+        }
+        return new Result(files.size(), markedFiles.size(), written, linked, deleted, bytesWritten);
+    }
+
+    private static FileResult writeIfChanged(Path copy, byte[] contents) {
+        try {
+            if (Files.isRegularFile(copy, LinkOption.NOFOLLOW_LINKS) && Files.size(copy) == contents.length
+                    && Arrays.equals(Files.readAllBytes(copy), contents)) {
+                return new FileResult(false, false, 0);
+            }
+            Files.createDirectories(copy.getParent());
+            // Replaces a hardlink instead of writing through it into the working tree
+            Path tempFile = copy.resolveSibling(copy.getFileName() + ".tmp");
+            Files.write(tempFile, contents);
+            Files.move(tempFile, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return new FileResult(true, false, contents.length);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static FileResult link(Path copy, Path file) {
+        try {
+            if (Files.exists(copy, LinkOption.NOFOLLOW_LINKS) && Files.isSameFile(copy, file)) {
+                return new FileResult(false, false, 0);
+            }
+            Files.createDirectories(copy.getParent());
+            try {
+                Path tempLink = copy.resolveSibling(copy.getFileName() + ".link");
+                Files.deleteIfExists(tempLink);
+                Files.createLink(tempLink, file);
+                Files.move(tempLink, copy, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return new FileResult(false, true, 0);
+            } catch (UnsupportedOperationException | IOException e) {
+                // Hardlinks are not supported or the build directory is on another drive
+                return writeIfChanged(copy, Files.readAllBytes(file));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static int deleteStale(Path target, Set<Path> expected) {
+        if (!Files.isDirectory(target)) {
+            return 0;
+        }
+        List<Path> stale;
+        try (Stream<Path> stream = Files.walk(target)) {
+            stale = stream.filter(file -> Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS) && !expected.contains(file)).toList();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        for (Path file : stale) {
+            try {
+                Files.delete(file);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return stale.size();
+    }
+
+    private record FileResult(boolean written, boolean linked, long bytes) {
+    }
+
+    /**
+     * @param files The files of the subproject's source tree
+     * @param markedFiles The files with version markers
+     * @param written The copies that were written, because they changed or could not be linked
+     * @param linked The copies that were newly linked
+     * @param deleted The copies of deleted files that were removed
+     * @param bytesWritten The size of the written copies
+     */
+    public record Result(int files, int markedFiles, int written, int linked, int deleted, long bytesWritten) {
+    }
+}
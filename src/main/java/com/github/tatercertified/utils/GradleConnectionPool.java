@@ -0,0 +1,87 @@
+package com.github.tatercertified.utils;
+
+import org.gradle.tooling.BuildLauncher;
+import org.gradle.tooling.GradleConnector;
+import org.gradle.tooling.ProjectConnection;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Keeps one tooling API connection per submodule directory open for the duration of a task,
+ * so consecutive builds of the same submodule reuse the connection and its warm daemon. It also owns the thread that
+ * passes on quiet build output, which ends when the pool is closed
+ */
+public class GradleConnectionPool implements AutoCloseable {
+    private final Map<File, ProjectConnection> connections = new ConcurrentHashMap<>();
+    private final List<String> tasks;
+    private final List<String> arguments;
+    private final List<String> jvmArgs;
+    private final ScheduledExecutorService outputDrain = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MultiMC build output");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param tasks The tasks to run in every build
+     * @param arguments Extra command line arguments (ex: "--build-cache")
+     * @param jvmArgs JVM arguments for the build daemon; when empty, org.gradle.jvmargs from gradle.properties is used
+     */
+    public GradleConnectionPool(List<String> tasks, List<String> arguments, List<String> jvmArgs) {
+        this.tasks = List.copyOf(tasks);
+        this.arguments = List.copyOf(arguments);
+        this.jvmArgs = List.copyOf(jvmArgs);
+    }
+
+    /**
+     * Gets the connection to a submodule, connecting if necessary
+     * @param subprojectDir The submodule directory
+     * @return ProjectConnection
+     */
+    public ProjectConnection getConnection(File subprojectDir) {
+        return this.connections.computeIfAbsent(subprojectDir.getAbsoluteFile(), dir -> GradleConnector.newConnector()
+                .forProjectDirectory(dir)
+                .connect());
+    }
+
+    /**
+     * Creates a build of the configured tasks, arguments and JVM arguments
+     * @param subprojectDir The submodule directory
+     * @param extraArguments Arguments for this build only, added after the configured ones
+     * @return BuildLauncher
+     */
+    public BuildLauncher newBuild(File subprojectDir, List<String> extraArguments) {
+        List<String> buildArguments = new ArrayList<>(this.arguments);
+        buildArguments.addAll(extraArguments);
+        BuildLauncher launcher = getConnection(subprojectDir).newBuild()
+                .forTasks(this.tasks.toArray(new String[0]))
+                .withArguments(buildArguments);
+        if (!this.jvmArgs.isEmpty()) {
+            launcher.setJvmArguments(this.jvmArgs);
+        }
+        return launcher;
+    }
+
+    /**
+     * The scheduler the output streams of builds on this pool drain their batches with
+     * @return ScheduledExecutorService
+     */
+    public ScheduledExecutorService getOutputDrain() {
+        return this.outputDrain;
+    }
+
+    @Override
+    public void close() {
+        for (ProjectConnection connection : this.connections.values()) {
+            connection.close();
+        }
+        this.connections.clear();
+        this.outputDrain.shutdownNow();
+    }
+}
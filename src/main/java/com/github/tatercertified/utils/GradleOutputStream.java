@@ -1,38 +1,246 @@
 package com.github.tatercertified.utils;
 
 import org.gradle.api.Project;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Forwards the output of a submodule build to the Gradle logger, line by line.<p>
+ * Bytes are collected per line and decoded as UTF-8 once the line is complete, so characters split across writes
+ * come out intact. Lines longer than {@link #MAX_LINE_BYTES} are truncated, and complete lines are passed to the
+ * logger in batches instead of one call per line. A batch is passed on at the latest {@link #BATCH_NANOS} after its
+ * first line, even if no more output arrives, so a line before a long quiet phase is not held back. The same goes for
+ * a partial line that was flushed and stays incomplete that long. These timed drains run on a scheduler owned by the
+ * caller, usually the {@link GradleConnectionPool} of the build; without one, the batch is passed on at the end of
+ * every write instead. When the output would not be logged at all, it is not decoded.
+ */
 public class GradleOutputStream extends OutputStream {
+    /**
+     * The longest line that is kept, in bytes. Anything after it is dropped
+     */
+    public static final int MAX_LINE_BYTES = 16 * 1024;
+    /**
+     * The most lines passed to the logger in one call
+     */
+    public static final int BATCH_LINES = 64;
+    /**
+     * The longest time a complete line waits for its batch
+     */
+    private static final long BATCH_NANOS = 200_000_000L;
+
     private final Logger logger;
     private final boolean isError;
-    private final StringBuilder buffer = new StringBuilder();
+    private final boolean logLines;
+    private final OutputStream logFile;
+    private final ScheduledExecutorService scheduler;
+    private final ByteBuffer line = ByteBuffer.allocate(MAX_LINE_BYTES);
+    private final CharBuffer decoded = CharBuffer.allocate(MAX_LINE_BYTES);
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final StringBuilder batch = new StringBuilder();
+    private final byte[] singleByte = new byte[1];
+    private int batchLines;
+    private long batchStart;
+    // Counts the batches, so a drain scheduled for a batch that was already passed on does nothing
+    private long batchNumber;
+    // Counts the lines, so a drain scheduled for a partial line that was completed since does nothing
+    private long lineNumber;
+    private long partialDrainLine = -1;
+    private long droppedBytes;
+    private ScheduledFuture<?> batchDrain;
+    private ScheduledFuture<?> partialDrain;
 
     public GradleOutputStream(Project project, boolean isError) {
-        this.logger = project.getLogger();
+        this(project.getLogger(), isError, null, null);
+    }
+
+    /**
+     * @param logger The logger to forward lines to; standard output is logged at info, standard error at error
+     * @param isError If this is the standard error of the build
+     * @param logFile Receives the raw output instead of the logger, or null to only log. It may be shared by the
+     *                standard output and error of a build; errors are still logged as well
+     * @param scheduler Passes on the batches no further output completed in time, or null to pass them on after every
+     *                  write. It is not shut down when the stream is closed
+     */
+    public GradleOutputStream(Logger logger, boolean isError, @Nullable OutputStream logFile, @Nullable ScheduledExecutorService scheduler) {
+        this.logger = logger;
         this.isError = isError;
+        this.logFile = logFile;
+        this.scheduler = scheduler;
+        boolean enabled = isError ? logger.isErrorEnabled() : logger.isInfoEnabled();
+        this.logLines = enabled && (isError || logFile == null);
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        this.singleByte[0] = (byte) b;
+        write(this.singleByte, 0, 1);
     }
 
     @Override
-    public void write(int b) {
-        if (b == '\n') {
-            flush();
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (this.logFile != null) {
+            synchronized (this.logFile) {
+                this.logFile.write(b, off, len);
+            }
+        }
+        if (!this.logLines) {
+            return;
+        }
+        int end = off + len;
+        int start = off;
+        for (int i = off; i < end; i++) {
+            if (b[i] == '\n') {
+                append(b, start, i - start);
+                endLine(true);
+                start = i + 1;
+            }
+        }
+        append(b, start, end - start);
+        if (this.scheduler == null) {
+            flushBatch();
+        }
+    }
+
+    private void append(byte[] b, int off, int len) {
+        int kept = Math.min(len, this.line.remaining());
+        this.line.put(b, off, kept);
+        this.droppedBytes += len - kept;
+    }
+
+    /**
+     * Adds the buffered line to the batch
+     * @param complete False if the line is passed on before its end, when the stream is flushed
+     */
+    private void endLine(boolean complete) {
+        this.line.flip();
+        int length = this.line.limit();
+        if (length > 0 && this.line.get(length - 1) == '\r') {
+            this.line.limit(length - 1);
+        }
+        this.decoder.reset();
+        this.decoded.clear();
+        // A truncated or flushed line may end inside a character, which is left undecoded instead of becoming a replacement
+        if (complete && this.droppedBytes == 0) {
+            this.decoder.decode(this.line, this.decoded, true);
+            this.decoder.flush(this.decoded);
+        } else {
+            this.decoder.decode(this.line, this.decoded, false);
+        }
+        this.decoded.flip();
+        if (complete) {
+            this.line.clear();
+        } else {
+            // The rest of the character arrives with the next write
+            this.line.compact();
+        }
+
+        if (this.decoded.hasRemaining() || this.droppedBytes > 0) {
+            if (this.batchLines == 0) {
+                this.batchStart = System.nanoTime();
+                long batch = ++this.batchNumber;
+                if (this.scheduler != null) {
+                    this.batchDrain = this.scheduler.schedule(() -> drain(batch), BATCH_NANOS, TimeUnit.NANOSECONDS);
+                }
+            } else {
+                this.batch.append(System.lineSeparator());
+            }
+            this.batch.append(this.decoded);
+            if (this.droppedBytes > 0) {
+                this.batch.append(" [").append(this.droppedBytes).append(" bytes truncated]");
+            }
+            this.batchLines++;
+        }
+        this.droppedBytes = 0;
+        this.lineNumber++;
+
+        if (this.batchLines >= BATCH_LINES || (this.batchLines > 0 && System.nanoTime() - this.batchStart >= BATCH_NANOS)) {
+            flushBatch();
+        }
+    }
+
+    private synchronized void drain(long batch) {
+        if (this.batchNumber == batch) {
+            flushBatch();
+        }
+    }
+
+    private synchronized void drainPartial(long lineNumber) {
+        if (this.lineNumber == lineNumber && (this.line.position() > 0 || this.droppedBytes > 0)) {
+            endLine(false);
+            flushBatch();
+        }
+    }
+
+    private void flushBatch() {
+        if (this.batchLines == 0) {
+            return;
+        }
+        if (this.isError) {
+            this.logger.error(this.batch.toString());
         } else {
-            buffer.append((char) b);
+            this.logger.info(this.batch.toString());
         }
+        this.batch.setLength(0);
+        this.batchLines = 0;
+        cancel(this.batchDrain);
+        this.batchDrain = null;
     }
 
+    /**
+     * Passes every complete line to the logger. The part of a line written so far follows once it stayed incomplete
+     * for {@link #BATCH_NANOS}; the build flushes after every styled segment, so passing it on right away would split
+     * most lines
+     */
     @Override
-    public void flush() {
-        if (!buffer.isEmpty()) {
-            if (isError) {
-                logger.error(buffer.toString());
-            } else {
-                logger.info(buffer.toString());
+    public synchronized void flush() throws IOException {
+        if (this.scheduler != null && (this.line.position() > 0 || this.droppedBytes > 0) && this.partialDrainLine != this.lineNumber) {
+            long partialLine = this.lineNumber;
+            this.partialDrainLine = partialLine;
+            cancel(this.partialDrain);
+            this.partialDrain = this.scheduler.schedule(() -> drainPartial(partialLine), BATCH_NANOS, TimeUnit.NANOSECONDS);
+        }
+        flushBatch();
+        if (this.logFile != null) {
+            synchronized (this.logFile) {
+                this.logFile.flush();
+            }
+        }
+    }
+
+    /**
+     * Logs the remaining output, including an unterminated last line, and cancels the drains still pending. The log
+     * file is not closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.line.position() > 0 || this.droppedBytes > 0) {
+            endLine(true);
+        }
+        flushBatch();
+        if (this.logFile != null) {
+            synchronized (this.logFile) {
+                this.logFile.flush();
             }
-            buffer.setLength(0);
+        }
+        cancel(this.partialDrain);
+    }
+
+    private static void cancel(@Nullable ScheduledFuture<?> pending) {
+        if (pending != null) {
+            pending.cancel(false);
         }
     }
 }
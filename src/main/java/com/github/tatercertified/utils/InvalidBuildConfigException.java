@@ -0,0 +1,12 @@
+package com.github.tatercertified.utils;
+
+import org.gradle.api.GradleException;
+
+/**
+ * Thrown when the gradleConfig of the "multimc" block cannot be resolved
+ */
+public class InvalidBuildConfigException extends GradleException {
+    public InvalidBuildConfigException(String message) {
+        super(message);
+    }
+}
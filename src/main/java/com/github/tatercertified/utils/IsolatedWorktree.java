@@ -0,0 +1,182 @@
+package com.github.tatercertified.utils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * A scratch copy of a loader subproject and the common subprojects, so one version can be preprocessed and built
+ * without touching the working tree or any other version being built at the same time.<p>
+ * The layout relative to the root project is kept, so relative paths between the subprojects still resolve.
+ * Files that get rewritten (gradle.properties and sources with version markers) are copied, everything else is hardlinked.
+ * A loader that is a subproject of the root build gets the rest of the root build mirrored next to it.
+ */
+public final class IsolatedWorktree {
+    private static final Set<String> SKIPPED_DIRS = Set.of("build", ".gradle", ".git");
+    private static final List<String> SETTINGS_FILES = List.of("settings.gradle", "settings.gradle.kts");
+    private static final List<String> BUILD_SCRIPTS = List.of("build.gradle", "build.gradle.kts");
+    private static final List<String> ROOT_FILES = List.of("build.gradle", "build.gradle.kts", "settings.gradle", "settings.gradle.kts", "gradle.properties");
+    // The wrapper and version catalogs, the build logic, and the sources of the root project itself
+    private static final List<String> ROOT_DIRS = List.of("gradle", "buildSrc", "src");
+
+    private IsolatedWorktree() {
+    }
+
+    /**
+     * Creates or refreshes a worktree. Build output of a previous run of the same worktree is kept
+     * @param rootDir The root project directory
+     * @param worktree The directory of the worktree
+     * @param modules The loader subproject directory followed by the common subproject directories
+     * @param copiedFiles Files that must not be hardlinked because they will be rewritten
+     * @return Every module directory mapped to its copy in the worktree
+     */
+    public static Map<Path, Path> create(Path rootDir, Path worktree, List<Path> modules, Set<Path> copiedFiles) {
+        Map<Path, Path> mirrored = new LinkedHashMap<>();
+        try {
+            for (Path module : modules) {
+                Path target = worktree.resolve(module.startsWith(rootDir) ? rootDir.relativize(module) : module.getFileName());
+                clean(target);
+                mirror(module, target, copiedFiles);
+                mirrored.put(module, target);
+            }
+
+            // A loader without its own settings file is part of the root build, so the root build is mirrored too
+            Path loader = modules.get(0);
+            if (SETTINGS_FILES.stream().noneMatch(name -> Files.exists(loader.resolve(name)))) {
+                mirrorRootBuild(rootDir, worktree, mirrored.keySet(), copiedFiles);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return mirrored;
+    }
+
+    /**
+     * Mirrors the parts of the root build the modules do not cover: the root build scripts, settings and gradle.properties,
+     * the {@link #ROOT_DIRS}, and every other project the settings may include, found as the directories with a build
+     * script of their own. Hidden directories, build output and the directory holding the worktree are not searched
+     */
+    private static void mirrorRootBuild(Path rootDir, Path worktree, Set<Path> modules, Set<Path> copiedFiles) throws IOException {
+        for (String name : ROOT_FILES) {
+            Path rootFile = rootDir.resolve(name);
+            if (Files.isRegularFile(rootFile)) {
+                Files.copy(rootFile, worktree.resolve(name), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.deleteIfExists(worktree.resolve(name));
+            }
+        }
+        for (String name : ROOT_DIRS) {
+            Path target = worktree.resolve(name);
+            delete(target);
+            if (Files.isDirectory(rootDir.resolve(name))) {
+                mirror(rootDir.resolve(name), target, copiedFiles);
+            }
+        }
+
+        Files.walkFileTree(rootDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.equals(rootDir)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                String name = dir.getFileName().toString();
+                if (SKIPPED_DIRS.contains(name) || name.startsWith(".") || modules.contains(dir) || worktree.startsWith(dir)
+                        || (dir.getParent().equals(rootDir) && ROOT_DIRS.contains(name))) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (BUILD_SCRIPTS.stream().anyMatch(script -> Files.isRegularFile(dir.resolve(script)))) {
+                    Path target = worktree.resolve(rootDir.relativize(dir));
+                    clean(target);
+                    mirror(dir, target, copiedFiles);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Maps a file of a module to the same file inside the worktree
+     * @param modules The result of {@link #create(Path, Path, List, Set)}
+     * @param file A file inside one of the modules
+     * @return The path of the file in the worktree
+     */
+    public static Path resolve(Map<Path, Path> modules, Path file) {
+        for (Map.Entry<Path, Path> module : modules.entrySet()) {
+            if (file.startsWith(module.getKey())) {
+                return module.getValue().resolve(module.getKey().relativize(file));
+            }
+        }
+        throw new IllegalArgumentException(file + " is not part of the worktree");
+    }
+
+    /**
+     * Removes everything from a mirrored module except its build output
+     */
+    private static void clean(Path target) throws IOException {
+        if (!Files.isDirectory(target)) {
+            return;
+        }
+        try (Stream<Path> children = Files.list(target)) {
+            for (Path child : children.toList()) {
+                if (!SKIPPED_DIRS.contains(child.getFileName().toString())) {
+                    delete(child);
+                }
+            }
+        }
+    }
+
+    private static void mirror(Path module, Path target, Set<Path> copiedFiles) throws IOException {
+        Files.walkFileTree(module, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.getParent() != null && dir.getParent().equals(module) && SKIPPED_DIRS.contains(dir.getFileName().toString())) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                Files.createDirectories(target.resolve(module.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path targetFile = target.resolve(module.relativize(file));
+                if (copiedFiles.contains(file) || file.getFileName().toString().equals("gradle.properties")) {
+                    Files.copy(file, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                } else {
+                    try {
+                        Files.createLink(targetFile, file);
+                    } catch (IOException | UnsupportedOperationException e) {
+                        // Different file stores or no hardlink support
+                        Files.copy(file, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Recursively deletes a file or directory
+     * @param path The file or directory
+     */
+    public static void delete(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        Files.walkFileTree(path, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,64 @@
+package com.github.tatercertified.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Checks if two jars have the same contents, apart from the version range in their mod config.<p>
+ * Entries are compared by name, CRC and size from the central directories. Only the mod config is inflated, and only
+ * when its CRC differs, so comparing two jars reads little more than their directories.
+ */
+public final class JarComparator {
+    private JarComparator() {
+    }
+
+    /**
+     * Compares two jars
+     * @param first A jar
+     * @param second Another jar
+     * @param configEntry The path of the mod config inside the jars
+     * @param normalizeFirst Replaces what is version specific in the mod config of the first jar (ex: its version range)
+     * @param normalizeSecond Replaces what is version specific in the mod config of the second jar
+     * @return True if every entry is identical, and the mod configs are identical once normalized
+     */
+    public static boolean identical(Path first, Path second, String configEntry, UnaryOperator<String> normalizeFirst, UnaryOperator<String> normalizeSecond) {
+        Map<String, JarDirectory.Entry> firstEntries = JarDirectory.read(first);
+        Map<String, JarDirectory.Entry> secondEntries = JarDirectory.read(second);
+        if (!firstEntries.keySet().equals(secondEntries.keySet())) {
+            return false;
+        }
+        for (JarDirectory.Entry entry : firstEntries.values()) {
+            if (!entry.name().equals(configEntry) && !entry.sameContents(secondEntries.get(entry.name()))) {
+                return false;
+            }
+        }
+        JarDirectory.Entry firstConfig = firstEntries.get(configEntry);
+        if (firstConfig == null || firstConfig.sameContents(secondEntries.get(configEntry))) {
+            return true;
+        }
+        return normalizeFirst.apply(readText(first, configEntry)).equals(normalizeSecond.apply(readText(second, configEntry)));
+    }
+
+    /**
+     * Reads a text entry of a jar
+     * @param jar The jar to read
+     * @param entryName The entry name
+     * @return The contents of the entry (UTF-8)
+     */
+    public static String readText(Path jar, String entryName) {
+        try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+            ZipEntry entry = zipFile.getEntry(entryName);
+            try (InputStream input = zipFile.getInputStream(entry)) {
+                return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
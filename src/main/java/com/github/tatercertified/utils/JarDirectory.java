@@ -0,0 +1,56 @@
+package com.github.tatercertified.utils;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the central directory of a jar. Only the directory at the end of the file is read, no entry is inflated
+ */
+public final class JarDirectory {
+    private JarDirectory() {
+    }
+
+    /**
+     * Lists the file entries of a jar
+     * @param jar The jar to read
+     * @return Every entry that is not a directory, by name, in directory order
+     */
+    public static Map<String, Entry> read(Path jar) {
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+            Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+            while (enumeration.hasMoreElements()) {
+                ZipEntry entry = enumeration.nextElement();
+                if (!entry.isDirectory()) {
+                    entries.put(entry.getName(), new Entry(entry.getName(), entry.getCrc(), entry.getSize(), entry.getCompressedSize()));
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return entries;
+    }
+
+    /**
+     * A central directory record
+     * @param name The entry name
+     * @param crc The CRC-32 of the uncompressed data
+     * @param size The uncompressed size
+     * @param compressedSize The size of the entry's data in the jar
+     */
+    public record Entry(String name, long crc, long size, long compressedSize) {
+        /**
+         * Two entries with the same name, CRC and size are treated as identical, without comparing their contents
+         * @param other Another entry
+         * @return True if both entries have the same contents
+         */
+        public boolean sameContents(Entry other) {
+            return this.crc == other.crc && this.size == other.size;
+        }
+    }
+}
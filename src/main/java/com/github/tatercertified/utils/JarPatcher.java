@@ -0,0 +1,339 @@
+package com.github.tatercertified.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.UnaryOperator;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.*;
+
+/**
+ * Rewrites a single text entry of a jar.<p>
+ * All other entries are copied with their compressed data, CRC, timestamps and compression method untouched,
+ * so nothing but the patched entry is inflated or deflated.
+ */
+public final class JarPatcher {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int DATA_DESCRIPTOR = 0x08074b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int DATA_DESCRIPTOR_FLAG = 0x08;
+
+    private JarPatcher() {
+    }
+
+    /**
+     * Replaces the contents of a text entry
+     * @param jarPath The jar to modify
+     * @param entryName The name of the entry to rewrite
+     * @param patch Produces the new contents of the entry from the old ones (UTF-8)
+     * @return True if the entry was found
+     */
+    public static boolean patchEntry(Path jarPath, String entryName, UnaryOperator<String> patch) throws IOException {
+        Path tempJar = Files.createTempFile(jarPath.toAbsolutePath().getParent(), "modified-", ".jar");
+        boolean found;
+        try {
+            found = patchEntry(jarPath, tempJar, entryName, patch);
+        } catch (ZipException e) {
+            // Zip64 and other archives this patcher does not understand are re-encoded instead
+            found = patchEntryByCopy(jarPath, tempJar, entryName, patch);
+        }
+        if (found) {
+            Files.move(tempJar, jarPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            Files.delete(tempJar);
+        }
+        return found;
+    }
+
+    /**
+     * Replaces the contents of a text entry, copying every other entry without recompressing it
+     * @param jarPath The jar to read
+     * @param output Where to write the modified jar
+     * @param entryName The name of the entry to rewrite
+     * @param patch Produces the new contents of the entry from the old ones (UTF-8)
+     * @return True if the entry was found
+     * @throws ZipException If the jar uses features that cannot be copied verbatim, such as Zip64
+     */
+    public static boolean patchEntry(Path jarPath, Path output, String entryName, UnaryOperator<String> patch) throws IOException {
+        try (FileChannel in = FileChannel.open(jarPath, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer end = readEndOfCentralDirectory(in);
+            int entryCount = Short.toUnsignedInt(end.getShort(10));
+            long centralDirectorySize = Integer.toUnsignedLong(end.getInt(12));
+            long centralDirectoryOffset = Integer.toUnsignedLong(end.getInt(16));
+            if (entryCount == 0xFFFF || centralDirectorySize == 0xFFFFFFFFL || centralDirectoryOffset == 0xFFFFFFFFL) {
+                throw new ZipException("Zip64 archives are not supported");
+            }
+
+            ByteBuffer centralDirectory = read(in, centralDirectoryOffset, (int) centralDirectorySize);
+            List<CentralEntry> entries = new ArrayList<>(entryCount);
+            int position = 0;
+            for (int i = 0; i < entryCount; i++) {
+                if (centralDirectory.getInt(position) != CENTRAL_HEADER) {
+                    throw new ZipException("Invalid central directory entry");
+                }
+                int length = CENTRAL_HEADER_SIZE + Short.toUnsignedInt(centralDirectory.getShort(position + 28))
+                        + Short.toUnsignedInt(centralDirectory.getShort(position + 30))
+                        + Short.toUnsignedInt(centralDirectory.getShort(position + 32));
+                entries.add(new CentralEntry(slice(centralDirectory, position, length)));
+                position += length;
+            }
+
+            // Entries are written back in the order their data appears in the original file
+            List<CentralEntry> byOffset = new ArrayList<>(entries);
+            byOffset.sort(Comparator.comparingLong(CentralEntry::localOffset));
+            boolean found = false;
+            for (CentralEntry entry : byOffset) {
+                long newOffset = out.position();
+                if (!found && entry.name().equals(entryName)) {
+                    found = true;
+                    writePatchedEntry(in, out, entry, patch);
+                } else {
+                    copyRawEntry(in, out, entry);
+                }
+                entry.header.putInt(42, (int) newOffset);
+            }
+            if (out.position() >= 0xFFFFFFFFL) {
+                throw new ZipException("Patched archive needs Zip64");
+            }
+
+            long newCentralDirectoryOffset = out.position();
+            for (CentralEntry entry : entries) {
+                entry.header.rewind();
+                writeFully(out, entry.header);
+            }
+            long newCentralDirectorySize = out.position() - newCentralDirectoryOffset;
+            end.putInt(12, (int) newCentralDirectorySize);
+            end.putInt(16, (int) newCentralDirectoryOffset);
+            end.rewind();
+            writeFully(out, end);
+            return found;
+        }
+    }
+
+    private static void copyRawEntry(FileChannel in, FileChannel out, CentralEntry entry) throws IOException {
+        long localOffset = entry.localOffset();
+        ByteBuffer localHeader = read(in, localOffset, LOCAL_HEADER_SIZE);
+        if (localHeader.getInt(0) != LOCAL_HEADER) {
+            throw new ZipException("Invalid local header for " + entry.name());
+        }
+        long length = LOCAL_HEADER_SIZE + Short.toUnsignedInt(localHeader.getShort(26))
+                + Short.toUnsignedInt(localHeader.getShort(28)) + entry.compressedSize();
+        if ((entry.flags() & DATA_DESCRIPTOR_FLAG) != 0) {
+            // The descriptor may or may not start with a signature
+            ByteBuffer descriptor = read(in, localOffset + length, 4);
+            length += descriptor.getInt(0) == DATA_DESCRIPTOR ? 16 : 12;
+        }
+        long copied = 0;
+        while (copied < length) {
+            copied += in.transferTo(localOffset + copied, length - copied, out);
+        }
+    }
+
+    private static void writePatchedEntry(FileChannel in, FileChannel out, CentralEntry entry, UnaryOperator<String> patch) throws IOException {
+        ByteBuffer localHeader = read(in, entry.localOffset(), LOCAL_HEADER_SIZE);
+        long dataOffset = entry.localOffset() + LOCAL_HEADER_SIZE + Short.toUnsignedInt(localHeader.getShort(26))
+                + Short.toUnsignedInt(localHeader.getShort(28));
+        byte[] compressed = new byte[(int) entry.compressedSize()];
+        ByteBuffer compressedBuffer = ByteBuffer.wrap(compressed);
+        while (compressedBuffer.hasRemaining()) {
+            if (in.read(compressedBuffer, dataOffset + compressedBuffer.position()) < 0) {
+                throw new ZipException("Truncated entry " + entry.name());
+            }
+        }
+
+        byte[] original = switch (entry.method()) {
+            case ZipEntry.STORED -> compressed;
+            case ZipEntry.DEFLATED -> inflate(compressed);
+            default -> throw new ZipException("Unsupported compression method for " + entry.name());
+        };
+        byte[] patched = patch.apply(new String(original, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+        byte[] deflated = deflate(patched);
+        CRC32 crc = new CRC32();
+        crc.update(patched);
+        byte[] name = entry.nameBytes();
+        int flags = entry.flags() & ~DATA_DESCRIPTOR_FLAG;
+
+        ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE + name.length).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(LOCAL_HEADER)
+                .putShort((short) 20)
+                .putShort((short) flags)
+                .putShort((short) ZipEntry.DEFLATED)
+                .putInt(entry.header.getInt(12)) // DOS time and date
+                .putInt((int) crc.getValue())
+                .putInt(deflated.length)
+                .putInt(patched.length)
+                .putShort((short) name.length)
+                .putShort((short) 0)
+                .put(name)
+                .flip();
+        writeFully(out, header);
+        writeFully(out, ByteBuffer.wrap(deflated));
+
+        // A stored entry may have needed 1.0, deflate needs 2.0 like the new local header says
+        entry.header.putShort(6, (short) Math.max(Short.toUnsignedInt(entry.header.getShort(6)), 20));
+        entry.header.putShort(8, (short) flags);
+        entry.header.putShort(10, (short) ZipEntry.DEFLATED);
+        entry.header.putInt(16, (int) crc.getValue());
+        entry.header.putInt(20, deflated.length);
+        entry.header.putInt(24, patched.length);
+    }
+
+    private static byte[] inflate(byte[] compressed) throws IOException {
+        Inflater inflater = new Inflater(true);
+        try (InputStream stream = new InflaterInputStream(new ByteArrayInputStream(compressed), inflater)) {
+            return stream.readAllBytes();
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int written = deflater.deflate(buffer);
+                output.write(buffer, 0, written);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static ByteBuffer readEndOfCentralDirectory(FileChannel in) throws IOException {
+        long size = in.size();
+        // The record is followed by a comment of at most 65535 bytes
+        int tailLength = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF);
+        ByteBuffer tail = read(in, size - tailLength, tailLength);
+        for (int position = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; position >= 0; position--) {
+            if (tail.getInt(position) == END_OF_CENTRAL_DIRECTORY) {
+                int commentLength = Short.toUnsignedInt(tail.getShort(position + 20));
+                if (position + END_OF_CENTRAL_DIRECTORY_SIZE + commentLength == tailLength) {
+                    return slice(tail, position, tailLength - position);
+                }
+            }
+        }
+        throw new ZipException("End of central directory not found");
+    }
+
+    private static ByteBuffer read(FileChannel in, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer, position + buffer.position()) < 0) {
+                throw new ZipException("Unexpected end of archive");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        ByteBuffer copy = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        copy.put(buffer.duplicate().position(position).limit(position + length));
+        return copy.flip();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * A central directory record, kept as raw bytes so it can be written back with only the offset changed
+     */
+    private record CentralEntry(ByteBuffer header) {
+        int flags() {
+            return Short.toUnsignedInt(this.header.getShort(8));
+        }
+
+        int method() {
+            return Short.toUnsignedInt(this.header.getShort(10));
+        }
+
+        long compressedSize() {
+            return Integer.toUnsignedLong(this.header.getInt(20));
+        }
+
+        long localOffset() {
+            return Integer.toUnsignedLong(this.header.getInt(42));
+        }
+
+        byte[] nameBytes() {
+            byte[] name = new byte[Short.toUnsignedInt(this.header.getShort(28))];
+            this.header.duplicate().position(CENTRAL_HEADER_SIZE).get(name);
+            return name;
+        }
+
+        String name() {
+            return new String(nameBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Replaces the contents of a text entry by inflating and deflating every entry of the jar
+     * @param jarPath The jar to read
+     * @param output Where to write the modified jar
+     * @param entryName The name of the entry to rewrite
+     * @param patch Produces the new contents of the entry from the old ones (UTF-8)
+     * @return True if the entry was found
+     */
+    public static boolean patchEntryByCopy(Path jarPath, Path output, String entryName, UnaryOperator<String> patch) throws IOException {
+        boolean found = false;
+        try (JarFile jarFile = new JarFile(jarPath.toFile());
+             JarOutputStream jos = new JarOutputStream(Files.newOutputStream(output))) {
+
+            byte[] buffer = new byte[8192];
+
+            for (JarEntry entry : jarFile.stream().toList()) {
+                String name = entry.getName();
+
+                // Replace the config file
+                if (name.equals(entryName)) {
+                    found = true;
+                    String original;
+                    try (InputStream is = jarFile.getInputStream(entry)) {
+                        original = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+                    }
+                    jos.putNextEntry(new JarEntry(name));
+                    jos.write(patch.apply(original).getBytes(StandardCharsets.UTF_8));
+                    jos.closeEntry();
+                    continue;
+                }
+
+                // Copy other entries
+                jos.putNextEntry(new JarEntry(name));
+                try (InputStream is = jarFile.getInputStream(entry)) {
+                    int read;
+                    while ((read = is.read(buffer)) != -1) {
+                        jos.write(buffer, 0, read);
+                    }
+                }
+                jos.closeEntry();
+            }
+        }
+        return found;
+    }
+}
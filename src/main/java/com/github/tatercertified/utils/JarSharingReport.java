@@ -0,0 +1,116 @@
+package com.github.tatercertified.utils;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Reports how much of the per-version jars of each loader is identical, which is the size a combined artifact with a
+ * shared base would save.<p>
+ * Entries are compared by name, CRC and size from the central directories, so no jar is inflated. An entry is shared
+ * when every jar of the loader contains it with the same contents; the combined size counts each distinct entry once.
+ */
+public final class JarSharingReport {
+    /**
+     * The file name of the report in the output directory
+     */
+    public static final String REPORT_NAME = "multicompile-sharing.json";
+
+    private JarSharingReport() {
+    }
+
+    /**
+     * Writes the report
+     * @param outputDir The directory to write the report to
+     * @param jarsByLoader The final jars of each loader
+     */
+    public static void write(Path outputDir, Map<String, List<Path>> jarsByLoader) {
+        try (BufferedWriter writer = Files.newBufferedWriter(outputDir.resolve(REPORT_NAME))) {
+            writer.write("{\n  \"loaders\": [");
+            boolean firstLoader = true;
+            for (Map.Entry<String, List<Path>> loader : jarsByLoader.entrySet()) {
+                writer.write(firstLoader ? "\n" : ",\n");
+                firstLoader = false;
+                writeLoader(writer, loader.getKey(), loader.getValue());
+            }
+            writer.write(firstLoader ? "]\n" : "\n  ]\n");
+            writer.write("}\n");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void writeLoader(BufferedWriter writer, String loader, List<Path> jars) throws IOException {
+        List<Map<String, JarDirectory.Entry>> directories = new ArrayList<>();
+        for (Path jar : jars) {
+            directories.add(JarDirectory.read(jar));
+        }
+
+        // How many jars contain each distinct entry, with the compressed size of its first copy
+        Map<Identity, Occurrences> occurrences = new HashMap<>();
+        long totalBytes = 0;
+        for (Map<String, JarDirectory.Entry> directory : directories) {
+            for (JarDirectory.Entry entry : directory.values()) {
+                occurrences.computeIfAbsent(Identity.of(entry), identity -> new Occurrences(entry.compressedSize())).jars++;
+                totalBytes += entry.compressedSize();
+            }
+        }
+        long combinedBytes = 0;
+        long sharedEntries = 0;
+        long sharedBytes = 0;
+        for (Occurrences entry : occurrences.values()) {
+            combinedBytes += entry.compressedSize;
+            if (entry.jars == jars.size()) {
+                sharedEntries++;
+                sharedBytes += entry.compressedSize;
+            }
+        }
+
+        writer.write("    {\"loader\": " + BuildMetrics.quote(loader)
+                + ", \"jars\": " + jars.size()
+                + ", \"totalBytes\": " + totalBytes
+                + ", \"sharedEntries\": " + sharedEntries
+                + ", \"sharedBytes\": " + sharedBytes
+                + ", \"combinedBytes\": " + combinedBytes
+                + ", \"savableBytes\": " + (totalBytes - combinedBytes)
+                + ", \"perJar\": [");
+        for (int i = 0; i < jars.size(); i++) {
+            long specificEntries = 0;
+            long specificBytes = 0;
+            long bytes = 0;
+            for (JarDirectory.Entry entry : directories.get(i).values()) {
+                bytes += entry.compressedSize();
+                if (occurrences.get(Identity.of(entry)).jars < jars.size()) {
+                    specificEntries++;
+                    specificBytes += entry.compressedSize();
+                }
+            }
+            writer.write(i == 0 ? "\n" : ",\n");
+            writer.write("      {\"jar\": " + BuildMetrics.quote(jars.get(i).getFileName().toString())
+                    + ", \"bytes\": " + bytes
+                    + ", \"specificEntries\": " + specificEntries
+                    + ", \"specificBytes\": " + specificBytes + "}");
+        }
+        writer.write(jars.isEmpty() ? "]}" : "\n    ]}");
+    }
+
+    /**
+     * Entries are identical when name, CRC and size match, the compressed size may differ between builds
+     */
+    private record Identity(String name, long crc, long size) {
+        private static Identity of(JarDirectory.Entry entry) {
+            return new Identity(entry.name(), entry.crc(), entry.size());
+        }
+    }
+
+    private static class Occurrences {
+        private final long compressedSize;
+        private int jars;
+
+        private Occurrences(long compressedSize) {
+            this.compressedSize = compressedSize;
+        }
+    }
+}
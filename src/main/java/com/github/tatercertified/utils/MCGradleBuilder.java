@@ -2,16 +2,11 @@ package com.github.tatercertified.utils;
 
 import org.jetbrains.annotations.ApiStatus;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.TreeMap;
+import java.util.*;
 import java.util.function.Consumer;
 
 public class MCGradleBuilder {
-    private final SemverComparator comparator = new SemverComparator();
-    private final TreeMap<String, HashMap<String, String>> dependencies = new TreeMap<>(comparator);
-    private final List<DependencyBuilder> previousBuilders = new ArrayList<>();
+    private final Map<String, DependencyBuilder> builders = new LinkedHashMap<>();
 
     /**
      * Allows specifying a Minecraft version which is supported by this mod and will be compiled for
@@ -21,19 +16,70 @@ public class MCGradleBuilder {
     public MCGradleBuilder mcVer(String version, Consumer<DependencyBuilder> deps) {
         DependencyBuilder builder = new DependencyBuilder(version);
         deps.accept(builder);
-        HashMap<String, String> result = builder.build();
-        this.dependencies.put(version, result);
-        if (builder.shouldSave()) {
-            this.previousBuilders.add(builder);
+        if (this.builders.put(version, builder) != null) {
+            throw new InvalidBuildConfigException(version + " is declared more than once");
         }
         return this;
     }
 
+    /**
+     * Resolves the overrides of every version. Versions are resolved after the versions they copy from, whatever the
+     * declaration order, and versions that resolve to the same overrides share one map
+     * @return Unmodifiable overrides by version, in version order; a null value excludes the variable
+     * @throws InvalidBuildConfigException If a version copies from an undeclared version, or versions copy from each other in a cycle
+     */
     @ApiStatus.Internal
-    public TreeMap<String, HashMap<String, String>> build() {
-        for (DependencyBuilder builder : this.previousBuilders) {
-            builder.buildCopies(this.dependencies);
+    public SortedMap<String, Map<String, String>> build() {
+        Map<String, Map<String, String>> resolved = new HashMap<>();
+        Map<Map<String, String>, Map<String, String>> shared = new HashMap<>();
+        for (String version : resolutionOrder()) {
+            Map<String, String> overrides = new TreeMap<>();
+            for (DependencyBuilder.Operation operation : this.builders.get(version).getOperations()) {
+                operation.apply(overrides, resolved, version);
+            }
+            resolved.put(version, shared.computeIfAbsent(overrides, Collections::unmodifiableMap));
+        }
+        TreeMap<String, Map<String, String>> dependencies = new TreeMap<>(new SemverComparator());
+        dependencies.putAll(resolved);
+        return Collections.unmodifiableSortedMap(dependencies);
+    }
+
+    /**
+     * Sorts the versions so every version comes after the versions it copies from
+     */
+    private List<String> resolutionOrder() {
+        List<String> order = new ArrayList<>(this.builders.size());
+        Set<String> done = new HashSet<>();
+        // Versions being visited, in visiting order, to report the cycle
+        LinkedHashSet<String> visiting = new LinkedHashSet<>();
+        for (String version : this.builders.keySet()) {
+            visit(version, done, visiting, order);
+        }
+        return order;
+    }
+
+    private void visit(String version, Set<String> done, LinkedHashSet<String> visiting, List<String> order) {
+        if (done.contains(version)) {
+            return;
+        }
+        if (!visiting.add(version)) {
+            List<String> cycle = new ArrayList<>(visiting);
+            cycle = new ArrayList<>(cycle.subList(cycle.indexOf(version), cycle.size()));
+            cycle.add(version);
+            throw new InvalidBuildConfigException("Versions copy from each other in a cycle: " + String.join(" -> ", cycle));
+        }
+        for (DependencyBuilder.Operation operation : this.builders.get(version).getOperations()) {
+            String source = operation.source();
+            if (source == null) {
+                continue;
+            }
+            if (!this.builders.containsKey(source)) {
+                throw new InvalidBuildConfigException(version + " copies from " + source + ", which is not declared");
+            }
+            visit(source, done, visiting, order);
         }
-        return this.dependencies;
+        visiting.remove(version);
+        done.add(version);
+        order.add(version);
     }
 }
@@ -0,0 +1,187 @@
+package com.github.tatercertified.utils;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent index of the version markers in a source tree.<p>
+ * Each file is keyed by its path, size, modification time and content hash, so files that did not change since the
+ * last run are never opened, and files without markers can be skipped entirely when switching versions.
+ */
+public class MarkerIndex {
+    private static final int FORMAT_VERSION = 2;
+    private static final SourcePreprocessor.Kind[] KINDS = SourcePreprocessor.Kind.values();
+
+    private final Path indexFile;
+    private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+    private final Set<Path> seen = ConcurrentHashMap.newKeySet();
+
+    private MarkerIndex(Path indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Loads an index from disk. A missing or unreadable index results in an empty one
+     * @param indexFile The file the index is stored in
+     * @return MarkerIndex
+     */
+    public static MarkerIndex load(Path indexFile) {
+        MarkerIndex index = new MarkerIndex(indexFile);
+        if (!Files.isRegularFile(indexFile)) {
+            return index;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (in.readInt() != FORMAT_VERSION) {
+                return index;
+            }
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                Path path = Path.of(in.readUTF());
+                long size = in.readLong();
+                long modified = in.readLong();
+                byte[] hash = new byte[in.readUnsignedByte()];
+                in.readFully(hash);
+                int markerCount = in.readInt();
+                List<SourcePreprocessor.Marker> markers = new ArrayList<>(markerCount);
+                for (int j = 0; j < markerCount; j++) {
+                    int offset = in.readInt();
+                    int line = in.readInt();
+                    SourcePreprocessor.Kind kind = KINDS[in.readUnsignedByte()];
+                    String range = in.readBoolean() ? in.readUTF() : null;
+                    markers.add(new SourcePreprocessor.Marker(offset, line, kind, range));
+                }
+                index.entries.put(path, new Entry(size, modified, hash, List.copyOf(markers)));
+            }
+        } catch (IOException | RuntimeException e) {
+            // A corrupt index is simply rebuilt, whether it is cut off or holds counts and kinds that make no sense
+            index.entries.clear();
+        }
+        return index;
+    }
+
+    /**
+     * Brings the index up to date for a set of files. Only files that changed since they were last indexed are read
+     * @param sourceFiles The files to check, in order
+     * @return The files that contain at least one version marker, in the same order
+     */
+    public List<Path> refresh(List<Path> sourceFiles) {
+        return sourceFiles.parallelStream()
+                .filter(file -> !refresh(file).markers().isEmpty())
+                .toList();
+    }
+
+    private Entry refresh(Path file) {
+        this.seen.add(file);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long modified = attributes.lastModifiedTime().toMillis();
+            Entry entry = this.entries.get(file);
+            if (entry != null && entry.size() == attributes.size() && entry.modified() == modified) {
+                return entry;
+            }
+
+            byte[] contents = Files.readAllBytes(file);
+            byte[] hash = hash(contents);
+            if (entry != null && Arrays.equals(entry.hash(), hash)) {
+                // Touched but not changed
+                entry = new Entry(contents.length, modified, hash, entry.markers());
+            } else {
+                entry = new Entry(contents.length, modified, hash, List.copyOf(SourcePreprocessor.findMarkers(contents)));
+            }
+            this.entries.put(file, entry);
+            return entry;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Records new contents written to an indexed file
+     * @param file The file that was written
+     * @param contents The new contents of the file
+     */
+    public void update(Path file, byte[] contents) {
+        this.seen.add(file);
+        try {
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            this.entries.put(file, new Entry(contents.length, modified, hash(contents), List.copyOf(SourcePreprocessor.findMarkers(contents))));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Forgets a file that was deleted
+     * @param file The file
+     */
+    public void remove(Path file) {
+        this.entries.remove(file);
+        this.seen.remove(file);
+    }
+
+    /**
+     * Gets the markers of an indexed file
+     * @param file The file
+     * @return The markers in file order, or null if the file is not indexed
+     */
+    public @Nullable List<SourcePreprocessor.Marker> getMarkers(Path file) {
+        Entry entry = this.entries.get(file);
+        return entry == null ? null : entry.markers();
+    }
+
+    /**
+     * Writes the index to disk. Files that were not seen since the index was loaded are dropped
+     */
+    public void save() {
+        this.entries.keySet().retainAll(this.seen);
+        try {
+            Files.createDirectories(this.indexFile.getParent());
+            Path tempFile = this.indexFile.resolveSibling(this.indexFile.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(this.entries.size());
+                for (Map.Entry<Path, Entry> mapEntry : this.entries.entrySet()) {
+                    Entry entry = mapEntry.getValue();
+                    out.writeUTF(mapEntry.getKey().toString());
+                    out.writeLong(entry.size());
+                    out.writeLong(entry.modified());
+                    out.writeByte(entry.hash().length);
+                    out.write(entry.hash());
+                    out.writeInt(entry.markers().size());
+                    for (SourcePreprocessor.Marker marker : entry.markers()) {
+                        out.writeInt(marker.offset());
+                        out.writeInt(marker.line());
+                        out.writeByte(marker.kind().ordinal());
+                        out.writeBoolean(marker.range() != null);
+                        if (marker.range() != null) {
+                            out.writeUTF(marker.range());
+                        }
+                    }
+                }
+            }
+            Files.move(tempFile, this.indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] hash(byte[] contents) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(contents);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private record Entry(long size, long modified, byte[] hash, List<SourcePreprocessor.Marker> markers) {
+    }
+}
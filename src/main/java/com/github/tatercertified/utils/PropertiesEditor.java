@@ -0,0 +1,232 @@
+package com.github.tatercertified.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+
+/**
+ * Applies overrides to a gradle.properties file without rewriting it through {@link java.util.Properties}.<p>
+ * Only the values of the overridden keys are replaced; comments, ordering, line endings and the formatting of every
+ * other line are kept as they are. A key that already has the requested value is left untouched, so a file whose
+ * overrides did not change is not written at all and keeps its modification time.
+ */
+public final class PropertiesEditor {
+    private PropertiesEditor() {
+    }
+
+    /**
+     * Applies overrides to the properties a file already declares, replacing the file atomically if anything changed
+     * @param file The gradle.properties file
+     * @param overrides The new value of each key; a null value removes the key
+     * @return True if the file was written
+     */
+    public static boolean apply(Path file, Map<String, String> overrides) {
+        return apply(file, file, overrides);
+    }
+
+    /**
+     * Applies overrides to the properties another file declares and writes the result, replacing the file atomically
+     * if anything changed. Used to start every version from the original file, so a key an earlier version excluded
+     * is declared again
+     * @param original The file whose properties are edited
+     * @param file The gradle.properties file that is written
+     * @param overrides The new value of each key; a null value removes the key
+     * @return True if the file was written
+     */
+    public static boolean apply(Path original, Path file, Map<String, String> overrides) {
+        try {
+            // Properties files are ISO 8859-1, other characters are written as unicode escapes
+            String content = new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+            String source = original.equals(file) ? content : new String(Files.readAllBytes(original), StandardCharsets.ISO_8859_1);
+            String edited = edit(source, overrides);
+            if (edited.equals(content)) {
+                return false;
+            }
+            Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tempFile, edited.getBytes(StandardCharsets.ISO_8859_1));
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Applies overrides to the contents of a properties file
+     * @param content The contents of the file
+     * @param overrides The new value of each key; a null value removes the key. Keys the file does not declare are ignored
+     * @return The edited contents, equal to the input if no value changed
+     */
+    public static String edit(String content, Map<String, String> overrides) {
+        StringBuilder out = new StringBuilder(content.length() + 64);
+        int length = content.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineEnd(content, lineStart);
+            int next = skipTerminator(content, lineEnd);
+            int keyStart = skipWhitespace(content, lineStart, lineEnd);
+            if (keyStart == lineEnd || content.charAt(keyStart) == '#' || content.charAt(keyStart) == '!') {
+                // Blank lines and comments are never continued
+                out.append(content, lineStart, next);
+                lineStart = next;
+                continue;
+            }
+
+            // A logical line continues while a physical line ends with an odd number of backslashes
+            int logicalEnd = lineEnd;
+            int logicalNext = next;
+            int physicalStart = lineStart;
+            while (isContinued(content, physicalStart, logicalEnd) && logicalNext < length) {
+                physicalStart = logicalNext;
+                logicalEnd = lineEnd(content, logicalNext);
+                logicalNext = skipTerminator(content, logicalEnd);
+            }
+
+            int keyEnd = keyStart;
+            while (keyEnd < lineEnd) {
+                char c = content.charAt(keyEnd);
+                if (c == '\\') {
+                    keyEnd += 2;
+                } else if (c == '=' || c == ':' || c == ' ' || c == '\t' || c == '\f') {
+                    break;
+                } else {
+                    keyEnd++;
+                }
+            }
+            keyEnd = Math.min(keyEnd, lineEnd);
+            String key = unescape(content.substring(keyStart, keyEnd));
+            if (!overrides.containsKey(key)) {
+                out.append(content, lineStart, logicalNext);
+                lineStart = logicalNext;
+                continue;
+            }
+
+            String value = overrides.get(key);
+            if (value == null) {
+                // Excluded, the whole logical line is dropped
+                lineStart = logicalNext;
+                continue;
+            }
+            int valueStart = skipWhitespace(content, keyEnd, lineEnd);
+            if (valueStart < lineEnd && (content.charAt(valueStart) == '=' || content.charAt(valueStart) == ':')) {
+                valueStart = skipWhitespace(content, valueStart + 1, lineEnd);
+            }
+            if (value.equals(logicalValue(content, valueStart, logicalEnd))) {
+                out.append(content, lineStart, logicalNext);
+            } else {
+                out.append(content, lineStart, valueStart).append(escape(value)).append(content, logicalEnd, logicalNext);
+            }
+            lineStart = logicalNext;
+        }
+        return out.toString();
+    }
+
+    private static int lineEnd(String content, int from) {
+        while (from < content.length() && content.charAt(from) != '\n' && content.charAt(from) != '\r') {
+            from++;
+        }
+        return from;
+    }
+
+    private static int skipTerminator(String content, int lineEnd) {
+        if (lineEnd < content.length() && content.charAt(lineEnd) == '\r') {
+            lineEnd++;
+        }
+        if (lineEnd < content.length() && content.charAt(lineEnd) == '\n') {
+            lineEnd++;
+        }
+        return lineEnd;
+    }
+
+    private static int skipWhitespace(String content, int from, int to) {
+        while (from < to && (content.charAt(from) == ' ' || content.charAt(from) == '\t' || content.charAt(from) == '\f')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean isContinued(String content, int from, int lineEnd) {
+        int backslashes = 0;
+        for (int i = lineEnd - 1; i >= from && content.charAt(i) == '\\'; i--) {
+            backslashes++;
+        }
+        return (backslashes & 1) == 1;
+    }
+
+    /**
+     * Joins the physical lines of a value and resolves its escapes
+     */
+    private static String logicalValue(String content, int valueStart, int logicalEnd) {
+        StringBuilder raw = new StringBuilder();
+        int start = valueStart;
+        while (start <= logicalEnd) {
+            int end = Math.min(lineEnd(content, start), logicalEnd);
+            if (end < logicalEnd) {
+                // Drop the continuation backslash and the leading whitespace of the next line
+                raw.append(content, start, end - 1);
+                start = skipWhitespace(content, skipTerminator(content, end), logicalEnd);
+            } else {
+                raw.append(content, start, end);
+                break;
+            }
+        }
+        return unescape(raw.toString());
+    }
+
+    private static String unescape(String raw) {
+        if (raw.indexOf('\\') < 0) {
+            return raw;
+        }
+        StringBuilder builder = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            if (c != '\\' || i + 1 == raw.length()) {
+                builder.append(c);
+                continue;
+            }
+            c = raw.charAt(++i);
+            switch (c) {
+                case 't' -> builder.append('\t');
+                case 'n' -> builder.append('\n');
+                case 'r' -> builder.append('\r');
+                case 'f' -> builder.append('\f');
+                case 'u' -> {
+                    if (i + 4 < raw.length()) {
+                        builder.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    } else {
+                        builder.append(c);
+                    }
+                }
+                default -> builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String escape(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\' -> builder.append("\\\\");
+                case '\t' -> builder.append("\\t");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\f' -> builder.append("\\f");
+                case ' ' -> builder.append(i == 0 ? "\\ " : " ");
+                default -> {
+                    if (c < 0x20 || c > 0xFF) {
+                        builder.append(String.format("\\u%04X", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+                }
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -1,29 +1,98 @@
 package com.github.tatercertified.utils;
 
 import org.gradle.api.Project;
+import org.gradle.api.logging.Logger;
 import org.gradle.tooling.*;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 public class RemoteGradleRunner {
     public static boolean runBuildOnSubmodule(File subprojectDir, Project project) {
-        try (ProjectConnection connection = GradleConnector.newConnector()
-                .forProjectDirectory(subprojectDir)
-                .connect()) {
-            connection.newBuild()
-                    .forTasks("build")
-                    .setStandardOutput(new GradleOutputStream(project, false))
-                    .setStandardError(new GradleOutputStream(project, true))
-                    .run();
-        } catch (GradleConnectionException ignored) {
-            return false;
+        try (GradleConnectionPool pool = new GradleConnectionPool(List.of("build"), List.of(), List.of())) {
+            return runBuildOnSubmodule(subprojectDir, project.getLogger(), pool, subprojectDir.getName(), List.of(), null, null).succeeded();
         }
-        return true;
+    }
+
+    /**
+     * Builds a submodule using a pooled connection
+     * @param subprojectDir The submodule directory
+     * @param logger The logger the build output and timing are reported to
+     * @param pool The connection pool of the running task
+     * @param label Describes the build in the timing output (ex: "fabric 1.21.7")
+     * @param extraArguments Arguments for this build only
+     * @param logFile Where the build output is written instead of the Gradle logger, or null to log it
+     * @param cancellationToken Cancels the build, or null
+     * @return How the build ended. Failing to connect or to run the build counts as a failed build
+     */
+    public static BuildOutcome runBuildOnSubmodule(File subprojectDir, Logger logger, GradleConnectionPool pool, String label, List<String> extraArguments, @Nullable Path logFile, @Nullable CancellationToken cancellationToken) {
+        long start = System.nanoTime();
+        try (OutputStream log = logFile == null ? null : openLogFile(logFile);
+             GradleOutputStream stdout = new GradleOutputStream(logger, false, log, pool.getOutputDrain());
+             GradleOutputStream stderr = new GradleOutputStream(logger, true, log, pool.getOutputDrain())) {
+            BuildLauncher launcher = pool.newBuild(subprojectDir, extraArguments)
+                    .setStandardOutput(stdout)
+                    .setStandardError(stderr);
+            if (cancellationToken != null) {
+                launcher.withCancellationToken(cancellationToken);
+            }
+            launcher.run();
+        } catch (BuildCancelledException e) {
+            return new BuildOutcome(BuildOutcome.Status.CANCELLED, "Cancelled");
+        } catch (GradleConnectionException | IllegalStateException e) {
+            // Build failures, unsupported Gradle versions and broken connections are all reported the same way
+            String message = describe(e);
+            if (logFile != null) {
+                logger.error("Build of {} failed, see {}", label, logFile);
+            }
+            return new BuildOutcome(BuildOutcome.Status.FAILED, message);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            logger.lifecycle("Build of {} took {} ms", label, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        return new BuildOutcome(BuildOutcome.Status.SUCCEEDED, null);
+    }
+
+    /**
+     * The innermost message of a failure, which is where the tooling API puts the actual build error
+     */
+    private static String describe(Throwable failure) {
+        String message = failure.getMessage();
+        for (Throwable cause = failure.getCause(); cause != null && cause != failure; cause = cause.getCause()) {
+            if (cause.getMessage() != null) {
+                message = cause.getMessage();
+            }
+            failure = cause;
+        }
+        return message == null ? failure.getClass().getName() : message;
+    }
+
+    /**
+     * How a submodule build ended
+     * @param status The result of the build
+     * @param message Why the build did not succeed, or null if it did
+     */
+    public record BuildOutcome(Status status, @Nullable String message) {
+        public boolean succeeded() {
+            return this.status == Status.SUCCEEDED;
+        }
+
+        public enum Status {
+            SUCCEEDED,
+            FAILED,
+            CANCELLED
+        }
+    }
+
+    private static OutputStream openLogFile(Path logFile) throws IOException {
+        Files.createDirectories(logFile.getParent());
+        return new BufferedOutputStream(Files.newOutputStream(logFile));
     }
 
     public static String getGradlePropertyValue(String key, Path workingDir) {
@@ -0,0 +1,72 @@
+package com.github.tatercertified.utils;
+
+import com.vdurmont.semver4j.Requirement;
+import com.vdurmont.semver4j.Semver;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interned versions and version ranges.<p>
+ * A build only ever sees a few dozen distinct versions and marker ranges, but they are compared for every marker,
+ * every file and every version. Parsing each of them once keeps the preprocessor and the version map from
+ * re-parsing the same strings over and over. Cached instances are immutable and can be shared between threads.
+ */
+public final class SemverCache {
+    private static final Map<String, Semver> NPM_VERSIONS = new ConcurrentHashMap<>();
+    private static final Map<String, Semver> STRICT_VERSIONS = new ConcurrentHashMap<>();
+    private static final Map<String, Requirement> REQUIREMENTS = new ConcurrentHashMap<>();
+    private static final Map<String, Requirement[]> ALTERNATIVES = new ConcurrentHashMap<>();
+
+    private SemverCache() {
+    }
+
+    /**
+     * @param version A Minecraft version (ex: "1.21.7")
+     * @return The version parsed with npm rules, the same rules the ranges of version markers use
+     */
+    public static Semver version(String version) {
+        return NPM_VERSIONS.computeIfAbsent(version, key -> new Semver(key, Semver.SemverType.NPM));
+    }
+
+    /**
+     * @param version A version in strict major.minor.patch form
+     * @return The version parsed with strict rules
+     */
+    public static Semver strictVersion(String version) {
+        return STRICT_VERSIONS.computeIfAbsent(version, Semver::new);
+    }
+
+    /**
+     * @param range An npm range (ex: ">=1.21.5 <1.21.7")
+     * @return The parsed range
+     */
+    public static Requirement requirement(String range) {
+        return REQUIREMENTS.computeIfAbsent(range, Requirement::buildNPM);
+    }
+
+    /**
+     * Same as {@link Semver#satisfies(String)} for an npm version, without parsing the range again.
+     * Ranges combined with {@code ||} are satisfied if any of them is
+     * @param version The version, from {@link #version(String)}
+     * @param range An npm range
+     * @return True if the version is in the range
+     */
+    public static boolean satisfies(Semver version, String range) {
+        for (Requirement requirement : ALTERNATIVES.computeIfAbsent(range, SemverCache::alternatives)) {
+            if (requirement.isSatisfiedBy(version)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Requirement[] alternatives(String range) {
+        String[] parts = range.split("\\|\\|");
+        Requirement[] requirements = new Requirement[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            requirements[i] = requirement(parts[i].trim());
+        }
+        return requirements;
+    }
+}
@@ -2,13 +2,20 @@ package com.github.tatercertified.utils;
 
 import com.vdurmont.semver4j.Semver;
 
+import java.io.Serial;
+import java.io.Serializable;
 import java.util.Comparator;
 
-public class SemverComparator implements Comparator<String> {
+public class SemverComparator implements Comparator<String>, Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+
     @Override
     public int compare(String o1, String o2) {
-        Semver o1Sem = new Semver(o1);
-        Semver o2Sem = new Semver(o2);
+        // Called for every lookup in the version map, so the parsed versions are cached
+        Semver o1Sem = SemverCache.strictVersion(o1);
+        Semver o2Sem = SemverCache.strictVersion(o2);
         if (o1Sem.isLowerThan(o2Sem)) {
             return -1;
         } else if (o1Sem.isEqualTo(o2Sem)) {
@@ -0,0 +1,407 @@
+package com.github.tatercertified.utils;
+
+import com.vdurmont.semver4j.Semver;
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logger;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Applies the {@code //: } and {@code /*\ } version markers to a source file.<p>
+ * The file is read in one go and tokenized in a single pass over its bytes into marker lines, which form a
+ * {@link BlockTree}. Blocks can be nested and can have ELIF and ELSE branches. Applying a version only decides the form
+ * of each marker line, so a file whose markers are already indexed is not scanned again. The file is only written back
+ * (once) if a marker was toggled. Toggling a marker never changes the length of its line, so lines are patched
+ * directly inside the read buffer.
+ */
+public final class SourcePreprocessor {
+    private static final byte[] LINE_OPENING = "//: ".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] COMMENT_OPENING = "/*\\ ".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] COMMENT_END = " */".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] END = "END".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] ELSE = "ELSE".getBytes(StandardCharsets.ISO_8859_1);
+    private static final byte[] ELIF = "ELIF ".getBytes(StandardCharsets.ISO_8859_1);
+
+    private SourcePreprocessor() {
+    }
+
+    /**
+     * Enables and disables the version specific blocks of a source file for a Minecraft version
+     * @param sourceFile The source file to modify
+     * @param mcVer The Minecraft version to apply
+     * @param logger Logger used for reporting replacements
+     * @return True if any block was toggled, meaning a new build is necessary
+     * @throws MalformedVersionSyntaxException If the markers are not properly paired; the file is left untouched
+     */
+    public static boolean process(Path sourceFile, Semver mcVer, Logger logger) {
+        return process(sourceFile, mcVer, logger, null);
+    }
+
+    /**
+     * Enables and disables the version specific blocks of a source file for a Minecraft version
+     * @param sourceFile The source file to modify
+     * @param mcVer The Minecraft version to apply
+     * @param logger Logger used for reporting replacements
+     * @param index MarkerIndex to keep up to date when the file is rewritten, or null
+     * @return True if any block was toggled, meaning a new build is necessary
+     * @throws MalformedVersionSyntaxException If the markers are not properly paired; the file is left untouched
+     */
+    public static boolean process(Path sourceFile, Semver mcVer, Logger logger, @Nullable MarkerIndex index) {
+        return process(sourceFile, mcVer, logger, index, null);
+    }
+
+    /**
+     * Enables and disables the version specific blocks of a source file for a Minecraft version
+     * @param sourceFile The source file to modify
+     * @param mcVer The Minecraft version to apply
+     * @param logger Logger used for reporting replacements
+     * @param index MarkerIndex to keep up to date when the file is rewritten, or null
+     * @param beforeWrite Called with the file right before it is rewritten (ex: to back it up), or null
+     * @return True if any block was toggled, meaning a new build is necessary
+     * @throws MalformedVersionSyntaxException If the markers are not properly paired; the file is left untouched
+     */
+    public static boolean process(Path sourceFile, Semver mcVer, Logger logger, @Nullable MarkerIndex index, @Nullable Consumer<Path> beforeWrite) {
+        try {
+            byte[] source = Files.readAllBytes(sourceFile);
+            if (rewrite(source, markers(source, sourceFile, index), mcVer, sourceFile.getFileName().toString(), logger)) {
+                if (beforeWrite != null) {
+                    beforeWrite.accept(sourceFile);
+                }
+                Files.write(sourceFile, source);
+                if (index != null) {
+                    index.update(sourceFile, source);
+                }
+                return true;
+            }
+            return false;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads a source file with the blocks of a Minecraft version enabled, without changing the file
+     * @param sourceFile The source file
+     * @param mcVer The Minecraft version to apply
+     * @param logger Logger used for reporting replacements
+     * @param index MarkerIndex that already knows the markers of the file, or null
+     * @return The preprocessed contents
+     * @throws MalformedVersionSyntaxException If the markers are not properly paired
+     */
+    public static byte[] read(Path sourceFile, Semver mcVer, Logger logger, @Nullable MarkerIndex index) {
+        try {
+            byte[] source = Files.readAllBytes(sourceFile);
+            rewrite(source, markers(source, sourceFile, index), mcVer, sourceFile.getFileName().toString(), logger);
+            return source;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Takes the markers of a file from the index if they still match its contents, otherwise scans it
+     */
+    private static List<Marker> markers(byte[] source, Path sourceFile, @Nullable MarkerIndex index) {
+        List<Marker> markers = index == null ? null : index.getMarkers(sourceFile);
+        if (markers == null || !matches(source, markers)) {
+            markers = findMarkers(source);
+        }
+        return markers;
+    }
+
+    /**
+     * Toggles the version specific blocks inside a buffer
+     * @param source The contents of a source file, patched in place
+     * @param mcVer The Minecraft version to apply
+     * @param fileName The name of the file, used in error messages
+     * @param logger Logger used for reporting replacements
+     * @return True if the buffer was changed
+     * @throws MalformedVersionSyntaxException If the markers are not properly paired
+     */
+    public static boolean rewrite(byte[] source, Semver mcVer, String fileName, Logger logger) {
+        return rewrite(source, findMarkers(source), mcVer, fileName, logger);
+    }
+
+    /**
+     * Toggles the version specific blocks inside a buffer whose markers are already known, without scanning it again
+     * @param source The contents of a source file, patched in place
+     * @param markers The markers of the buffer, from {@link #findMarkers(byte[])}
+     * @param mcVer The Minecraft version to apply
+     * @param fileName The name of the file, used in error messages
+     * @param logger Logger used for reporting replacements
+     * @return True if the buffer was changed
+     * @throws MalformedVersionSyntaxException If the markers are not properly paired
+     */
+    public static boolean rewrite(byte[] source, List<Marker> markers, Semver mcVer, String fileName, Logger logger) {
+        Form[] forms = BlockTree.parse(source, markers, fileName).forms(mcVer);
+        boolean markChanged = false; // If a new build is necessary
+        for (int i = 0; i < forms.length; i++) {
+            MarkerLine line = readMarker(source, markers.get(i).offset());
+            if (line.form() != forms[i]) {
+                String replacement = line.render(source, forms[i]);
+                logger.info("Replacing {} with {}", line(source, line.lineStart(), line.lineEnd()), replacement);
+                patch(source, line.lineStart(), replacement);
+                markChanged = true;
+            }
+        }
+        return markChanged;
+    }
+
+    /**
+     * Finds every version marker line in a buffer, without checking whether they are properly paired
+     * @param source The contents of a source file
+     * @return The markers in file order
+     */
+    public static List<Marker> findMarkers(byte[] source) {
+        List<Marker> markers = new ArrayList<>();
+        int lineCount = 0;
+        int lineStart = 0;
+        while (lineStart < source.length) {
+            int lineEnd = lineEnd(source, lineStart);
+            MarkerLine line = readMarker(source, lineStart, lineEnd);
+            if (line != null) {
+                markers.add(new Marker(lineStart, lineCount, line.kind(), line.range()));
+            }
+
+            // Step over the line terminator (\n, \r or \r\n)
+            if (lineEnd < source.length && source[lineEnd] == '\r') {
+                lineEnd++;
+            }
+            if (lineEnd < source.length && source[lineEnd] == '\n') {
+                lineEnd++;
+            }
+            lineStart = lineEnd;
+            lineCount++;
+        }
+        return markers;
+    }
+
+    /**
+     * Checks that markers found earlier (ex: by a {@link MarkerIndex}) still describe a buffer, by reading only their lines
+     * @param source The contents of a source file
+     * @param markers The markers found earlier
+     * @return False if a marker line moved or changed, so the buffer has to be scanned again
+     */
+    static boolean matches(byte[] source, List<Marker> markers) {
+        for (Marker marker : markers) {
+            int offset = marker.offset();
+            if (offset >= source.length || (offset > 0 && source[offset - 1] != '\n' && source[offset - 1] != '\r')) {
+                return false;
+            }
+            MarkerLine line = readMarker(source, offset);
+            if (line == null || line.kind() != marker.kind() || !Objects.equals(line.range(), marker.range())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A version marker line
+     * @param offset The byte offset of the start of the line
+     * @param line The line number, starting at 0
+     * @param kind Where the line is in its block
+     * @param range The semver range of an IF or ELIF marker, otherwise null
+     */
+    public record Marker(int offset, int line, Kind kind, @Nullable String range) {
+        public boolean isEnd() {
+            return this.kind == Kind.END;
+        }
+    }
+
+    /**
+     * The role of a marker line: {@code //: range} starts a block, {@code //: ELIF range} and {@code //: ELSE} start
+     * another branch of it, and {@code //: END} closes it. Only the first branch whose range is satisfied is enabled
+     */
+    public enum Kind {
+        IF,
+        ELIF,
+        ELSE,
+        END
+    }
+
+    /**
+     * How a marker line is written. Switching between forms never changes the length of the line
+     */
+    enum Form {
+        /**
+         * {@code //: ...}, does not affect the code around it
+         */
+        ACTIVE,
+        /**
+         * {@code /*\ ...}, disables the code after it
+         */
+        OPENING,
+        /**
+         * {@code \... *}{@code /}, enables the code after it
+         */
+        CLOSING
+    }
+
+    /**
+     * A marker line as it is written in a buffer
+     * @param lineStart The offset of the line
+     * @param lineEnd The offset of the line terminator
+     * @param content The offset of the marker, after the indentation
+     * @param form How the marker is written
+     * @param kind The role of the marker
+     * @param bodyStart The offset of the keyword or range
+     * @param bodyEnd The end of the keyword or range, before trailing whitespace and the comment closing
+     * @param trailing The offset of whatever follows the body and the comment closing
+     * @param range The range of an IF or ELIF marker
+     */
+    private record MarkerLine(int lineStart, int lineEnd, int content, Form form, Kind kind, int bodyStart, int bodyEnd, int trailing, @Nullable String range) {
+        private String render(byte[] source, Form form) {
+            String body = line(source, this.bodyStart, this.bodyEnd);
+            String rest = line(source, this.trailing, this.lineEnd);
+            String indent = line(source, this.lineStart, this.content);
+            return switch (form) {
+                case ACTIVE -> indent + "//: " + body + rest;
+                case OPENING -> indent + "/*\\ " + body + rest;
+                case CLOSING -> indent + "\\" + body + " */" + rest;
+            };
+        }
+    }
+
+    /**
+     * @return The text of the marker line at an offset, for error messages
+     */
+    static String markerLine(byte[] source, int lineStart) {
+        return line(source, lineStart, lineEnd(source, lineStart));
+    }
+
+    private static @Nullable MarkerLine readMarker(byte[] source, int lineStart) {
+        return readMarker(source, lineStart, lineEnd(source, lineStart));
+    }
+
+    /**
+     * Tokenizes a single line
+     * @return The marker on the line, or null if it is not a marker line
+     */
+    private static @Nullable MarkerLine readMarker(byte[] source, int lineStart, int lineEnd) {
+        int content = skipWhitespace(source, lineStart, lineEnd);
+        if (content == lineEnd) {
+            return null;
+        }
+        Form form;
+        int bodyStart;
+        int bodyEnd;
+        int trailing;
+        if (startsWith(source, content, lineEnd, LINE_OPENING) || startsWith(source, content, lineEnd, COMMENT_OPENING)) {
+            form = source[content + 1] == '/' ? Form.ACTIVE : Form.OPENING;
+            bodyStart = content + LINE_OPENING.length;
+            bodyEnd = trimEnd(source, bodyStart, lineEnd);
+            trailing = bodyEnd;
+        } else if (source[content] == '\\' && (startsWith(source, content + 1, lineEnd, END)
+                || startsWith(source, content + 1, lineEnd, ELSE) || startsWith(source, content + 1, lineEnd, ELIF))) {
+            // The comment closing comes last: \END */, \ELSE */ or \ELIF range */
+            int close = trimEnd(source, content, lineEnd) - COMMENT_END.length;
+            if (close <= content || !startsWith(source, close, lineEnd, COMMENT_END)) {
+                return null;
+            }
+            form = Form.CLOSING;
+            bodyStart = content + 1;
+            bodyEnd = close;
+            trailing = close + COMMENT_END.length;
+        } else {
+            return null;
+        }
+
+        Kind kind;
+        String range = null;
+        if (startsWith(source, bodyStart, bodyEnd, END)) {
+            kind = Kind.END;
+        } else if (startsWith(source, bodyStart, bodyEnd, ELSE)) {
+            kind = Kind.ELSE;
+        } else if (startsWith(source, bodyStart, bodyEnd, ELIF)) {
+            kind = Kind.ELIF;
+            range = line(source, bodyStart + ELIF.length, bodyEnd).trim();
+        } else if (form != Form.CLOSING) {
+            kind = Kind.IF;
+            range = line(source, bodyStart, bodyEnd).trim();
+        } else {
+            return null;
+        }
+        return new MarkerLine(lineStart, lineEnd, content, form, kind, bodyStart, bodyEnd, trailing, range);
+    }
+
+    private static int lineEnd(byte[] source, int lineStart) {
+        int lineEnd = lineStart;
+        while (lineEnd < source.length && source[lineEnd] != '\n' && source[lineEnd] != '\r') {
+            lineEnd++;
+        }
+        return lineEnd;
+    }
+
+    private static int trimEnd(byte[] source, int from, int to) {
+        while (to > from && Character.isWhitespace((char) (source[to - 1] & 0xFF))) {
+            to--;
+        }
+        return to;
+    }
+
+    private static int skipWhitespace(byte[] source, int from, int to) {
+        while (from < to && Character.isWhitespace((char) (source[from] & 0xFF))) {
+            from++;
+        }
+        return from;
+    }
+
+    private static boolean startsWith(byte[] source, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (source[from + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes a line the same way {@link java.io.RandomAccessFile#readLine()} does, one char per byte
+     */
+    static String line(byte[] source, int from, int to) {
+        return new String(source, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    private static void patch(byte[] source, int lineStart, String replacement) {
+        byte[] bytes = replacement.getBytes(StandardCharsets.ISO_8859_1);
+        System.arraycopy(bytes, 0, source, lineStart, bytes.length);
+    }
+
+    /**
+     * Thrown when the markers of a file do not form properly nested blocks
+     */
+    public static class MalformedVersionSyntaxException extends GradleException {
+        private final String fileName;
+        private final int line;
+
+        public MalformedVersionSyntaxException(String fileName, int line, String lineStr, boolean expectedOpening) {
+            this("Expected " + (expectedOpening ? "opening" : "closing") + " syntax", fileName, line, lineStr);
+        }
+
+        public MalformedVersionSyntaxException(String problem, String fileName, int line, String lineStr) {
+            super(problem + " in " + fileName + " at line " + line + ": " + lineStr);
+            this.fileName = fileName;
+            this.line = line;
+        }
+
+        public String getFileName() {
+            return this.fileName;
+        }
+
+        public int getLine() {
+            return this.line;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.github.tatercertified.utils;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches source directories through a {@link WatchService} and reports the files that were created, changed or
+ * deleted in batches.<p>
+ * A WatchService only watches single directories, so every directory of a tree is registered on its own, and
+ * directories created later (ex: by a git checkout) are registered as they appear. The files such a directory already
+ * contains when it is registered are reported as changed, since their own events may have been missed.
+ */
+public class SourceWatcher implements AutoCloseable {
+    private final WatchService watchService;
+    private final Map<WatchKey, WatchedDir> keys = new HashMap<>();
+
+    private SourceWatcher(WatchService watchService) {
+        this.watchService = watchService;
+    }
+
+    /**
+     * Creates a watcher that does not watch anything yet
+     * @return SourceWatcher
+     */
+    public static SourceWatcher open() {
+        try {
+            return new SourceWatcher(FileSystems.getDefault().newWatchService());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Watches a directory and all of its subdirectories, including the ones created later. Missing directories are skipped
+     * @param root The root of the tree
+     */
+    public void watchTree(Path root) {
+        register(root, true, null);
+    }
+
+    /**
+     * Watches the files directly inside a directory. A missing directory is skipped
+     * @param dir The directory
+     */
+    public void watchDirectory(Path dir) {
+        if (Files.isDirectory(dir)) {
+            register(dir, false);
+        }
+    }
+
+    /**
+     * Waits for changes, then collects more until none arrive for the quiet period, so a checkout touching many files
+     * is handled as a single batch
+     * @param quietMillis How long to wait for further changes, in milliseconds
+     * @return The changed paths
+     * @throws InterruptedException If the thread is interrupted while waiting
+     */
+    public Changes next(long quietMillis) throws InterruptedException {
+        Set<Path> paths = new LinkedHashSet<>();
+        boolean overflow = false;
+        WatchKey key = this.watchService.take();
+        while (key != null) {
+            WatchedDir watched = this.keys.get(key);
+            if (watched != null) {
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        overflow = true;
+                        continue;
+                    }
+                    Path path = watched.dir().resolve((Path) event.context());
+                    if (watched.recursive() && event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                        register(path, true, paths);
+                    } else {
+                        paths.add(path);
+                    }
+                }
+            }
+            if (!key.reset()) {
+                // The directory is gone
+                this.keys.remove(key);
+            }
+            key = this.watchService.poll(quietMillis, TimeUnit.MILLISECONDS);
+        }
+        return new Changes(paths, overflow);
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.watchService.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void register(Path root, boolean recursive, @Nullable Set<Path> existingFiles) {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        try (Stream<Path> stream = Files.walk(root)) {
+            stream.forEach(path -> {
+                if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    register(path, recursive);
+                } else if (existingFiles != null) {
+                    existingFiles.add(path);
+                }
+            });
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void register(Path dir, boolean recursive) {
+        try {
+            WatchKey key = dir.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            this.keys.put(key, new WatchedDir(dir, recursive));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * The paths that changed since the last batch
+     * @param paths Created, changed and deleted files, in the order they were first reported
+     * @param overflow True if events were lost, so every watched file has to be checked
+     */
+    public record Changes(Set<Path> paths, boolean overflow) {
+    }
+
+    private record WatchedDir(Path dir, boolean recursive) {
+    }
+}
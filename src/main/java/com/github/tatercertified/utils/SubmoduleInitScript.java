@@ -0,0 +1,117 @@
+package com.github.tatercertified.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The init script passed to submodule builds, which lets the plugin hook into them through project properties
+ */
+public final class SubmoduleInitScript {
+    /**
+     * The supported version range to put in place of %mcVer%
+     */
+    public static final String MC_VER_PROPERTY = "multimc.mcVer";
+    /**
+     * The path of the mod config inside the jar
+     */
+    public static final String MOD_CONFIG_PROPERTY = "multimc.modConfig";
+    /**
+     * The directory the preprocessed sources are generated in
+     */
+    public static final String GENERATED_SOURCES_PROPERTY = "multimc.generatedSources";
+    /**
+     * The root project directory, which the layout of the generated sources is relative to
+     */
+    public static final String ROOT_DIR_PROPERTY = "multimc.rootDir";
+
+    private static final String SCRIPT = """
+            // Generated by MultiMCGradle, do not edit
+            allprojects {
+                def mcVer = findProperty('%1$s')
+                def modConfig = findProperty('%2$s')
+                if (mcVer != null && modConfig != null) {
+                    // Fill in the supported versions while resources are processed instead of patching the jar afterwards
+                    tasks.matching { it.name == 'processResources' }.configureEach {
+                        inputs.property('%1$s', mcVer)
+                        filesMatching(modConfig) {
+                            filter { String line -> line.replace('%%mcVer%%', mcVer) }
+                        }
+                    }
+                }
+
+                def generatedSources = findProperty('%3$s')
+                if (generatedSources != null) {
+                    // Compile the preprocessed copy of the sources instead of the working tree
+                    def root = new File(findProperty('%4$s')).toPath()
+                    def dir = projectDir.toPath()
+                    def generated = new File(generatedSources, (dir.startsWith(root) ? root.relativize(dir).toString() : dir.fileName.toString()) + '/src/main/java')
+                    if (generated.isDirectory()) {
+                        pluginManager.withPlugin('java') {
+                            def sources = file('src/main/java')
+                            sourceSets.main.java.srcDirs = sourceSets.main.java.srcDirs.collect { it == sources ? generated : it }
+                        }
+                    }
+                }
+            }
+            """.formatted(MC_VER_PROPERTY, MOD_CONFIG_PROPERTY, GENERATED_SOURCES_PROPERTY, ROOT_DIR_PROPERTY);
+
+    private SubmoduleInitScript() {
+    }
+
+    /**
+     * Writes the init script if it does not exist or is outdated
+     * @param scriptFile Where to write the script
+     * @return The script file
+     */
+    public static synchronized Path write(Path scriptFile) {
+        try {
+            byte[] script = SCRIPT.getBytes(StandardCharsets.UTF_8);
+            if (!Files.isRegularFile(scriptFile) || !Arrays.equals(Files.readAllBytes(scriptFile), script)) {
+                Files.createDirectories(scriptFile.getParent());
+                Files.write(scriptFile, script);
+            }
+            return scriptFile;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Creates the build arguments that apply the init script
+     * @param scriptFile The init script written by {@link #write(Path)}
+     * @param properties The arguments that enable parts of the script, from the other methods of this class
+     * @return Command line arguments for the build
+     */
+    public static List<String> arguments(Path scriptFile, List<String> properties) {
+        List<String> arguments = new ArrayList<>();
+        arguments.add("--init-script");
+        arguments.add(scriptFile.toAbsolutePath().toString());
+        arguments.addAll(properties);
+        return arguments;
+    }
+
+    /**
+     * Creates the properties that make a submodule build fill in the supported versions itself
+     * @param modConfig The path of the mod config inside the jar
+     * @param versionExpression The version range to put in place of %mcVer%
+     * @return Project property arguments
+     */
+    public static List<String> versionRangeProperties(String modConfig, String versionExpression) {
+        return List.of("-P" + MC_VER_PROPERTY + "=" + versionExpression, "-P" + MOD_CONFIG_PROPERTY + "=" + modConfig);
+    }
+
+    /**
+     * Creates the properties that make a submodule build compile generated sources
+     * @param generatedDir The directory the sources are generated in
+     * @param rootDir The root project directory
+     * @return Project property arguments
+     */
+    public static List<String> generatedSourcesProperties(Path generatedDir, Path rootDir) {
+        return List.of("-P" + GENERATED_SOURCES_PROPERTY + "=" + generatedDir.toAbsolutePath(), "-P" + ROOT_DIR_PROPERTY + "=" + rootDir.toAbsolutePath());
+    }
+}
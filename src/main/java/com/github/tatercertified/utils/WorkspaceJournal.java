@@ -0,0 +1,169 @@
+package com.github.tatercertified.utils;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the original contents of every working tree file a compile or switch rewrites, so an interrupted run can be
+ * rolled back instead of leaving the tree in the state of an arbitrary version.<p>
+ * A file is copied into the journal directory and listed in the journal index before it is first written. Committing
+ * deletes the journal; a journal that is still present when the next run starts belongs to an interrupted run and is
+ * rolled back by {@link #recover(Path)}. An index line is only written once its backup is complete, so a partially
+ * written last line is ignored.
+ */
+public class WorkspaceJournal {
+    static final String INDEX_FILE = "index";
+
+    private final Path journalDir;
+    private final FileChannel index;
+    private final Map<Path, Path> backups = new HashMap<>();
+
+    private WorkspaceJournal(Path journalDir, FileChannel index) {
+        this.journalDir = journalDir;
+        this.index = index;
+    }
+
+    /**
+     * Rolls back the journal of an interrupted run, if there is one
+     * @param journalDir The journal directory
+     * @return The files that were restored, empty if there was nothing to roll back
+     */
+    public static List<Path> recover(Path journalDir) {
+        List<Path> restored = new ArrayList<>();
+        Path indexFile = journalDir.resolve(INDEX_FILE);
+        if (!Files.isRegularFile(indexFile)) {
+            deleteJournal(journalDir);
+            return restored;
+        }
+        String index;
+        try {
+            index = Files.readString(indexFile, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // Only lines that end in a newline were written completely, a torn line may hold a truncated path
+        for (String line : index.substring(0, index.lastIndexOf('\n') + 1).split("\n")) {
+            int tab = line.indexOf('\t');
+            if (tab < 0) {
+                continue;
+            }
+            Path backup = journalDir.resolve(line.substring(0, tab));
+            Path file = Path.of(line.substring(tab + 1));
+            if (Files.isRegularFile(backup)) {
+                restore(backup, file);
+                restored.add(file);
+            }
+        }
+        deleteJournal(journalDir);
+        return restored;
+    }
+
+    /**
+     * Starts a journal. Any journal left in the directory must have been recovered first
+     * @param journalDir The journal directory
+     * @return WorkspaceJournal
+     */
+    public static WorkspaceJournal begin(Path journalDir) {
+        try {
+            deleteJournal(journalDir);
+            Files.createDirectories(journalDir);
+            FileChannel index = FileChannel.open(journalDir.resolve(INDEX_FILE), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            return new WorkspaceJournal(journalDir, index);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Backs up a file before it is written for the first time in this run. Later calls for the same file do nothing
+     * @param file The file about to be written
+     */
+    public synchronized void record(Path file) {
+        if (this.backups.containsKey(file)) {
+            return;
+        }
+        String name = this.backups.size() + ".bak";
+        Path backup = this.journalDir.resolve(name);
+        try {
+            Path tempFile = this.journalDir.resolve(name + ".tmp");
+            Files.copy(file, tempFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(tempFile, backup, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.index.write(ByteBuffer.wrap((name + "\t" + file.toAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8)));
+            // The entry has to be on disk before the file is changed
+            this.index.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.backups.put(file, backup);
+    }
+
+    /**
+     * Puts back the original contents of a recorded file. The file stays journaled
+     * @param file A file passed to {@link #record(Path)}
+     */
+    public synchronized void restore(Path file) {
+        Path backup = this.backups.get(file);
+        if (backup != null) {
+            restore(backup, file);
+        }
+    }
+
+    /**
+     * Gets the backup holding the original contents of a recorded file
+     * @param file A file passed to {@link #record(Path)}
+     * @return The backup, or null if the file was not recorded
+     */
+    public synchronized @Nullable Path original(Path file) {
+        return this.backups.get(file);
+    }
+
+    /**
+     * Accepts the current state of the working tree and deletes the journal
+     */
+    public synchronized void commit() {
+        try {
+            this.index.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        deleteJournal(this.journalDir);
+        this.backups.clear();
+    }
+
+    private static void restore(Path backup, Path file) {
+        try {
+            Path tempFile = file.resolveSibling(file.getFileName() + ".multimc-restore");
+            Files.copy(backup, tempFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void deleteJournal(Path journalDir) {
+        if (!Files.isDirectory(journalDir)) {
+            return;
+        }
+        // The index goes first, so a journal is never left with an index pointing at deleted backups
+        try {
+            Files.deleteIfExists(journalDir.resolve(INDEX_FILE));
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(journalDir)) {
+                for (Path entry : stream) {
+                    Files.delete(entry);
+                }
+            }
+            Files.delete(journalDir);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
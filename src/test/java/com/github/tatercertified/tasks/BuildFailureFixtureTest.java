@@ -0,0 +1,192 @@
+package com.github.tatercertified.tasks;
+
+import com.github.tatercertified.MCBuildConfig;
+import com.github.tatercertified.MultiMCExtension;
+import com.github.tatercertified.utils.BuildAbort;
+import com.github.tatercertified.utils.BuildFailures;
+import com.github.tatercertified.utils.GradleConnectionPool;
+import com.github.tatercertified.utils.RemoteGradleRunner;
+import org.gradle.api.GradleException;
+import org.gradle.api.logging.Logging;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs submodule builds of a small fixture build, whose verify task fails for 1.21.6 and hangs for "slow". The fixture
+ * uses the wrapper of this repository, so the first run may have to download that Gradle version. Tagged as an
+ * integration test, these only run with the integrationTest task.
+ */
+@Tag("integration")
+class BuildFailureFixtureTest {
+    private static final String BUILD_SCRIPT = """
+            plugins {
+                id 'java'
+            }
+
+            version = '1.0.0'
+
+            tasks.register('verify') {
+                def mcVer = providers.gradleProperty('minecraft_version')
+                def started = layout.buildDirectory.file('started')
+                doLast {
+                    if (mcVer.get() == '1.21.6') {
+                        throw new GradleException('1.21.6 is broken on purpose')
+                    }
+                    if (mcVer.get() == 'slow') {
+                        started.get().asFile.parentFile.mkdirs()
+                        started.get().asFile.text = 'started'
+                        Thread.sleep(120_000)
+                    }
+                }
+            }
+            """;
+    private static final String SOURCE = """
+            class Marked {
+            //: >=1.21.6
+                int newApi;
+            //: END
+            }
+            """;
+    private static final String PROPERTIES = "minecraft_version=1.21.5\nmodConfig=fabric.mod.json\n";
+
+    @TempDir
+    Path dir;
+
+    private Path loaderDir;
+    private BuildContext context;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.loaderDir = Files.createDirectories(this.dir.resolve("fabric"));
+        Files.writeString(this.loaderDir.resolve("settings.gradle"), "rootProject.name = 'fabric'\n");
+        Files.writeString(this.loaderDir.resolve("build.gradle"), BUILD_SCRIPT);
+        Files.writeString(this.loaderDir.resolve("gradle.properties"), PROPERTIES);
+        Path wrapperDir = Files.createDirectories(this.loaderDir.resolve("gradle/wrapper"));
+        Files.copy(Path.of("gradle/wrapper/gradle-wrapper.properties"), wrapperDir.resolve("gradle-wrapper.properties"));
+        Path sourceDir = Files.createDirectories(this.loaderDir.resolve("src/main/java"));
+        Files.writeString(sourceDir.resolve("Marked.java"), SOURCE);
+        Path resourceDir = Files.createDirectories(this.loaderDir.resolve("src/main/resources"));
+        Files.writeString(resourceDir.resolve("fabric.mod.json"), "{\"depends\": {\"minecraft\": \"%mcVer%\"}}\n");
+        this.context = new BuildContext(Logging.getLogger(BuildFailureFixtureTest.class), this.dir, this.dir.resolve("build"), "mod", Map.of("fabric", "1.0.0"));
+    }
+
+    @Test
+    void runnerReportsSuccessAndFailure() {
+        try (GradleConnectionPool pool = new GradleConnectionPool(List.of("verify"), List.of(), List.of())) {
+            RemoteGradleRunner.BuildOutcome success = RemoteGradleRunner.runBuildOnSubmodule(this.loaderDir.toFile(), this.context.logger(), pool,
+                    "fabric 1.21.5", List.of("-Pminecraft_version=1.21.5"), null, null);
+            assertTrue(success.succeeded());
+
+            RemoteGradleRunner.BuildOutcome failure = RemoteGradleRunner.runBuildOnSubmodule(this.loaderDir.toFile(), this.context.logger(), pool,
+                    "fabric 1.21.6", List.of("-Pminecraft_version=1.21.6"), null, null);
+            assertEquals(RemoteGradleRunner.BuildOutcome.Status.FAILED, failure.status());
+            assertTrue(failure.message().contains("1.21.6 is broken on purpose"), failure.message());
+        }
+    }
+
+    @Test
+    void abortFlagCancelsRunningBuild() throws Exception {
+        Path flag = this.dir.resolve("build/multimc/abort");
+        BuildAbort.reset(flag);
+        try (GradleConnectionPool pool = new GradleConnectionPool(List.of("verify"), List.of(), List.of());
+             BuildAbort abort = BuildAbort.open(flag)) {
+            CompletableFuture<RemoteGradleRunner.BuildOutcome> outcome = CompletableFuture.supplyAsync(() -> RemoteGradleRunner.runBuildOnSubmodule(
+                    this.loaderDir.toFile(), this.context.logger(), pool, "fabric slow", List.of("-Pminecraft_version=slow"), null, abort.token()));
+
+            Path started = this.loaderDir.resolve("build/started");
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+            while (!Files.exists(started) && !outcome.isDone() && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(Files.exists(started), "The slow build did not start");
+
+            // Aborted by another build of the run, only the flag file connects them
+            try (BuildAbort failed = BuildAbort.open(flag)) {
+                failed.abort("fabric 1.21.6");
+            }
+            RemoteGradleRunner.BuildOutcome cancelled = outcome.get(1, TimeUnit.MINUTES);
+            assertEquals(RemoteGradleRunner.BuildOutcome.Status.CANCELLED, cancelled.status());
+        }
+    }
+
+    @Test
+    void failFastAbortsAndRollsBackWorkingTree() throws IOException {
+        MultiMCExtension ext = extension();
+        ext.setFailFast(true);
+
+        GradleException failure = assertThrows(GradleException.class, () -> MultiMCCompile.compile(ext, this.context, null));
+
+        assertTrue(failure.getMessage().contains("fabric 1.21.6"), failure.getMessage());
+        assertTrue(failure.getMessage().contains("1.21.6 is broken on purpose"), failure.getMessage());
+        // The tree was at 1.21.6 when the build failed, and is back to how it was before the run
+        assertEquals(SOURCE, Files.readString(this.loaderDir.resolve("src/main/java/Marked.java")));
+        assertEquals(PROPERTIES, Files.readString(this.loaderDir.resolve("gradle.properties")));
+        assertFalse(Files.exists(this.dir.resolve("build/multimc/journal")));
+        assertTrue(Files.exists(this.dir.resolve("build/multimc/abort")));
+        assertEquals(1, failures().get("fabric", "1.21.6").count());
+        assertNull(failures().get("fabric", "1.21.5"));
+    }
+
+    @Test
+    void knownFailureIsSkippedUntilInputsChange() throws IOException {
+        MultiMCExtension ext = extension();
+        ext.setSkipKnownFailures(true);
+        // The other versions are still built, then the task fails so it is not up to date next time
+        GradleException failure = assertThrows(GradleException.class, () -> MultiMCCompile.compile(ext, this.context, null));
+        assertTrue(failure.getMessage().startsWith("1 version(s) were not built"), failure.getMessage());
+
+        BuildFailures.Failure recorded = failures().get("fabric", "1.21.6");
+        assertNotNull(recorded);
+        assertEquals(1, recorded.count());
+        assertFalse(recorded.inputKey().isEmpty());
+        assertTrue(Files.isRegularFile(this.dir.resolve("output/mod-fabric-1.0.0+mc1.21.5.jar")));
+
+        // Same inputs, so the build is skipped and the record stays as it is
+        assertThrows(GradleException.class, () -> MultiMCCompile.compile(extension(true), this.context, null));
+        assertEquals(recorded, failures().get("fabric", "1.21.6"));
+
+        // Fixing the build script changes the inputs, the version is built again and its record is cleared
+        Files.writeString(this.loaderDir.resolve("build.gradle"), BUILD_SCRIPT.replace("'1.21.6'", "'none'"));
+        MultiMCCompile.compile(extension(true), this.context, null);
+        assertNull(failures().get("fabric", "1.21.6"));
+        assertTrue(Files.isRegularFile(this.dir.resolve("output/mod-fabric-1.0.0+mc1.21.6.jar")));
+        assertEquals(PROPERTIES, Files.readString(this.loaderDir.resolve("gradle.properties")));
+    }
+
+    private MultiMCExtension extension() {
+        return extension(false);
+    }
+
+    private MultiMCExtension extension(boolean skipKnownFailures) {
+        MultiMCExtension ext = new MultiMCExtension();
+        ext.setOutputDir(Path.of("output"));
+        ext.setModConfigFileRelativePath("modConfig");
+        HashMap<String, Path> loaders = new HashMap<>();
+        loaders.put("fabric", Path.of("fabric"));
+        ext.setLoaderSpecificPaths(loaders);
+        ext.setGradleConfig(new MCBuildConfig(builder -> {
+            builder.mcVer("1.21.5", deps -> deps.dep("minecraft_version", "1.21.5"));
+            builder.mcVer("1.21.6", deps -> deps.dep("minecraft_version", "1.21.6"));
+        }));
+        ext.setBuildTasks(List.of("verify", "jar"));
+        ext.setSkipKnownFailures(skipKnownFailures);
+        return ext;
+    }
+
+    private BuildFailures failures() {
+        return new BuildFailures(this.dir.resolve("build/multimc/failures"));
+    }
+}
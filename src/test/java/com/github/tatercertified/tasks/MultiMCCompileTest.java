@@ -0,0 +1,111 @@
+package com.github.tatercertified.tasks;
+
+import com.github.tatercertified.MCBuildConfig;
+import com.github.tatercertified.MultiMCExtension;
+import com.github.tatercertified.utils.BuildFailures;
+import com.github.tatercertified.utils.BuildPlanner;
+import com.github.tatercertified.utils.WorkspaceJournal;
+import org.gradle.api.logging.Logging;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiMCCompileTest {
+    private static final String PROPERTIES = """
+            # Versions
+            minecraft_version=1.21.5
+            polymer_version=0.12.0
+            """;
+
+    @TempDir
+    Path dir;
+
+    private BuildContext context;
+    private Path loaderDir;
+    private Path commonDir;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.context = new BuildContext(Logging.getLogger(MultiMCCompileTest.class), this.dir, this.dir.resolve("build"), "mod", Map.of());
+        this.loaderDir = Files.createDirectories(this.dir.resolve("fabric"));
+        this.commonDir = Files.createDirectories(this.dir.resolve("common"));
+        Files.writeString(this.loaderDir.resolve("gradle.properties"), PROPERTIES);
+        Files.writeString(this.commonDir.resolve("gradle.properties"), PROPERTIES);
+    }
+
+    @Test
+    void excludedKeyIsBackForLaterVersions() throws IOException {
+        MultiMCExtension ext = new MultiMCExtension();
+        ext.setGradleConfig(new MCBuildConfig(builder -> {
+            builder.mcVer("1.21.5", deps -> deps.depExclude("polymer_version"));
+            builder.mcVer("1.21.6", deps -> deps.dep("minecraft_version", "1.21.6").dep("polymer_version", "0.13.0"));
+            builder.mcVer("1.21.7", deps -> deps.dep("minecraft_version", "1.21.7"));
+        }));
+        Path[] commonDirs = {this.commonDir};
+        WorkspaceJournal journal = WorkspaceJournal.begin(this.dir.resolve("build/multimc/journal"));
+
+        MultiMCCompile.modifyGradleProperties(ext, this.loaderDir, commonDirs, "1.21.5", this.context, journal);
+        assertEquals("# Versions\nminecraft_version=1.21.5\n", Files.readString(this.loaderDir.resolve("gradle.properties")));
+        assertEquals("# Versions\nminecraft_version=1.21.5\n", Files.readString(this.commonDir.resolve("gradle.properties")));
+
+        MultiMCCompile.modifyGradleProperties(ext, this.loaderDir, commonDirs, "1.21.6", this.context, journal);
+        String expected = "# Versions\nminecraft_version=1.21.6\npolymer_version=0.13.0\n";
+        assertEquals(expected, Files.readString(this.loaderDir.resolve("gradle.properties")));
+        assertEquals(expected, Files.readString(this.commonDir.resolve("gradle.properties")));
+
+        // Not overridden, so the original value comes back rather than the one of the previous version
+        MultiMCCompile.modifyGradleProperties(ext, this.loaderDir, commonDirs, "1.21.7", this.context, journal);
+        assertEquals("# Versions\nminecraft_version=1.21.7\npolymer_version=0.12.0\n", Files.readString(this.loaderDir.resolve("gradle.properties")));
+        journal.commit();
+    }
+
+    @Test
+    void unchangedPropertiesAreNotWritten() throws IOException {
+        MultiMCExtension ext = new MultiMCExtension();
+        ext.setGradleConfig(new MCBuildConfig(builder -> {
+            builder.mcVer("1.21.5", deps -> deps.dep("minecraft_version", "1.21.5"));
+            builder.mcVer("1.21.6", deps -> deps.dep("minecraft_version", "1.21.5"));
+        }));
+        Path properties = this.loaderDir.resolve("gradle.properties");
+        WorkspaceJournal journal = WorkspaceJournal.begin(this.dir.resolve("build/multimc/journal"));
+        MultiMCCompile.modifyGradleProperties(ext, this.loaderDir, new Path[0], "1.21.5", this.context, journal);
+        Files.setLastModifiedTime(properties, FileTime.fromMillis(1000));
+
+        MultiMCCompile.modifyGradleProperties(ext, this.loaderDir, new Path[0], "1.21.6", this.context, journal);
+        assertEquals(1000, Files.getLastModifiedTime(properties).toMillis());
+        journal.commit();
+    }
+
+    @Test
+    void loaderOutputMatchesWholeLoaderName() {
+        assertTrue(MultiMCCompile.isLoaderOutput("mod-forge-1.0.0+mc1.21.5.jar", "mod", "forge"));
+        assertTrue(MultiMCCompile.isLoaderOutput("mod-neoforge-1.0.0+mc1.21.5.txt", "mod", "neoforge"));
+        assertFalse(MultiMCCompile.isLoaderOutput("mod-neoforge-1.0.0+mc1.21.5.jar", "mod", "forge"));
+        assertFalse(MultiMCCompile.isLoaderOutput("mod-fabric-1.0.0-forge+mc1.21.5.jar", "mod", "forge"));
+    }
+
+    @Test
+    void failedVersionsAreBuiltFirst() {
+        List<BuildPlanner.VersionClass> plan = List.of(new BuildPlanner.VersionClass(List.of("1.21.5")),
+                new BuildPlanner.VersionClass(List.of("1.21.6")), new BuildPlanner.VersionClass(List.of("1.21.7")),
+                new BuildPlanner.VersionClass(List.of("1.21.8")));
+        BuildFailures failures = new BuildFailures(this.dir.resolve("build/multimc/failures"));
+        failures.recordFailure("fabric", "1.21.7", "key", "Compilation failed");
+        failures.recordFailure("fabric", "1.21.8", "key", "Compilation failed");
+        failures.recordFailure("fabric", "1.21.8", "key", "Compilation failed");
+        failures.recordFailure("neoforge", "1.21.6", "key", "Compilation failed");
+
+        assertEquals(List.of(3, 2, 0, 1), MultiMCCompile.buildOrder("fabric", plan, failures));
+        assertEquals(List.of(1, 0, 2, 3), MultiMCCompile.buildOrder("neoforge", plan, failures));
+        assertEquals(List.of(0, 1, 2, 3), MultiMCCompile.buildOrder("forge", plan, failures));
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.tatercertified.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AppliedVersionStateTest {
+    @TempDir
+    Path dir;
+
+    private Path stateFile;
+    private Path a;
+    private Path b;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.stateFile = this.dir.resolve("build/multimc/applied-version");
+        this.a = this.dir.resolve("A.java");
+        this.b = this.dir.resolve("B.java");
+        Files.writeString(this.a, "//: >=1.21.7\n//: END\n");
+        Files.writeString(this.b, "//: 1.21.6\n//: END\n");
+    }
+
+    @Test
+    void savedStateLoadsTheSame() {
+        assertNull(AppliedVersionState.load(this.stateFile));
+        AppliedVersionState.save(this.stateFile, "1.21.7", List.of(this.a, this.b));
+
+        AppliedVersionState state = AppliedVersionState.load(this.stateFile);
+        assertNotNull(state);
+        assertEquals("1.21.7", state.getVersion());
+        assertTrue(state.isUnchanged(this.a));
+        assertTrue(state.isUnchanged(this.b));
+        // Not marked at the time of the switch
+        assertFalse(state.isUnchanged(this.dir.resolve("C.java")));
+        assertFalse(Files.exists(this.stateFile.resolveSibling("applied-version.tmp")));
+    }
+
+    @Test
+    void changedFilesAreNotUnchanged() throws IOException {
+        AppliedVersionState.save(this.stateFile, "1.21.7", List.of(this.a, this.b));
+        FileTime modified = Files.getLastModifiedTime(this.b);
+        Files.writeString(this.a, "//: >=1.21.7\n//: END\nclass A {}\n");
+        // Only the modification time differs
+        Files.setLastModifiedTime(this.b, FileTime.fromMillis(modified.toMillis() + 2000));
+
+        AppliedVersionState state = AppliedVersionState.load(this.stateFile);
+        assertFalse(state.isUnchanged(this.a));
+        assertFalse(state.isUnchanged(this.b));
+        Files.delete(this.b);
+        assertFalse(state.isUnchanged(this.b));
+    }
+
+    @Test
+    void clearForgetsVersion() {
+        AppliedVersionState.save(this.stateFile, "1.21.7", List.of(this.a));
+        AppliedVersionState.clear(this.stateFile);
+        assertNull(AppliedVersionState.load(this.stateFile));
+        // Nothing to clear
+        AppliedVersionState.clear(this.stateFile);
+    }
+
+    @Test
+    void unreadableStateIsIgnored() throws IOException {
+        AppliedVersionState.save(this.stateFile, "1.21.7", List.of(this.a, this.b));
+        byte[] saved = Files.readAllBytes(this.stateFile);
+
+        Files.write(this.stateFile, Arrays.copyOf(saved, saved.length - 3));
+        assertNull(AppliedVersionState.load(this.stateFile));
+
+        byte[] otherVersion = saved.clone();
+        otherVersion[3]++;
+        Files.write(this.stateFile, otherVersion);
+        assertNull(AppliedVersionState.load(this.stateFile));
+
+        // The file count follows the format version and the applied version
+        byte[] negativeCount = saved.clone();
+        negativeCount[4 + 2 + "1.21.7".length()] = (byte) 0xFF;
+        Files.write(this.stateFile, negativeCount);
+        assertNull(AppliedVersionState.load(this.stateFile));
+    }
+}
@@ -0,0 +1,69 @@
+package com.github.tatercertified.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuildAbortTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void abortCancelsOwnToken() {
+        Path flag = this.dir.resolve("multimc/abort");
+        try (BuildAbort abort = BuildAbort.open(flag)) {
+            assertFalse(abort.isAborted());
+            abort.abort("fabric 1.21.5");
+            assertTrue(abort.isAborted());
+            assertTrue(abort.token().isCancellationRequested());
+        }
+        assertTrue(Files.isRegularFile(flag));
+    }
+
+    @Test
+    void abortReachesOtherInstancesThroughFlagFile() throws InterruptedException {
+        Path flag = this.dir.resolve("multimc/abort");
+        // The second one stands for a work item in another class loader or process
+        try (BuildAbort failing = BuildAbort.open(flag); BuildAbort other = BuildAbort.open(flag)) {
+            failing.abort("fabric 1.21.5");
+            assertTrue(other.isAborted());
+
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (!other.token().isCancellationRequested() && System.nanoTime() < deadline) {
+                Thread.sleep(20);
+            }
+            assertTrue(other.token().isCancellationRequested());
+        }
+    }
+
+    @Test
+    void instanceOpenedAfterAbortSeesIt() {
+        Path flag = this.dir.resolve("multimc/abort");
+        try (BuildAbort failing = BuildAbort.open(flag)) {
+            failing.abort("fabric 1.21.5");
+        }
+        try (BuildAbort late = BuildAbort.open(flag)) {
+            assertTrue(late.isAborted());
+        }
+    }
+
+    @Test
+    void resetClearsPreviousRun() throws InterruptedException {
+        Path flag = this.dir.resolve("multimc/abort");
+        try (BuildAbort failing = BuildAbort.open(flag)) {
+            failing.abort("fabric 1.21.5");
+        }
+        BuildAbort.reset(flag);
+        try (BuildAbort next = BuildAbort.open(flag)) {
+            Thread.sleep(600);
+            assertFalse(next.isAborted());
+            assertFalse(next.token().isCancellationRequested());
+        }
+        // Nothing to clear
+        BuildAbort.reset(flag);
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.tatercertified.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuildFailuresTest {
+    @TempDir
+    Path dir;
+
+    @Test
+    void missingRecord() {
+        BuildFailures failures = new BuildFailures(this.dir.resolve("failures"));
+        assertNull(failures.get("fabric", "1.21.5"));
+        assertEquals(List.of(), failures.since(0));
+    }
+
+    @Test
+    void consecutiveFailuresAreCounted() {
+        BuildFailures failures = new BuildFailures(this.dir.resolve("failures"));
+        failures.recordFailure("fabric", "1.21.5", "key1", "Compilation failed");
+        failures.recordFailure("fabric", "1.21.5", "key2", "Could not resolve fabric-api");
+
+        BuildFailures.Failure failure = new BuildFailures(this.dir.resolve("failures")).get("fabric", "1.21.5");
+        assertNotNull(failure);
+        assertEquals(2, failure.count());
+        assertEquals("key2", failure.inputKey());
+        assertEquals("Could not resolve fabric-api", failure.message());
+        assertNull(failures.get("neoforge", "1.21.5"));
+    }
+
+    @Test
+    void inputKeyMatching() {
+        BuildFailures failures = new BuildFailures(this.dir.resolve("failures"));
+        failures.recordFailure("fabric", "1.21.5", "key1", "Compilation failed");
+        failures.recordFailure("fabric", "1.21.6", null, "Compilation failed");
+
+        BuildFailures.Failure keyed = failures.get("fabric", "1.21.5");
+        assertTrue(keyed.isSameInputs("key1"));
+        assertFalse(keyed.isSameInputs("key2"));
+        assertFalse(keyed.isSameInputs(null));
+        // Without a key the inputs are unknown, so the failure never counts as known
+        BuildFailures.Failure unkeyed = failures.get("fabric", "1.21.6");
+        assertEquals("", unkeyed.inputKey());
+        assertFalse(unkeyed.isSameInputs(""));
+        assertFalse(unkeyed.isSameInputs(null));
+    }
+
+    @Test
+    void successClearsRecord() {
+        BuildFailures failures = new BuildFailures(this.dir.resolve("failures"));
+        failures.recordFailure("fabric", "1.21.5", "key1", "Compilation failed");
+        failures.recordSuccess("fabric", "1.21.5");
+        assertNull(failures.get("fabric", "1.21.5"));
+
+        // A failure after the success starts counting again
+        failures.recordFailure("fabric", "1.21.5", "key1", "Compilation failed");
+        assertEquals(1, failures.get("fabric", "1.21.5").count());
+        // Clearing a version that never failed does nothing
+        failures.recordSuccess("fabric", "1.21.6");
+    }
+
+    @Test
+    void sinceListsFailuresOfRun() throws InterruptedException {
+        BuildFailures failures = new BuildFailures(this.dir.resolve("failures"));
+        failures.recordFailure("fabric", "1.21.5", "key1", "Old failure");
+        Thread.sleep(5);
+        long runStart = System.currentTimeMillis();
+        failures.recordFailure("neoforge", "1.21.6", "key2", "First");
+        Thread.sleep(5);
+        failures.recordFailure("fabric", "1.21.7", "key3", "Second");
+
+        List<BuildFailures.Failure> run = failures.since(runStart);
+        assertEquals(List.of("First", "Second"), run.stream().map(BuildFailures.Failure::message).toList());
+    }
+
+    @Test
+    void longMessageIsShortened() {
+        BuildFailures failures = new BuildFailures(this.dir.resolve("failures"));
+        failures.recordFailure("fabric", "1.21.5", "key1", "e".repeat(100_000));
+        String message = failures.get("fabric", "1.21.5").message();
+        assertTrue(message.length() < 5000);
+        assertTrue(message.endsWith("..."));
+    }
+
+    @Test
+    void unreadableRecordIsIgnored() throws Exception {
+        Path failuresDir = Files.createDirectories(this.dir.resolve("failures"));
+        Files.write(failuresDir.resolve("fabric-1.21.5.bin"), new byte[]{0, 0, 0, 1, 0});
+        Files.write(failuresDir.resolve("fabric-1.21.6.bin"), new byte[]{0, 0, 0, 99});
+
+        BuildFailures failures = new BuildFailures(failuresDir);
+        assertNull(failures.get("fabric", "1.21.5"));
+        assertNull(failures.get("fabric", "1.21.6"));
+        assertEquals(List.of(), failures.since(0));
+        failures.recordFailure("fabric", "1.21.5", "key1", "Compilation failed");
+        assertEquals(1, failures.get("fabric", "1.21.5").count());
+    }
+}
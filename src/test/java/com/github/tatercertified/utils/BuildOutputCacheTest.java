@@ -0,0 +1,131 @@
+package com.github.tatercertified.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuildOutputCacheTest {
+    private static final List<String> SETTINGS = List.of("build", "", "-Pminecraft_version=1.21.5");
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void inputsAreNamedRelativeToTheirModule() throws IOException {
+        Path root = tree("project");
+        Files.createDirectories(root.resolve("fabric/build/libs"));
+        Files.writeString(root.resolve("fabric/build/libs/mod.jar"), "jar");
+
+        Map<String, Path> inputs = BuildOutputCache.collectInputs(root, List.of(root.resolve("fabric"), root.resolve("common")));
+        assertEquals(List.of("root/settings.gradle", "root/gradle.properties", "root/gradle/wrapper/gradle-wrapper.properties",
+                "module0/build.gradle", "module0/gradle.properties", "module0/src/main/java/A.java", "module0/src/main/resources/fabric.mod.json",
+                "module1/build.gradle", "module1/src/main/java/Common.java"), List.copyOf(inputs.keySet()));
+        assertEquals(root.resolve("fabric/src/main/java/A.java"), inputs.get("module0/src/main/java/A.java"));
+    }
+
+    @Test
+    void keyDoesNotDependOnLocation() throws IOException {
+        assertEquals(key(tree("first")), key(tree("second")));
+    }
+
+    @Test
+    void keyFollowsContentsNamesAndSettings() throws IOException {
+        Path root = tree("project");
+        String key = key(root);
+
+        Files.writeString(root.resolve("fabric/src/main/java/A.java"), "class A { int x; }\n");
+        String changed = key(root);
+        assertNotEquals(key, changed);
+
+        Files.move(root.resolve("fabric/src/main/java/A.java"), root.resolve("fabric/src/main/java/B.java"));
+        assertNotEquals(changed, key(root));
+
+        Path other = tree("other");
+        assertNotEquals(key(other), BuildOutputCache.key(inputs(other), List.of("build", "", "-Pminecraft_version=1.21.6")));
+        // Settings are length prefixed, moving a character from one to the next is a different key
+        assertNotEquals(BuildOutputCache.key(inputs(other), List.of("ab", "c")), BuildOutputCache.key(inputs(other), List.of("a", "bc")));
+    }
+
+    @Test
+    void gradlePropertiesAreHashedByValue() throws IOException {
+        Path root = tree("project");
+        String key = key(root);
+        Path properties = root.resolve("fabric/gradle.properties");
+
+        // Only the formatting, a comment and the order of the keys differ
+        Files.writeString(properties, "#Sat Oct 17 21:13:27 UTC 2026\nmod_version=1.0.0\nminecraft_version=1.21.5\n");
+        assertEquals(key, key(root));
+        Files.writeString(properties, "minecraft_version=1.21.6\nmod_version=1.0.0\n");
+        assertNotEquals(key, key(root));
+    }
+
+    @Test
+    void storedJarIsFound() throws IOException {
+        BuildOutputCache cache = new BuildOutputCache(this.dir.resolve("cache"), 1024);
+        assertNull(cache.lookup("abc"));
+
+        Path jar = Files.writeString(this.dir.resolve("mod.jar"), "jar");
+        cache.store("abc", jar);
+        Path cached = cache.lookup("abc");
+        assertNotNull(cached);
+        assertEquals("jar", Files.readString(cached));
+        assertTrue(Files.exists(jar), "The built jar stays where it is");
+    }
+
+    @Test
+    void leastRecentlyUsedJarsAreEvicted() throws IOException {
+        Path cacheDir = this.dir.resolve("cache");
+        BuildOutputCache cache = new BuildOutputCache(cacheDir, 250);
+        Path jar = Files.writeString(this.dir.resolve("mod.jar"), "j".repeat(100));
+        cache.store("first", jar);
+        cache.store("second", jar);
+        Files.setLastModifiedTime(cacheDir.resolve("first.jar"), FileTime.fromMillis(1000));
+        Files.setLastModifiedTime(cacheDir.resolve("second.jar"), FileTime.fromMillis(2000));
+        // Used again, so it is the most recent one
+        assertNotNull(cache.lookup("first"));
+
+        cache.store("third", jar);
+        assertNotNull(cache.lookup("first"));
+        assertNull(cache.lookup("second"));
+        assertNotNull(cache.lookup("third"));
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            assertEquals(2, files.count(), "No temp files are left");
+        }
+    }
+
+    private Path tree(String name) throws IOException {
+        Path root = this.dir.resolve(name);
+        write(root.resolve("settings.gradle"), "include 'fabric', 'common'\n");
+        write(root.resolve("gradle.properties"), "org.gradle.jvmargs=-Xmx2G\n");
+        write(root.resolve("gradle/wrapper/gradle-wrapper.properties"), "distributionUrl=gradle-8.14.3-bin.zip\n");
+        write(root.resolve("fabric/build.gradle"), "plugins { id 'java' }\n");
+        write(root.resolve("fabric/gradle.properties"), "minecraft_version=1.21.5\nmod_version=1.0.0\n");
+        write(root.resolve("fabric/src/main/java/A.java"), "class A {}\n");
+        write(root.resolve("fabric/src/main/resources/fabric.mod.json"), "{}\n");
+        write(root.resolve("common/build.gradle"), "plugins { id 'java' }\n");
+        write(root.resolve("common/src/main/java/Common.java"), "class Common {}\n");
+        return root;
+    }
+
+    private static void write(Path file, String contents) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, contents);
+    }
+
+    private static Map<String, Path> inputs(Path root) {
+        return BuildOutputCache.collectInputs(root, List.of(root.resolve("fabric"), root.resolve("common")));
+    }
+
+    private static String key(Path root) {
+        return BuildOutputCache.key(inputs(root), SETTINGS);
+    }
+}
@@ -0,0 +1,169 @@
+package com.github.tatercertified.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Marker;
+import org.slf4j.event.Level;
+import org.slf4j.helpers.LegacyAbstractLogger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GradleOutputStreamTest {
+    private final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+
+    @AfterEach
+    void tearDown() {
+        this.scheduler.shutdownNow();
+    }
+
+    @Test
+    void linesAreBatched() throws IOException {
+        RecordingLogger logger = new RecordingLogger();
+        GradleOutputStream stream = new GradleOutputStream(logger, false, null, this.scheduler);
+        stream.write("first\r\nsecond\n".getBytes(StandardCharsets.UTF_8));
+        stream.flush();
+        assertEquals(List.of("INFO first" + System.lineSeparator() + "second"), logger.messages());
+    }
+
+    @Test
+    void quietLineIsDrained() throws Exception {
+        RecordingLogger logger = new RecordingLogger();
+        GradleOutputStream stream = new GradleOutputStream(logger, true, null, this.scheduler);
+        stream.write("> Task :compileJava\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals(List.of(), logger.messages());
+
+        // No more output and no flush, the line still has to come out once its batch is due
+        awaitMessage(logger);
+        assertEquals(List.of("ERROR > Task :compileJava"), logger.messages());
+    }
+
+    private static void awaitMessage(RecordingLogger logger) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (logger.messages().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    void flushedPartialLineIsDrained() throws Exception {
+        RecordingLogger logger = new RecordingLogger();
+        GradleOutputStream stream = new GradleOutputStream(logger, false, null, this.scheduler);
+        byte[] bytes = "Downloading \u00e9t\u00e9\n".getBytes(StandardCharsets.UTF_8);
+        // Flushed in the middle of the first two byte character, then quiet
+        stream.write(bytes, 0, 13);
+        stream.flush();
+        awaitMessage(logger);
+        stream.write(bytes, 13, bytes.length - 13);
+        stream.close();
+        assertEquals(List.of("INFO Downloading ", "INFO \u00e9t\u00e9"), logger.messages());
+    }
+
+    @Test
+    void partialLineCompletedInTimeStaysWhole() throws Exception {
+        RecordingLogger logger = new RecordingLogger();
+        GradleOutputStream stream = new GradleOutputStream(logger, true, null, this.scheduler);
+        // Styled output is flushed segment by segment
+        for (String segment : List.of("> ", "1.21.6 is broken", " on purpose\n")) {
+            stream.write(segment.getBytes(StandardCharsets.UTF_8));
+            stream.flush();
+        }
+        Thread.sleep(400);
+        assertEquals(List.of("ERROR > 1.21.6 is broken on purpose"), logger.messages());
+    }
+
+    @Test
+    void closeCancelsPendingDrains() throws IOException {
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        RecordingLogger logger = new RecordingLogger();
+        GradleOutputStream stream = new GradleOutputStream(logger, false, null, this.scheduler);
+        stream.write("first\nsecond".getBytes(StandardCharsets.UTF_8));
+        stream.flush();
+        // The batch was passed on, only the partial line is waiting
+        assertEquals(1, this.scheduler.getQueue().size());
+
+        stream.close();
+        assertEquals(List.of("INFO first", "INFO second"), logger.messages());
+        assertEquals(0, this.scheduler.getQueue().size());
+    }
+
+    @Test
+    void withoutSchedulerEveryWriteIsPassedOn() throws IOException {
+        RecordingLogger logger = new RecordingLogger();
+        GradleOutputStream stream = new GradleOutputStream(logger, false, null, null);
+        stream.write("first\nsec".getBytes(StandardCharsets.UTF_8));
+        assertEquals(List.of("INFO first"), logger.messages());
+        stream.write("ond\n".getBytes(StandardCharsets.UTF_8));
+        stream.flush();
+        assertEquals(List.of("INFO first", "INFO second"), logger.messages());
+    }
+
+    @Test
+    void longLineIsTruncated() throws IOException {
+        RecordingLogger logger = new RecordingLogger();
+        GradleOutputStream stream = new GradleOutputStream(logger, false, null, this.scheduler);
+        stream.write(("x".repeat(GradleOutputStream.MAX_LINE_BYTES + 10) + "\n").getBytes(StandardCharsets.UTF_8));
+        stream.close();
+        assertEquals(List.of("INFO " + "x".repeat(GradleOutputStream.MAX_LINE_BYTES) + " [10 bytes truncated]"), logger.messages());
+    }
+
+    @Test
+    void logFileReceivesRawOutput() throws IOException {
+        RecordingLogger logger = new RecordingLogger();
+        ByteArrayOutputStream logFile = new ByteArrayOutputStream();
+        GradleOutputStream stream = new GradleOutputStream(logger, false, logFile, this.scheduler);
+        stream.write("line\n".getBytes(StandardCharsets.UTF_8));
+        stream.close();
+        assertEquals("line\n", logFile.toString(StandardCharsets.UTF_8));
+        assertEquals(List.of(), logger.messages());
+    }
+
+    private static class RecordingLogger extends LegacyAbstractLogger {
+        private final List<String> messages = new ArrayList<>();
+
+        synchronized List<String> messages() {
+            return List.copyOf(this.messages);
+        }
+
+        @Override
+        public boolean isTraceEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isInfoEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isWarnEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isErrorEnabled() {
+            return true;
+        }
+
+        @Override
+        protected String getFullyQualifiedCallerName() {
+            return null;
+        }
+
+        @Override
+        protected synchronized void handleNormalizedLoggingCall(Level level, Marker marker, String message, Object[] arguments, Throwable throwable) {
+            this.messages.add(level + " " + message);
+        }
+    }
+}
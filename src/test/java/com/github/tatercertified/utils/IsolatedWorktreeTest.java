@@ -0,0 +1,93 @@
+package com.github.tatercertified.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IsolatedWorktreeTest {
+    @TempDir
+    Path dir;
+
+    private Path root;
+    private Path worktree;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.root = this.dir.resolve("project");
+        this.worktree = this.root.resolve("build/multimc/fabric/1.21.5");
+        write(this.root.resolve("settings.gradle"), "include 'fabric', 'neoforge', 'common', 'libs:shared'\n");
+        write(this.root.resolve("build.gradle"), "subprojects { apply plugin: 'java' }\n");
+        write(this.root.resolve("gradle.properties"), "org.gradle.jvmargs=-Xmx2G\n");
+        write(this.root.resolve("gradle/libs.versions.toml"), "[versions]\n");
+        write(this.root.resolve("gradle/wrapper/gradle-wrapper.properties"), "distributionUrl=gradle-8.14.3-bin.zip\n");
+        write(this.root.resolve("buildSrc/build.gradle"), "plugins { id 'groovy-gradle-plugin' }\n");
+        write(this.root.resolve("buildSrc/build/classes/Plugin.class"), "stale");
+        write(this.root.resolve("fabric/build.gradle"), "dependencies { implementation project(':common') }\n");
+        write(this.root.resolve("fabric/src/main/java/A.java"), "class A {}\n");
+        write(this.root.resolve("fabric/build/libs/mod.jar"), "jar");
+        write(this.root.resolve("common/build.gradle"), "\n");
+        write(this.root.resolve("common/src/main/java/Common.java"), "class Common {}\n");
+        write(this.root.resolve("neoforge/build.gradle"), "\n");
+        write(this.root.resolve("neoforge/src/main/java/N.java"), "class N {}\n");
+        write(this.root.resolve("libs/shared/build.gradle"), "\n");
+        write(this.root.resolve("run/logs/latest.log"), "log\n");
+    }
+
+    @Test
+    void subprojectGetsRootBuild() throws IOException {
+        Map<Path, Path> mirrored = IsolatedWorktree.create(this.root, this.worktree, modules(), Set.of());
+
+        assertEquals(this.worktree.resolve("fabric"), mirrored.get(this.root.resolve("fabric")));
+        for (String file : List.of("settings.gradle", "build.gradle", "gradle.properties", "gradle/libs.versions.toml",
+                "gradle/wrapper/gradle-wrapper.properties", "buildSrc/build.gradle", "fabric/src/main/java/A.java",
+                "common/src/main/java/Common.java", "neoforge/src/main/java/N.java", "libs/shared/build.gradle")) {
+            assertTrue(Files.isRegularFile(this.worktree.resolve(file)), file);
+        }
+        // Build output and directories that are not projects stay behind
+        for (String file : List.of("buildSrc/build", "fabric/build", "run", "build")) {
+            assertFalse(Files.exists(this.worktree.resolve(file)), file);
+        }
+    }
+
+    @Test
+    void refreshFollowsRootBuild() throws IOException {
+        IsolatedWorktree.create(this.root, this.worktree, modules(), Set.of());
+        Files.delete(this.root.resolve("gradle/libs.versions.toml"));
+        Files.delete(this.root.resolve("build.gradle"));
+        write(this.root.resolve("build.gradle.kts"), "\n");
+
+        IsolatedWorktree.create(this.root, this.worktree, modules(), Set.of());
+        assertFalse(Files.exists(this.worktree.resolve("gradle/libs.versions.toml")));
+        assertFalse(Files.exists(this.worktree.resolve("build.gradle")));
+        assertTrue(Files.isRegularFile(this.worktree.resolve("build.gradle.kts")));
+    }
+
+    @Test
+    void standaloneLoaderGetsNoRootBuild() throws IOException {
+        write(this.root.resolve("fabric/settings.gradle"), "rootProject.name = 'fabric'\n");
+        IsolatedWorktree.create(this.root, this.worktree, modules(), Set.of());
+
+        assertTrue(Files.isRegularFile(this.worktree.resolve("fabric/settings.gradle")));
+        for (String file : List.of("settings.gradle", "build.gradle", "gradle", "buildSrc", "neoforge")) {
+            assertFalse(Files.exists(this.worktree.resolve(file)), file);
+        }
+    }
+
+    private List<Path> modules() {
+        return List.of(this.root.resolve("fabric"), this.root.resolve("common"));
+    }
+
+    private static void write(Path file, String contents) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, contents);
+    }
+}
@@ -0,0 +1,201 @@
+package com.github.tatercertified.utils;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JarPatcherTest {
+    private static final String CONFIG = "{\"depends\": {\"minecraft\": \"%mcVer%\"}}";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void onlyPatchedEntryChanges() throws IOException {
+        Path jar = this.dir.resolve("mod.jar");
+        writeJar(jar, null);
+        Map<String, ZipEntry> before = entries(jar);
+
+        assertTrue(JarPatcher.patchEntry(jar, "fabric.mod.json", config -> config.replace("%mcVer%", ">=1.21.5")));
+
+        Map<String, ZipEntry> after = entries(jar);
+        assertEquals(List.copyOf(before.keySet()), List.copyOf(after.keySet()));
+        assertEquals(CONFIG.replace("%mcVer%", ">=1.21.5"), read(jar, "fabric.mod.json"));
+        for (String name : List.of("META-INF/MANIFEST.MF", "a/A.class", "stored.txt", "assets/big.txt")) {
+            ZipEntry original = before.get(name);
+            ZipEntry copied = after.get(name);
+            // Copied with their compressed data, not recompressed
+            assertEquals(original.getMethod(), copied.getMethod(), name);
+            assertEquals(original.getCompressedSize(), copied.getCompressedSize(), name);
+            assertEquals(original.getCrc(), copied.getCrc(), name);
+            assertEquals(original.getTime(), copied.getTime(), name);
+        }
+        assertEquals("stored", read(jar, "stored.txt"));
+        assertEquals("big ".repeat(10_000), read(jar, "assets/big.txt"));
+        assertEquals(List.of(), leftovers());
+    }
+
+    @Test
+    void patchedJarReadsAsStream() throws IOException {
+        Path jar = this.dir.resolve("mod.jar");
+        writeJar(jar, "comment");
+        assertTrue(JarPatcher.patchEntry(jar, "fabric.mod.json", config -> config.replace("%mcVer%", "1.21.5")));
+
+        // Local headers and data descriptors have to agree with the central directory
+        Map<String, String> streamed = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(jar))) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                streamed.put(entry.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(List.of("META-INF/MANIFEST.MF", "a/A.class", "stored.txt", "fabric.mod.json", "assets/big.txt"), List.copyOf(streamed.keySet()));
+        assertEquals(CONFIG.replace("%mcVer%", "1.21.5"), streamed.get("fabric.mod.json"));
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            assertEquals("comment", zip.getComment());
+        }
+    }
+
+    @Test
+    void patchingBackRestoresContents() throws IOException {
+        Path jar = this.dir.resolve("mod.jar");
+        writeJar(jar, null);
+        JarPatcher.patchEntry(jar, "fabric.mod.json", config -> config.replace("%mcVer%", ">=1.21.5 <1.21.7"));
+        JarPatcher.patchEntry(jar, "fabric.mod.json", config -> config.replace(">=1.21.5 <1.21.7", "%mcVer%"));
+        assertEquals(CONFIG, read(jar, "fabric.mod.json"));
+        assertEquals("big ".repeat(10_000), read(jar, "assets/big.txt"));
+    }
+
+    @Test
+    void storedEntryIsPatchedAsDeflated() throws IOException {
+        Path jar = this.dir.resolve("mod.jar");
+        writeJar(jar, null);
+        assertEquals(10, versionNeeded(jar, "stored.txt"));
+
+        assertTrue(JarPatcher.patchEntry(jar, "stored.txt", text -> text + " and patched"));
+        assertEquals(ZipEntry.DEFLATED, entries(jar).get("stored.txt").getMethod());
+        assertEquals(20, versionNeeded(jar, "stored.txt"));
+        assertEquals("stored and patched", read(jar, "stored.txt"));
+    }
+
+    @Test
+    void missingEntryLeavesJarAlone() throws IOException {
+        Path jar = this.dir.resolve("mod.jar");
+        writeJar(jar, null);
+        byte[] before = Files.readAllBytes(jar);
+        assertFalse(JarPatcher.patchEntry(jar, "META-INF/mods.toml", config -> "changed"));
+        assertArrayEquals(before, Files.readAllBytes(jar));
+        assertEquals(List.of(), leftovers());
+    }
+
+    @Test
+    void zip64IsPatchedByCopy() throws IOException {
+        Path jar = this.dir.resolve("mod.jar");
+        // More entries than the plain end record can count
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("fabric.mod.json"));
+            out.write(CONFIG.getBytes(StandardCharsets.UTF_8));
+            for (int i = 0; i < 0x10000; i++) {
+                out.putNextEntry(new ZipEntry("e/" + i));
+            }
+        }
+        assertTrue(JarPatcher.patchEntry(jar, "fabric.mod.json", config -> config.replace("%mcVer%", "1.21.5")));
+        assertEquals(CONFIG.replace("%mcVer%", "1.21.5"), read(jar, "fabric.mod.json"));
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            assertEquals(0x10001, zip.size());
+        }
+    }
+
+    private static void writeJar(Path jar, String comment) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        try (OutputStream file = Files.newOutputStream(jar); JarOutputStream out = new JarOutputStream(file, manifest)) {
+            out.putNextEntry(new JarEntry("a/A.class"));
+            out.write(new byte[]{(byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0, 0, 61});
+            out.closeEntry();
+
+            byte[] stored = "stored".getBytes(StandardCharsets.UTF_8);
+            JarEntry storedEntry = new JarEntry("stored.txt");
+            storedEntry.setMethod(ZipEntry.STORED);
+            storedEntry.setSize(stored.length);
+            CRC32 crc = new CRC32();
+            crc.update(stored);
+            storedEntry.setCrc(crc.getValue());
+            out.putNextEntry(storedEntry);
+            out.write(stored);
+            out.closeEntry();
+
+            out.putNextEntry(new JarEntry("fabric.mod.json"));
+            out.write(CONFIG.getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+
+            out.putNextEntry(new JarEntry("assets/big.txt"));
+            out.write("big ".repeat(10_000).getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+            if (comment != null) {
+                out.setComment(comment);
+            }
+        }
+    }
+
+    private static Map<String, ZipEntry> entries(Path jar) throws IOException {
+        Map<String, ZipEntry> entries = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(jar.toFile())) {
+            zip.stream().forEach(entry -> entries.put(entry.getName(), entry));
+        }
+        return entries;
+    }
+
+    /**
+     * @return The "version needed to extract" of an entry in the central directory of a jar without a comment
+     */
+    private static int versionNeeded(Path jar, String name) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(jar)).order(ByteOrder.LITTLE_ENDIAN);
+        int position = bytes.getInt(bytes.capacity() - 6);
+        while (bytes.getInt(position) == 0x02014b50) {
+            int nameLength = Short.toUnsignedInt(bytes.getShort(position + 28));
+            String entryName = new String(bytes.array(), position + 46, nameLength, StandardCharsets.UTF_8);
+            if (entryName.equals(name)) {
+                return Short.toUnsignedInt(bytes.getShort(position + 6));
+            }
+            position += 46 + nameLength + Short.toUnsignedInt(bytes.getShort(position + 30)) + Short.toUnsignedInt(bytes.getShort(position + 32));
+        }
+        throw new AssertionError(name + " is not in the central directory");
+    }
+
+    private static String read(Path jar, String name) throws IOException {
+        try (ZipFile zip = new ZipFile(jar.toFile()); InputStream in = zip.getInputStream(zip.getEntry(name))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private List<String> leftovers() throws IOException {
+        List<String> names = new ArrayList<>();
+        try (Stream<Path> stream = Files.list(this.dir)) {
+            stream.map(path -> path.getFileName().toString()).filter(name -> !name.equals("mod.jar")).forEach(names::add);
+        }
+        return names;
+    }
+}
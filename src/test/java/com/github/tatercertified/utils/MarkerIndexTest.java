@@ -0,0 +1,157 @@
+package com.github.tatercertified.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MarkerIndexTest {
+    private static final String MARKED = "class A {\n//: >=1.21.7\n    void a() {}\n/*\\ ELIF 1.21.\u00e9\n//: ELSE\n\\END */\n}\n";
+
+    @TempDir
+    Path dir;
+
+    private Path indexFile;
+    private Path marked;
+    private Path plain;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.indexFile = this.dir.resolve("build/multimc/marker-index");
+        this.marked = this.dir.resolve("A.java");
+        this.plain = this.dir.resolve("B.java");
+        Files.writeString(this.marked, MARKED);
+        Files.writeString(this.plain, "class B {\n}\n");
+    }
+
+    @Test
+    void savedIndexLoadsTheSame() {
+        MarkerIndex index = MarkerIndex.load(this.indexFile);
+        assertEquals(List.of(this.marked), index.refresh(List.of(this.plain, this.marked)));
+        List<SourcePreprocessor.Marker> markers = index.getMarkers(this.marked);
+        assertEquals(4, markers.size());
+        index.save();
+
+        MarkerIndex loaded = MarkerIndex.load(this.indexFile);
+        assertEquals(markers, loaded.getMarkers(this.marked));
+        assertEquals(List.of(), loaded.getMarkers(this.plain));
+        assertNull(loaded.getMarkers(this.dir.resolve("C.java")));
+    }
+
+    @Test
+    void unchangedStampsAreTrusted() throws IOException {
+        MarkerIndex index = MarkerIndex.load(this.indexFile);
+        index.refresh(List.of(this.marked));
+        index.save();
+
+        // Same size and modification time, so the file is not opened again
+        FileTime modified = Files.getLastModifiedTime(this.marked);
+        Files.writeString(this.marked, MARKED.replace("//: ELSE", "int  x;!"));
+        Files.setLastModifiedTime(this.marked, modified);
+        MarkerIndex loaded = MarkerIndex.load(this.indexFile);
+        assertEquals(List.of(this.marked), loaded.refresh(List.of(this.marked)));
+        assertEquals(4, loaded.getMarkers(this.marked).size());
+
+        Files.setLastModifiedTime(this.marked, FileTime.fromMillis(modified.toMillis() + 2000));
+        assertEquals(List.of(this.marked), loaded.refresh(List.of(this.marked)));
+        assertEquals(3, loaded.getMarkers(this.marked).size());
+    }
+
+    @Test
+    void touchedFileKeepsMarkers() throws IOException {
+        MarkerIndex index = MarkerIndex.load(this.indexFile);
+        index.refresh(List.of(this.marked));
+        List<SourcePreprocessor.Marker> markers = index.getMarkers(this.marked);
+        Files.setLastModifiedTime(this.marked, FileTime.fromMillis(Files.getLastModifiedTime(this.marked).toMillis() + 2000));
+        index.refresh(List.of(this.marked));
+        assertSame(markers, index.getMarkers(this.marked));
+    }
+
+    @Test
+    void updateFollowsRewrite() throws IOException {
+        MarkerIndex index = MarkerIndex.load(this.indexFile);
+        index.refresh(List.of(this.plain));
+        String rewritten = "//: >=1.21.7\n//: END\n";
+        Files.writeString(this.plain, rewritten);
+        index.update(this.plain, rewritten.getBytes(StandardCharsets.UTF_8));
+        assertEquals(2, index.getMarkers(this.plain).size());
+        assertEquals(List.of(this.plain), index.refresh(List.of(this.plain)));
+    }
+
+    @Test
+    void filesNotSeenAreDropped() {
+        MarkerIndex index = MarkerIndex.load(this.indexFile);
+        index.refresh(List.of(this.plain, this.marked));
+        index.save();
+
+        MarkerIndex loaded = MarkerIndex.load(this.indexFile);
+        loaded.refresh(List.of(this.plain));
+        loaded.save();
+        MarkerIndex trimmed = MarkerIndex.load(this.indexFile);
+        assertNotNull(trimmed.getMarkers(this.plain));
+        assertNull(trimmed.getMarkers(this.marked));
+
+        // A removed file is dropped even if it was seen
+        trimmed.refresh(List.of(this.plain));
+        trimmed.remove(this.plain);
+        trimmed.save();
+        assertNull(MarkerIndex.load(this.indexFile).getMarkers(this.plain));
+    }
+
+    @Test
+    void corruptIndexIsRebuilt() throws IOException {
+        MarkerIndex index = MarkerIndex.load(this.indexFile);
+        index.refresh(List.of(this.marked));
+        index.save();
+        byte[] saved = Files.readAllBytes(this.indexFile);
+
+        // Cut off in the middle of the markers
+        Files.write(this.indexFile, Arrays.copyOf(saved, saved.length - 5));
+        assertNull(MarkerIndex.load(this.indexFile).getMarkers(this.marked));
+
+        // Another format version
+        byte[] otherVersion = saved.clone();
+        otherVersion[3]++;
+        Files.write(this.indexFile, otherVersion);
+        assertNull(MarkerIndex.load(this.indexFile).getMarkers(this.marked));
+
+        // The markers of the only file are at the end, the marker count right before them
+        int markers = saved.length - markersLength(index.getMarkers(this.marked));
+        // A marker kind this version does not know, it follows the offset and line of the marker
+        byte[] unknownKind = saved.clone();
+        unknownKind[markers + 8] = 100;
+        Files.write(this.indexFile, unknownKind);
+        assertNull(MarkerIndex.load(this.indexFile).getMarkers(this.marked));
+
+        byte[] negativeCount = saved.clone();
+        negativeCount[markers - 4] = (byte) 0xFF;
+        Files.write(this.indexFile, negativeCount);
+        MarkerIndex rebuilt = MarkerIndex.load(this.indexFile);
+        assertNull(rebuilt.getMarkers(this.marked));
+        assertEquals(List.of(this.marked), rebuilt.refresh(List.of(this.marked)));
+    }
+
+    /**
+     * @return How many bytes the markers of a file take in the index
+     */
+    private static int markersLength(List<SourcePreprocessor.Marker> markers) {
+        int length = 0;
+        for (SourcePreprocessor.Marker marker : markers) {
+            // offset, line, kind, has range, and the range as modified UTF-8
+            length += 4 + 4 + 1 + 1;
+            if (marker.range() != null) {
+                length += 2 + marker.range().getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,177 @@
+package com.github.tatercertified.utils;
+
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SourcePreprocessorTest {
+    private static final Logger LOGGER = Logging.getLogger(SourcePreprocessorTest.class);
+    private static final String BRANCHES = """
+            class A {
+            //: >=1.21.7
+                void a() {}
+            /*\\ ELIF >=1.21.0 || 1.20.6
+                void b() {}
+            //: ELSE
+                void c() {}
+            \\END */
+            }
+            """;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void firstSatisfiedBranchIsEnabled() {
+        assertEquals(BRANCHES, apply(BRANCHES, "1.21.8"));
+        assertEquals("""
+                class A {
+                /*\\ >=1.21.7
+                    void a() {}
+                \\ELIF >=1.21.0 || 1.20.6 */
+                    void b() {}
+                /*\\ ELSE
+                    void c() {}
+                \\END */
+                }
+                """, apply(BRANCHES, "1.21.5"));
+        // Both ranges of the ELIF are tried before the ELSE
+        assertEquals(apply(BRANCHES, "1.21.5"), apply(BRANCHES, "1.20.6"));
+        assertEquals("""
+                class A {
+                /*\\ >=1.21.7
+                    void a() {}
+                //: ELIF >=1.21.0 || 1.20.6
+                    void b() {}
+                \\ELSE */
+                    void c() {}
+                //: END
+                }
+                """, apply(BRANCHES, "1.20.1"));
+    }
+
+    @Test
+    void switchingBackRestoresSource() {
+        String source = BRANCHES;
+        for (String version : List.of("1.20.1", "1.21.5", "1.20.1", "1.21.7")) {
+            String switched = apply(source, version);
+            assertEquals(source.length(), switched.length(), "Toggling must keep the length");
+            source = switched;
+        }
+        assertEquals(BRANCHES, source);
+        // Applying the same version twice changes nothing
+        byte[] bytes = BRANCHES.getBytes(StandardCharsets.UTF_8);
+        assertFalse(SourcePreprocessor.rewrite(bytes, SemverCache.version("1.21.7"), "A.java", LOGGER));
+    }
+
+    @Test
+    void markersInsideDisabledBranchStayLineComments() {
+        String source = """
+                //: >=1.21.6
+                    //: >=1.21.7
+                    void a() {}
+                    //: ELSE
+                    void b() {}
+                    //: END
+                //: END
+                """;
+        String disabledOuter = apply(source, "1.21.5");
+        // Block comments do not nest, so only the outer block is commented out
+        assertEquals("""
+                /*\\ >=1.21.6
+                    //: >=1.21.7
+                    void a() {}
+                    //: ELSE
+                    void b() {}
+                    //: END
+                \\END */
+                """, disabledOuter);
+        assertEquals("""
+                //: >=1.21.6
+                    /*\\ >=1.21.7
+                    void a() {}
+                    \\ELSE */
+                    void b() {}
+                    //: END
+                //: END
+                """, apply(disabledOuter, "1.21.6"));
+        String latest = """
+                //: >=1.21.6
+                    //: >=1.21.7
+                    void a() {}
+                    /*\\ ELSE
+                    void b() {}
+                    \\END */
+                //: END
+                """;
+        assertEquals(latest, apply(apply(disabledOuter, "1.21.6"), "1.21.7"));
+        assertEquals(disabledOuter, apply(latest, "1.21.5"));
+    }
+
+    @Test
+    void blockWithoutSatisfiedBranchIsCommentedOut() {
+        String source = "//: >=1.21.7\r\nvoid a() {}\r\n//: ELIF 1.21.6\r\nvoid b() {}\r\n//: END\r\n";
+        // Line terminators are kept as they are
+        assertEquals("/*\\ >=1.21.7\r\nvoid a() {}\r\n//: ELIF 1.21.6\r\nvoid b() {}\r\n\\END */\r\n", apply(source, "1.21.5"));
+    }
+
+    @Test
+    void markersAreFound() {
+        String source = "  //: >=1.21.7\n\\ELSE */\n  /*\\ ELIF 1.21.6\n//: END\nint x; //: 1.21\n";
+        List<SourcePreprocessor.Marker> markers = SourcePreprocessor.findMarkers(source.getBytes(StandardCharsets.UTF_8));
+        assertEquals(List.of(
+                new SourcePreprocessor.Marker(0, 0, SourcePreprocessor.Kind.IF, ">=1.21.7"),
+                new SourcePreprocessor.Marker(15, 1, SourcePreprocessor.Kind.ELSE, null),
+                new SourcePreprocessor.Marker(24, 2, SourcePreprocessor.Kind.ELIF, "1.21.6"),
+                new SourcePreprocessor.Marker(42, 3, SourcePreprocessor.Kind.END, null)), markers);
+    }
+
+    @Test
+    void malformedBlocksAreReported() {
+        assertMalformed("No block to continue", 1, "int x;\n//: ELSE\n//: END\n");
+        assertMalformed("No block to close", 2, "//: >=1.21.7\n//: END\n//: END\n");
+        assertMalformed("Branch after ELSE", 2, "//: >=1.21.7\n//: ELSE\n//: ELIF 1.21.6\n//: END\n");
+        assertMalformed("Block is never closed", 0, "//: >=1.21.7\n//: 1.21.6\n//: END\n");
+    }
+
+    private static void assertMalformed(String problem, int line, String source) {
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        SourcePreprocessor.MalformedVersionSyntaxException e = assertThrows(SourcePreprocessor.MalformedVersionSyntaxException.class,
+                () -> SourcePreprocessor.rewrite(bytes, SemverCache.version("1.21.7"), "A.java", LOGGER));
+        assertTrue(e.getMessage().startsWith(problem), e.getMessage());
+        assertEquals("A.java", e.getFileName());
+        assertEquals(line, e.getLine());
+        assertArrayEquals(source.getBytes(StandardCharsets.UTF_8), bytes, "The buffer must be left untouched");
+    }
+
+    @Test
+    void indexedMarkersAreUsedAndRefreshed() throws Exception {
+        Path file = this.dir.resolve("A.java");
+        Files.writeString(file, BRANCHES);
+        MarkerIndex index = MarkerIndex.load(this.dir.resolve("index"));
+        assertEquals(List.of(file), index.refresh(List.of(file)));
+
+        assertTrue(SourcePreprocessor.process(file, SemverCache.version("1.20.1"), LOGGER, index));
+        assertEquals(apply(BRANCHES, "1.20.1"), Files.readString(file));
+        // The index follows the rewrite, so it still matches the file
+        assertTrue(SourcePreprocessor.matches(Files.readAllBytes(file), index.getMarkers(file)));
+        assertFalse(SourcePreprocessor.matches(("\n" + BRANCHES).getBytes(StandardCharsets.UTF_8), index.getMarkers(file)));
+
+        assertEquals(BRANCHES, new String(SourcePreprocessor.read(file, SemverCache.version("1.21.7"), LOGGER, index), StandardCharsets.UTF_8));
+        assertEquals(apply(BRANCHES, "1.20.1"), Files.readString(file));
+    }
+
+    private static String apply(String source, String version) {
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        SourcePreprocessor.rewrite(bytes, SemverCache.version(version), "A.java", LOGGER);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,155 @@
+package com.github.tatercertified.utils;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Simulates a run being killed at each point of a journaled rewrite by leaving the journal in the state the kill would
+ * leave it in, then recovers it the way the next run does.
+ */
+class WorkspaceJournalTest {
+    @TempDir
+    Path dir;
+
+    private Path journalDir;
+    private Path first;
+    private Path second;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        this.journalDir = this.dir.resolve("build/multimc/journal");
+        this.first = Files.writeString(this.dir.resolve("First.java"), "class First {}\n");
+        this.second = Files.writeString(this.dir.resolve("gradle.properties"), "minecraft_version=1.21.5\n");
+    }
+
+    @Test
+    void committedJournalRecoversNothing() throws IOException {
+        WorkspaceJournal journal = WorkspaceJournal.begin(this.journalDir);
+        journal.record(this.first);
+        Files.writeString(this.first, "class First { int rewritten; }\n");
+        journal.commit();
+
+        assertFalse(Files.exists(this.journalDir));
+        assertEquals(List.of(), WorkspaceJournal.recover(this.journalDir));
+        assertEquals("class First { int rewritten; }\n", Files.readString(this.first));
+    }
+
+    @Test
+    void killBeforeBackupIsWritten() throws IOException {
+        WorkspaceJournal.begin(this.journalDir);
+        // The copy was still in progress, so neither the backup nor its index line exist
+        Files.writeString(this.journalDir.resolve("0.bak.tmp"), "class Fi");
+
+        assertEquals(List.of(), WorkspaceJournal.recover(this.journalDir));
+        assertEquals("class First {}\n", Files.readString(this.first));
+        assertFalse(Files.exists(this.journalDir));
+    }
+
+    @Test
+    void killAfterBackupBeforeIndexLine() throws IOException {
+        WorkspaceJournal.begin(this.journalDir);
+        Files.copy(this.first, this.journalDir.resolve("0.bak"));
+
+        assertEquals(List.of(), WorkspaceJournal.recover(this.journalDir));
+        assertEquals("class First {}\n", Files.readString(this.first));
+        assertFalse(Files.exists(this.journalDir));
+    }
+
+    @Test
+    void killAfterRewriteBeforeCommit() throws IOException {
+        WorkspaceJournal journal = WorkspaceJournal.begin(this.journalDir);
+        journal.record(this.first);
+        Files.writeString(this.first, "class First { int rewritten; }\n");
+        journal.record(this.second);
+        Files.writeString(this.second, "minecraft_version=1.21.7\n");
+        // Recording a file again must not replace its original backup
+        journal.record(this.first);
+        Files.writeString(this.first, "class First { int rewrittenTwice; }\n");
+
+        List<Path> restored = WorkspaceJournal.recover(this.journalDir);
+
+        assertEquals(2, restored.size());
+        assertEquals("class First {}\n", Files.readString(this.first));
+        assertEquals("minecraft_version=1.21.5\n", Files.readString(this.second));
+        assertFalse(Files.exists(this.journalDir));
+    }
+
+    @Test
+    void tornLastIndexLineIsIgnored() throws IOException {
+        WorkspaceJournal journal = WorkspaceJournal.begin(this.journalDir);
+        journal.record(this.first);
+        Files.writeString(this.first, "class First { int rewritten; }\n");
+        // The second backup is complete, but the kill cut its index line in the middle of the path
+        Files.copy(this.second, this.journalDir.resolve("1.bak"));
+        String torn = "1.bak\t" + this.second.toAbsolutePath().toString().substring(0, this.second.toAbsolutePath().toString().length() - 4);
+        Files.writeString(this.journalDir.resolve(WorkspaceJournal.INDEX_FILE), torn, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        List<Path> restored = WorkspaceJournal.recover(this.journalDir);
+
+        assertEquals(List.of(this.first.toAbsolutePath()), restored);
+        assertEquals("class First {}\n", Files.readString(this.first));
+        assertFalse(Files.exists(Path.of(torn.substring(torn.indexOf('\t') + 1))));
+        assertFalse(Files.exists(this.journalDir));
+    }
+
+    @Test
+    void secondInterruptionDuringRecovery() throws IOException {
+        WorkspaceJournal journal = WorkspaceJournal.begin(this.journalDir);
+        journal.record(this.first);
+        Files.writeString(this.first, "class First { int rewritten; }\n");
+        journal.record(this.second);
+        Files.writeString(this.second, "minecraft_version=1.21.7\n");
+
+        // The first recovery restored the first file and was killed while copying the second one back
+        Files.copy(this.journalDir.resolve("0.bak"), this.first, StandardCopyOption.REPLACE_EXISTING);
+        Path restoreTemp = this.second.resolveSibling(this.second.getFileName() + ".multimc-restore");
+        Files.writeString(restoreTemp, "minecraft_ver");
+
+        List<Path> restored = WorkspaceJournal.recover(this.journalDir);
+
+        assertEquals(2, restored.size());
+        assertEquals("class First {}\n", Files.readString(this.first));
+        assertEquals("minecraft_version=1.21.5\n", Files.readString(this.second));
+        assertFalse(Files.exists(restoreTemp));
+        assertFalse(Files.exists(this.journalDir));
+    }
+
+    @Test
+    void interruptionWhileDeletingJournal() throws IOException {
+        WorkspaceJournal journal = WorkspaceJournal.begin(this.journalDir);
+        journal.record(this.first);
+        Files.writeString(this.first, "class First { int rewritten; }\n");
+        journal.commit();
+        // A recovery that deleted the index and was killed before deleting the backups
+        Files.createDirectories(this.journalDir);
+        Files.writeString(this.journalDir.resolve("0.bak"), "class First {}\n");
+
+        assertEquals(List.of(), WorkspaceJournal.recover(this.journalDir));
+        assertEquals("class First { int rewritten; }\n", Files.readString(this.first));
+        assertFalse(Files.exists(this.journalDir));
+    }
+
+    @Test
+    void restoreKeepsFileJournaled() throws IOException {
+        WorkspaceJournal journal = WorkspaceJournal.begin(this.journalDir);
+        journal.record(this.second);
+        Files.writeString(this.second, "minecraft_version=1.21.7\n");
+        journal.restore(this.second);
+        assertEquals("minecraft_version=1.21.5\n", Files.readString(this.second));
+
+        Files.writeString(this.second, "minecraft_version=1.21.8\n");
+        WorkspaceJournal.recover(this.journalDir);
+        assertEquals("minecraft_version=1.21.5\n", Files.readString(this.second));
+    }
+}